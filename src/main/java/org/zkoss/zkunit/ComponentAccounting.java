@@ -0,0 +1,456 @@
+package org.zkoss.zkunit;
+
+import org.zkoss.zk.ui.AbstractComponent;
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zk.ui.Page;
+import org.zkoss.zk.ui.event.Event;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Accounts for the components each event creates, attaches, detaches and invalidates, to catch handlers which
+ * rebuild whole subtrees where they could update them in place.<br/>
+ * While it runs, every event dispatched through {@link ZKUtils#simulateEvent(Event)} or the mocked {@link
+ * org.zkoss.zk.ui.event.Events} is accounted for, along with any events its handlers send:
+ * <pre>
+ * ComponentAccounting accounting = ComponentAccounting.start();
+ * ZKUtils.simulateEvent(Events.ON_CLICK, refresh, null);
+ * accounting.stop();
+ * ZKAssert.assertCreatesAtMost(1, accounting.getLast());
+ * </pre>
+ * <p>
+ * Every component constructed while an event is dispatched is counted as created, whether it is attached or thrown
+ * away. ZK components look up the current execution as they are constructed, so constructions are seen through the
+ * mocked {@link org.zkoss.zk.ui.Executions}, and an accounting can only be started in a {@link ZKTest} or while a
+ * {@link ZKEnvironment} is installed.
+ * </p>
+ * <p>
+ * The tree the event's target belongs to, or every root of its page, is compared before and after the event: a
+ * component found only afterwards was attached, whether it was created by the event or before it, and a component
+ * found only before was detached. Invalidations and property updates are only reported by ZK for components attached
+ * to a page, so they are only counted for components attached to a {@link SimulatedDesktop}.
+ * </p>
+ * <p>
+ * Only one accounting runs at a time; starting another before it is stopped throws an {@link IllegalStateException}.
+ * Component trees are only walked around events dispatched while it runs.
+ * </p>
+ *
+ * @author Sean Connolly
+ */
+public class ComponentAccounting {
+
+    private static final int MAX_ACCOUNTS = 1000;
+
+    private static volatile ComponentAccounting current;
+
+    private final ConcurrentMap<Thread, Dispatch> dispatching = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Class<?>> classes = new ConcurrentHashMap<>();
+    private final List<Account> accounts = new ArrayList<>();
+    private final Account total = new Account(null, null);
+    private int accountCount;
+
+    private ComponentAccounting() {
+        // started with start()
+    }
+
+    /**
+     * What an event can do to a component.
+     */
+    public enum Change {
+        CREATED("created"),
+        ATTACHED("attached"),
+        DETACHED("detached"),
+        INVALIDATED("invalidated"),
+        UPDATED("updated");
+
+        private final String description;
+
+        Change(String description) {
+            this.description = description;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    /**
+     * Start accounting for the events dispatched.
+     *
+     * @return the running accounting
+     * @throws IllegalStateException if another accounting is running, or no {@link ZKEnvironment} is installed
+     */
+    public static synchronized ComponentAccounting start() {
+        if (current != null) {
+            throw new IllegalStateException("another accounting is already running");
+        }
+        if (!ZKEnvironment.isInstalled()) {
+            throw new IllegalStateException("components can only be accounted for in a ZKTest or a ZKEnvironment");
+        }
+        current = new ComponentAccounting();
+        return current;
+    }
+
+    /**
+     * Stop accounting. Events still being dispatched aren't accounted for.
+     */
+    public void stop() {
+        synchronized (ComponentAccounting.class) {
+            if (current == this) {
+                current = null;
+            }
+        }
+        dispatching.clear();
+    }
+
+    /**
+     * @return the running accounting, or null if none is
+     */
+    static ComponentAccounting current() {
+        return current;
+    }
+
+    /**
+     * Take note of the components around the event's target, which the current thread is about to dispatch the event
+     * to. Events dispatched by its handlers are accounted to the event which started the dispatch.
+     *
+     * @param event the event being dispatched
+     */
+    void enter(Event event) {
+        Thread thread = Thread.currentThread();
+        Dispatch dispatch = dispatching.get(thread);
+        if (dispatch != null) {
+            dispatch.depth++;
+            return;
+        }
+        dispatch = new Dispatch(event);
+        dispatch.before = collect(dispatch.roots());
+        dispatching.put(thread, dispatch);
+    }
+
+    /**
+     * Account for the event once the current thread's outermost dispatch is done.
+     */
+    void exit() {
+        Thread thread = Thread.currentThread();
+        Dispatch dispatch = dispatching.get(thread);
+        if (dispatch != null && dispatch.depth-- == 0) {
+            dispatching.remove(thread);
+            account(dispatch);
+        }
+    }
+
+    /**
+     * Called by a {@link SimulatedDesktop} for each change ZK reports to an attached component.
+     *
+     * @param component the component changed
+     * @param change    {@link Change#INVALIDATED} or {@link Change#UPDATED}
+     */
+    void changed(Component component, Change change) {
+        Dispatch dispatch = dispatching.get(Thread.currentThread());
+        if (dispatch != null && component != null) {
+            (change == Change.INVALIDATED ? dispatch.invalidated : dispatch.updated).put(component, component);
+        }
+    }
+
+    /**
+     * Called by the mocked {@link org.zkoss.zk.ui.Executions#getCurrent()}, which every ZK component calls as it is
+     * constructed. If the current thread is dispatching an event and the call was made by a component's constructor,
+     * the component is counted as created by the event.
+     */
+    void executionLookedUp() {
+        Dispatch dispatch = dispatching.get(Thread.currentThread());
+        if (dispatch != null) {
+            Class<?> type = constructing(new Throwable().getStackTrace());
+            if (type != null) {
+                dispatch.created.add(type);
+            }
+        }
+    }
+
+    /**
+     * Follow the chain of constructors up from {@link AbstractComponent}'s, each of a subclass of the last or
+     * delegating to another of the same class, to the class of the component being constructed.
+     *
+     * @return the class of the component being constructed, or null if the stack isn't in a component's constructor
+     */
+    private Class<?> constructing(StackTraceElement[] stack) {
+        int first = 0;
+        while (first < stack.length && !(isConstructor(stack[first])
+                && stack[first].getClassName().equals(AbstractComponent.class.getName()))) {
+            first++;
+        }
+        if (first == stack.length) {
+            return null;
+        }
+        Class<?> type = AbstractComponent.class;
+        for (int i = first + 1; i < stack.length && isConstructor(stack[i]); i++) {
+            Class<?> caller = load(stack[i].getClassName());
+            if (caller == null || (caller != type && caller.getSuperclass() != type)) {
+                break;
+            }
+            type = caller;
+        }
+        return type;
+    }
+
+    private static boolean isConstructor(StackTraceElement frame) {
+        return frame.getMethodName().equals("<init>");
+    }
+
+    private Class<?> load(String name) {
+        Class<?> type = classes.get(name);
+        if (type == null) {
+            try {
+                type = Class.forName(name, false, ComponentAccounting.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                return null;
+            }
+            classes.putIfAbsent(name, type);
+        }
+        return type;
+    }
+
+    private void account(Dispatch dispatch) {
+        Map<Component, Component> after = collect(dispatch.roots());
+        Account account = new Account(dispatch.event.getName(), dispatch.event.getTarget());
+        synchronized (this) {
+            for (Class<?> type : dispatch.created) {
+                account.add(Change.CREATED, type, 1);
+            }
+            for (Component component : after.keySet()) {
+                if (!dispatch.before.containsKey(component)) {
+                    account.add(Change.ATTACHED, component);
+                }
+            }
+            for (Component component : dispatch.before.keySet()) {
+                if (!after.containsKey(component)) {
+                    account.add(Change.DETACHED, component);
+                }
+            }
+            // ZK renders a newly attached component whole, so its invalidations and updates cost nothing more
+            for (Component component : dispatch.invalidated.keySet()) {
+                if (after.containsKey(component) && dispatch.before.containsKey(component)) {
+                    account.add(Change.INVALIDATED, component);
+                }
+            }
+            for (Component component : dispatch.updated.keySet()) {
+                if (after.containsKey(component) && dispatch.before.containsKey(component)
+                        && !dispatch.invalidated.containsKey(component)) {
+                    account.add(Change.UPDATED, component);
+                }
+            }
+            total.addAll(account);
+            if (accounts.size() < MAX_ACCOUNTS) {
+                accounts.add(account);
+            }
+            accountCount++;
+        }
+    }
+
+    /**
+     * @return every component in the trees under the given roots
+     */
+    private static Map<Component, Component> collect(Collection<Component> roots) {
+        Map<Component, Component> components = new IdentityHashMap<>();
+        Deque<Component> pending = new ArrayDeque<>(roots);
+        while (!pending.isEmpty()) {
+            Component component = pending.pop();
+            if (components.put(component, component) == null) {
+                pending.addAll(component.getChildren());
+            }
+        }
+        return components;
+    }
+
+    private static Component root(Component component) {
+        Component root = component;
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        return root;
+    }
+
+    /**
+     * @return the accounts of the events dispatched, outermost only, up to the first 1000
+     */
+    public synchronized List<Account> getAccounts() {
+        return Collections.unmodifiableList(new ArrayList<>(accounts));
+    }
+
+    /**
+     * @return the number of events accounted for, including any not kept
+     */
+    public synchronized int getAccountCount() {
+        return accountCount;
+    }
+
+    /**
+     * @return the account of the last event kept
+     * @throws IllegalStateException if no event has been dispatched
+     */
+    public synchronized Account getLast() {
+        if (accounts.isEmpty()) {
+            throw new IllegalStateException("no event has been dispatched");
+        }
+        return accounts.get(accounts.size() - 1);
+    }
+
+    /**
+     * @return the totals over every event dispatched
+     */
+    public synchronized Account getTotal() {
+        Account copy = new Account(null, null);
+        copy.addAll(total);
+        return copy;
+    }
+
+    /**
+     * An event in progress on a thread.
+     */
+    private static final class Dispatch {
+
+        private final Event event;
+        private final Page page;
+        private final Component root;
+        private final Map<Component, Component> invalidated = new IdentityHashMap<>();
+        private final Map<Component, Component> updated = new IdentityHashMap<>();
+        private final List<Class<?>> created = new ArrayList<>();
+        private Map<Component, Component> before;
+        private int depth;
+
+        private Dispatch(Event event) {
+            this.event = event;
+            Component target = event.getTarget();
+            this.page = target == null ? null : target.getPage();
+            this.root = target == null || page != null ? null : root(target);
+        }
+
+        /**
+         * @return the roots of the page the event's target is attached to, or else of the tree it was in
+         */
+        private Collection<Component> roots() {
+            if (page != null) {
+                return page.getRoots();
+            }
+            return root == null ? Collections.<Component>emptyList() : Collections.singletonList(root(root));
+        }
+    }
+
+    /**
+     * The components created, attached, detached and invalidated by an event, or by every event accounted for.
+     */
+    public static final class Account {
+
+        private final String eventName;
+        private final Component target;
+        private final Map<Change, Map<Class<?>, Integer>> counts = new EnumMap<>(Change.class);
+        private final int[] totals = new int[Change.values().length];
+
+        private Account(String eventName, Component target) {
+            this.eventName = eventName;
+            this.target = target;
+        }
+
+        private void add(Change change, Component component) {
+            add(change, component.getClass(), 1);
+        }
+
+        private void add(Change change, Class<?> type, int count) {
+            Map<Class<?>, Integer> byClass = counts.get(change);
+            if (byClass == null) {
+                byClass = new HashMap<>();
+                counts.put(change, byClass);
+            }
+            Integer previous = byClass.get(type);
+            byClass.put(type, previous == null ? count : previous + count);
+            totals[change.ordinal()] += count;
+        }
+
+        private void addAll(Account other) {
+            for (Map.Entry<Change, Map<Class<?>, Integer>> change : other.counts.entrySet()) {
+                for (Map.Entry<Class<?>, Integer> type : change.getValue().entrySet()) {
+                    add(change.getKey(), type.getKey(), type.getValue());
+                }
+            }
+        }
+
+        /**
+         * @return the name of the event, or null for the totals over every event
+         */
+        public String getEventName() {
+            return eventName;
+        }
+
+        /**
+         * @return the target of the event, or null for the totals over every event
+         */
+        public Component getTarget() {
+            return target;
+        }
+
+        /**
+         * @param change what was done to the components
+         * @return the number of components it was done to
+         */
+        public int getCount(Change change) {
+            return totals[change.ordinal()];
+        }
+
+        /**
+         * @param change what was done to the components
+         * @return the number of components it was done to by class, most first
+         */
+        public Map<Class<?>, Integer> getCountsByClass(Change change) {
+            Map<Class<?>, Integer> byClass = counts.get(change);
+            if (byClass == null) {
+                return Collections.emptyMap();
+            }
+            List<Map.Entry<Class<?>, Integer>> entries = new ArrayList<>(byClass.entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<Class<?>, Integer>>() {
+                @Override
+                public int compare(Map.Entry<Class<?>, Integer> a, Map.Entry<Class<?>, Integer> b) {
+                    int order = b.getValue().compareTo(a.getValue());
+                    return order != 0 ? order : a.getKey().getName().compareTo(b.getKey().getName());
+                }
+            });
+            Map<Class<?>, Integer> sorted = new LinkedHashMap<>();
+            for (Map.Entry<Class<?>, Integer> entry : entries) {
+                sorted.put(entry.getKey(), entry.getValue());
+            }
+            return Collections.unmodifiableMap(sorted);
+        }
+
+        /**
+         * @return the event, such as {@code onClick to <Button btn>}, or {@code every event} for the totals
+         */
+        String describe() {
+            return eventName == null ? "every event" : eventName + " to " + target;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder description = new StringBuilder(describe()).append(':');
+            for (Change change : Change.values()) {
+                description.append(change == Change.CREATED ? " " : ", ").append(getCount(change)).append(' ')
+                        .append(change);
+            }
+            return description.toString();
+        }
+    }
+
+}
@@ -0,0 +1,225 @@
+package org.zkoss.zkunit;
+
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zk.ui.HtmlBasedComponent;
+import org.zkoss.zk.ui.event.EventListener;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Fluent assertions on a ZK {@link Component}, created by {@link ZKAssertions#assertThat(Component)}.<br/>
+ * Each assertion returns this object so they can be chained; see {@link ZKAssert} for what each one asserts.
+ *
+ * @author Sean Connolly
+ */
+public class ComponentAssert {
+
+    private final Component actual;
+
+    ComponentAssert(Component actual) {
+        if (actual == null) {
+            fail("expected a component, found null");
+        }
+        this.actual = actual;
+    }
+
+    /**
+     * @return the component under assertion
+     */
+    public Component getActual() {
+        return actual;
+    }
+
+    /**
+     * @param expectedClass the Class the component should be
+     * @return this assertion
+     */
+    public ComponentAssert isInstanceOf(Class<?> expectedClass) {
+        if (!expectedClass.isInstance(actual)) {
+            fail("expected a " + expectedClass.getName() + ", found " + actual.getClass().getName());
+        }
+        return this;
+    }
+
+    /**
+     * @return this assertion
+     * @see ZKAssert#assertStubonly(Component)
+     */
+    public ComponentAssert isStubonly() {
+        ZKAssert.assertStubonly(actual);
+        return this;
+    }
+
+    /**
+     * @param expectedStyle the expected style
+     * @return this assertion
+     * @see ZKAssert#assertStyle(HtmlBasedComponent, String)
+     */
+    public ComponentAssert hasStyle(String expectedStyle) {
+        ZKAssert.assertStyle(asHtmlBased(), expectedStyle);
+        return this;
+    }
+
+    /**
+     * @param expectedClass the expected style class
+     * @return this assertion
+     * @see ZKAssert#assertStyleClass(HtmlBasedComponent, String)
+     */
+    public ComponentAssert hasStyleClass(String expectedClass) {
+        ZKAssert.assertStyleClass(asHtmlBased(), expectedClass);
+        return this;
+    }
+
+    /**
+     * @return this assertion
+     * @see ZKAssert#assertHasNoChildren(Component)
+     */
+    public ComponentAssert hasNoChildren() {
+        ZKAssert.assertHasNoChildren(actual);
+        return this;
+    }
+
+    /**
+     * @param expectedCount the number of children expected
+     * @return this assertion
+     */
+    public ComponentAssert hasChildCount(int expectedCount) {
+        int count = actual.getChildren().size();
+        if (count != expectedCount) {
+            assertEquals("container has the incorrect number of children", expectedCount, count);
+        }
+        return this;
+    }
+
+    /**
+     * @param expectedClass the Class at least one child should be
+     * @return this assertion
+     * @see ZKAssert#assertHasChildOfType(Component, Class)
+     */
+    public ComponentAssert hasChildOfType(Class<?> expectedClass) {
+        ZKAssert.assertHasChildOfType(actual, expectedClass);
+        return this;
+    }
+
+    /**
+     * @param unexpectedClass the Class no child should be
+     * @return this assertion
+     * @see ZKAssert#assertHasNoChildOfType(Component, Class)
+     */
+    public ComponentAssert hasNoChildOfType(Class<?> unexpectedClass) {
+        ZKAssert.assertHasNoChildOfType(actual, unexpectedClass);
+        return this;
+    }
+
+    /**
+     * @param expectedClass the Class the only child should be
+     * @return this assertion
+     * @see ZKAssert#assertOnlyChildIsOfType(Component, Class)
+     */
+    public ComponentAssert onlyChildIsOfType(Class<?> expectedClass) {
+        ZKAssert.assertOnlyChildIsOfType(actual, expectedClass);
+        return this;
+    }
+
+    /**
+     * @param index         the child index
+     * @param expectedClass the Class the child should be
+     * @return this assertion
+     * @see ZKAssert#assertChildIsOfType(Component, int, Class)
+     */
+    public ComponentAssert childIsOfType(int index, Class<?> expectedClass) {
+        ZKAssert.assertChildIsOfType(actual, index, expectedClass);
+        return this;
+    }
+
+    /**
+     * @param expectedClass the Class every child should be
+     * @return this assertion
+     */
+    public ComponentAssert allChildrenAreOfType(Class<?> expectedClass) {
+        List<Component> children = actual.getChildren();
+        for (int i = 0; i < children.size(); i++) {
+            Component child = children.get(i);
+            if (!expectedClass.isInstance(child)) {
+                fail("expected child " + i + " to be a " + expectedClass.getSimpleName() + ", found "
+                        + child.getClass().getSimpleName());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @param type          the html tag every child should be
+     * @param expectedCount the number of children expected
+     * @return this assertion
+     * @see ZKAssert#assertChildrenAreNativeHtmlComponents(Component, String, int)
+     */
+    public ComponentAssert childrenAreNativeHtmlComponents(String type, int expectedCount) {
+        ZKAssert.assertChildrenAreNativeHtmlComponents(actual, type, expectedCount);
+        return this;
+    }
+
+    /**
+     * @param eventName the name of the event
+     * @return this assertion
+     * @see ZKAssert#assertHasEventListener(Component, String)
+     */
+    public ComponentAssert hasEventListener(String eventName) {
+        ZKAssert.assertHasEventListener(actual, eventName);
+        return this;
+    }
+
+    /**
+     * @param eventName     the name of the event
+     * @param listenerClass the expected class of the listener
+     * @return this assertion
+     * @see ZKAssert#assertHasEventListener(Component, String, Class)
+     */
+    public ComponentAssert hasEventListener(String eventName, Class<? extends EventListener> listenerClass) {
+        ZKAssert.assertHasEventListener(actual, eventName, listenerClass);
+        return this;
+    }
+
+    /**
+     * @param eventName the name of the event
+     * @return this assertion
+     * @see ZKAssert#assertHasNoEventListeners(Component, String)
+     */
+    public ComponentAssert hasNoEventListeners(String eventName) {
+        ZKAssert.assertHasNoEventListeners(actual, eventName);
+        return this;
+    }
+
+    /**
+     * @param spec the specification the subtree rooted at the component should match
+     * @return this assertion
+     * @see ZKAssert#assertSubtree(Component, ComponentSpec)
+     */
+    public ComponentAssert matches(ComponentSpec spec) {
+        ZKAssert.assertSubtree(actual, spec);
+        return this;
+    }
+
+    /**
+     * @param index the child index
+     * @return fluent assertions on the child at the given index
+     */
+    public ComponentAssert child(int index) {
+        List<Component> children = actual.getChildren();
+        if (children.size() <= index) {
+            fail("expected at least " + (index + 1) + " children, found " + children.size());
+        }
+        return new ComponentAssert(children.get(index));
+    }
+
+    private HtmlBasedComponent asHtmlBased() {
+        if (!(actual instanceof HtmlBasedComponent)) {
+            fail("not an HtmlBasedComponent (got " + actual.getClass().getSimpleName() + ")");
+        }
+        return (HtmlBasedComponent) actual;
+    }
+
+}
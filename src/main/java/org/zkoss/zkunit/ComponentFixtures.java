@@ -0,0 +1,241 @@
+package org.zkoss.zkunit;
+
+import org.zkoss.zk.ui.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A cache of named component trees, built once and copied for each test which uses them.<br/>
+ * Building a large user interface can cost tens of milliseconds per test. A fixture's tree is built the first time it
+ * is used, then each test gets its own copy:
+ * <pre>
+ * ComponentFixtures.define("inbox", new ComponentFixtures.Builder&lt;Window&gt;() {
+ *     public Window build() {
+ *         return new InboxWindow(1000);
+ *     }
+ * });
+ * Window inbox = ComponentFixtures.get("inbox");
+ * </pre>
+ * <p>
+ * Copies are made with {@link Component#clone()} where the clone shares no mutable state with the original. Otherwise,
+ * such as when a listener has captured a component of the original tree, copies are deserialized from a snapshot of
+ * the tree, and failing that the tree is rebuilt for every test. The first copy of each fixture is checked to choose
+ * between them; see {@link #getStrategy(String)}.
+ * </p>
+ * <p>
+ * Fixtures are cached for as long as this class is loaded. In a {@link ZKTest}, that is for each test class.
+ * </p>
+ *
+ * @author Sean Connolly
+ */
+public final class ComponentFixtures {
+
+    private static final ConcurrentMap<String, Fixture<?>> FIXTURES = new ConcurrentHashMap<>();
+
+    private ComponentFixtures() {
+        // static utility
+    }
+
+    /**
+     * Builds a fixture's component tree.
+     */
+    public interface Builder<T extends Component> {
+
+        /**
+         * @return a new component tree
+         */
+        T build();
+    }
+
+    /**
+     * How copies of a fixture are made.
+     */
+    public enum Strategy {
+        /**
+         * Copies are made with {@link Component#clone()}.
+         */
+        CLONE,
+        /**
+         * Copies are deserialized from a snapshot of the tree, because a clone would share state with the original.
+         */
+        SERIALIZE,
+        /**
+         * The tree is rebuilt for every copy, because it can be neither cloned nor serialized faithfully.
+         */
+        REBUILD
+    }
+
+    /**
+     * Define a fixture, if it isn't defined already. Its tree isn't built until it is first used.
+     *
+     * @param name    the name of the fixture
+     * @param builder builds the fixture's tree
+     */
+    public static <T extends Component> void define(String name, Builder<T> builder) {
+        FIXTURES.putIfAbsent(name, new Fixture<>(name, builder));
+    }
+
+    /**
+     * @param name the name of the fixture
+     * @return a new copy of the fixture's tree, shared with no other test
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Component> T get(String name) {
+        return (T) fixture(name).copy();
+    }
+
+    /**
+     * @param name the name of the fixture
+     * @return how copies of the fixture are made
+     */
+    public static Strategy getStrategy(String name) {
+        Fixture<?> fixture = fixture(name);
+        fixture.copy();
+        return fixture.strategy;
+    }
+
+    /**
+     * Forget every fixture, so they are built again.
+     */
+    public static void clear() {
+        FIXTURES.clear();
+    }
+
+    private static Fixture<?> fixture(String name) {
+        Fixture<?> fixture = FIXTURES.get(name);
+        if (fixture == null) {
+            throw new IllegalArgumentException("No fixture '" + name + "' has been defined");
+        }
+        return fixture;
+    }
+
+    private static final class Fixture<T extends Component> {
+
+        private final String name;
+        private final Builder<T> builder;
+        private T prototype;
+        private byte[] snapshot;
+        private Strategy strategy;
+
+        private Fixture(String name, Builder<T> builder) {
+            this.name = name;
+            this.builder = builder;
+        }
+
+        private synchronized T copy() {
+            if (strategy == null) {
+                return choose();
+            }
+            switch (strategy) {
+                case CLONE:
+                    return cloneOf(prototype);
+                case SERIALIZE:
+                    return deserialize(snapshot);
+                default:
+                    return builder.build();
+            }
+        }
+
+        /**
+         * Build the prototype and make the first copy, trying each strategy in turn until one gives a faithful copy.
+         */
+        private T choose() {
+            prototype = builder.build();
+            T copy = tryClone(prototype);
+            if (copy != null && SharedStateChecker.check(prototype, copy).isEmpty()) {
+                strategy = Strategy.CLONE;
+                return copy;
+            }
+            snapshot = serialize(prototype);
+            copy = snapshot == null ? null : tryDeserialize(snapshot);
+            if (copy != null && isFaithful(prototype, copy)) {
+                strategy = Strategy.SERIALIZE;
+                return copy;
+            }
+            snapshot = null;
+            strategy = Strategy.REBUILD;
+            T rebuilt = prototype;
+            prototype = null;
+            return rebuilt;
+        }
+
+        @SuppressWarnings("unchecked")
+        private T cloneOf(T original) {
+            return (T) original.clone();
+        }
+
+        private T tryClone(T original) {
+            try {
+                return cloneOf(original);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Serialization silently drops listeners which aren't serializable, so check none went missing.
+         */
+        private static boolean isFaithful(Component original, Component copy) {
+            return SharedStateChecker.check(original, copy).isEmpty() && hasSameListeners(original, copy);
+        }
+
+        private static boolean hasSameListeners(Component original, Component copy) {
+            for (String eventName : SharedStateChecker.eventNames(original)) {
+                if (count(original.getEventListeners(eventName)) != count(copy.getEventListeners(eventName))) {
+                    return false;
+                }
+            }
+            List<Component> originalChildren = original.getChildren();
+            List<Component> copyChildren = copy.getChildren();
+            for (int i = 0; i < originalChildren.size(); i++) {
+                if (!hasSameListeners(originalChildren.get(i), copyChildren.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int count(Iterable<?> iterable) {
+            int count = 0;
+            for (Object ignored : iterable) {
+                count++;
+            }
+            return count;
+        }
+
+        private byte[] serialize(T original) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+                output.writeObject(original);
+            } catch (IOException e) {
+                return null;
+            }
+            return bytes.toByteArray();
+        }
+
+        private T tryDeserialize(byte[] bytes) {
+            try {
+                return deserialize(bytes);
+            } catch (IllegalStateException e) {
+                return null;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private T deserialize(byte[] bytes) {
+            try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                return (T) input.readObject();
+            } catch (IOException | ClassNotFoundException e) {
+                throw new IllegalStateException("Unable to copy fixture '" + name + "'", e);
+            }
+        }
+    }
+
+}
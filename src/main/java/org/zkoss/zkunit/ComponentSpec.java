@@ -0,0 +1,171 @@
+package org.zkoss.zkunit;
+
+import org.hamcrest.Matcher;
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zk.ui.HtmlNativeComponent;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A declarative specification of a component subtree, checked in a single walk of the tree by {@link
+ * ZKAssert#assertSubtree(Component, ComponentSpec)}.<br/>
+ * Rather than stopping at the first failure, as the other assertions in {@link ZKAssert} do, every mismatch in the
+ * subtree is reported along with its path in the tree.
+ * <p>
+ * For example:
+ * <pre>
+ * ComponentSpec.of(Vlayout.class)
+ *         .childCount(10)
+ *         .allChildren(ComponentSpec.of(A.class))
+ *         .noDescendantOfType(Button.class);
+ * </pre>
+ * </p>
+ *
+ * @author Sean Connolly
+ */
+public class ComponentSpec {
+
+    final Class<?> type;
+    String nativeTag;
+    String sclass;
+    String style;
+    Integer childCount;
+    ComponentSpec allChildren;
+    final Map<Integer, ComponentSpec> children = new LinkedHashMap<>();
+    final List<Class<?>> forbiddenDescendants = new ArrayList<>();
+    final List<String> eventListeners = new ArrayList<>();
+    final List<Matcher<? super Component>> matchers = new ArrayList<>();
+
+    private ComponentSpec(Class<?> type) {
+        this.type = type;
+    }
+
+    /**
+     * @param type the Class the component should be
+     * @return a specification for a component of the given type
+     */
+    public static ComponentSpec of(Class<?> type) {
+        return new ComponentSpec(type);
+    }
+
+    /**
+     * @return a specification for any component
+     */
+    public static ComponentSpec any() {
+        return new ComponentSpec(Component.class);
+    }
+
+    /**
+     * @param tag the expected html tag
+     * @return a specification for a {@link HtmlNativeComponent} of the given tag
+     */
+    public static ComponentSpec nativeHtml(String tag) {
+        ComponentSpec spec = new ComponentSpec(HtmlNativeComponent.class);
+        spec.nativeTag = tag;
+        return spec;
+    }
+
+    /**
+     * @param expectedClass the style class the component should have
+     * @return this specification
+     */
+    public ComponentSpec sclass(String expectedClass) {
+        this.sclass = expectedClass;
+        return this;
+    }
+
+    /**
+     * @param expectedStyle the style the component should have
+     * @return this specification
+     */
+    public ComponentSpec style(String expectedStyle) {
+        this.style = expectedStyle;
+        return this;
+    }
+
+    /**
+     * @param expectedCount the number of children the component should have
+     * @return this specification
+     */
+    public ComponentSpec childCount(int expectedCount) {
+        this.childCount = expectedCount;
+        return this;
+    }
+
+    /**
+     * The component should have no children.
+     *
+     * @return this specification
+     */
+    public ComponentSpec noChildren() {
+        return childCount(0);
+    }
+
+    /**
+     * @param index the child index
+     * @param spec  the specification the child at that index should match
+     * @return this specification
+     */
+    public ComponentSpec child(int index, ComponentSpec spec) {
+        children.put(index, spec);
+        return this;
+    }
+
+    /**
+     * The component should have exactly the given children, in order.
+     *
+     * @param specs the specifications the children should match
+     * @return this specification
+     */
+    public ComponentSpec children(ComponentSpec... specs) {
+        for (int i = 0; i < specs.length; i++) {
+            child(i, specs[i]);
+        }
+        return childCount(specs.length);
+    }
+
+    /**
+     * @param spec the specification <i>all</i> of the component's children should match
+     * @return this specification
+     */
+    public ComponentSpec allChildren(ComponentSpec spec) {
+        this.allChildren = spec;
+        return this;
+    }
+
+    /**
+     * @param forbidden the Class no component anywhere below this one should be
+     * @return this specification
+     */
+    public ComponentSpec noDescendantOfType(Class<?> forbidden) {
+        forbiddenDescendants.add(forbidden);
+        return this;
+    }
+
+    /**
+     * @param eventName the name of an event which should have a listener registered on the component
+     * @return this specification
+     */
+    public ComponentSpec hasEventListener(String eventName) {
+        eventListeners.add(eventName);
+        return this;
+    }
+
+    /**
+     * @param matcher any further condition the component should satisfy
+     * @return this specification
+     */
+    public ComponentSpec matches(Matcher<? super Component> matcher) {
+        matchers.add(matcher);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "ComponentSpec[" + type.getSimpleName() + "]";
+    }
+
+}
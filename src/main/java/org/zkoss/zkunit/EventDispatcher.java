@@ -0,0 +1,445 @@
+package org.zkoss.zkunit;
+
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zk.ui.IdSpace;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.ForwardEvent;
+import org.zkoss.zk.ui.select.annotation.Listen;
+import org.zkoss.zk.ui.sys.ComponentsCtrl;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Delivers an {@link Event} along the same chain of handlers ZK would, the way the mocked {@link
+ * org.zkoss.zk.ui.event.Events} do in a {@link ZKTest}.<br/>
+ * Shared by everything in zkunit which fires events so they are all handled the same way.
+ * <p>
+ * The chain is:
+ * <ol>
+ * <li>the listeners registered on the target, including those ZK registers for {@code forward} attributes,</li>
+ * <li>the target's own public {@code onXxx} event method, if its class declares one,</li>
+ * <li>the {@code onXxx} method of the composer bound to the target, as ZK registers them when composing,</li>
+ * <li>if the target has an id, its space owner has a composer bound and nothing in ZK has wired the event up already,
+ * the handlers for {@code onXxx$id} in the target's space owner: its listeners and event method, and those of the
+ * composer bound to it with {@link ZKUtils#bindComposer(Component, Object)}, including {@code @Listen("onXxx = #id")}
+ * methods. ZK has wired the event up if one of the target's listeners forwarded it to the space owner as {@code
+ * onXxx$id}, or is a {@code @Listen} method of the space owner's composer; other forwards, such as those of a {@code
+ * forward} attribute, don't count.</li>
+ * </ol>
+ * The chain stops as soon as a handler stops the event's propagation.
+ * </p>
+ * <p>
+ * Events targeting a component attached to a {@link SimulatedDesktop} are handed to the desktop's event thread, as
+ * the client's requests are. The mocked {@code Events} check they are called on the event thread before they get
+ * here, so only events simulated on the client's behalf change threads.
+ * </p>
+ * <p>
+ * Listener registrations are read from the components on every dispatch, so adding or removing listeners takes
+ * effect immediately. Only the parts of the chain which are fixed by a class, its event methods and {@code @Listen}
+ * bindings, are resolved once per class and event name and cached.
+ * </p>
+ *
+ * @author Sean Connolly
+ */
+final class EventDispatcher {
+
+    /**
+     * The attribute under which ZK, and {@link ZKUtils#bindComposer(Component, Object)}, store a component's composer.
+     */
+    static final String COMPOSER_ATTRIBUTE = "$composer";
+
+    private static final Object NO_METHOD = new Object();
+
+    /**
+     * The listener ZK registers for wired {@code @Listen} methods, which is private to ZK and so can only be recognized
+     * by name, and its field holding the composer.
+     */
+    private static final String LISTEN_LISTENER = "org.zkoss.zk.ui.select.Selectors$ComposerEventListener";
+    private static final String LISTEN_LISTENER_COMPOSER = "_ctrl";
+
+    private static final ConcurrentMap<Class<?>, ConcurrentMap<String, Object>> EVENT_METHODS =
+            new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Class<?>, ConcurrentMap<String, Object>> COMPOSER_METHODS =
+            new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Class<?>, Map<String, List<ListenBinding>>> LISTEN_BINDINGS =
+            new ConcurrentHashMap<>();
+
+    /**
+     * How deeply dispatches are nested on each thread, so only the outermost is recorded in the {@link ZKTimings} and
+     * by the {@link SoakRecorder}.
+     */
+    private static final ThreadLocal<int[]> DEPTH = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    /**
+     * The events each thread has seen ZK forward to their target's space owner as {@code onXxx$id}, as it does once a
+     * composer has been wired, while their target's listeners run.
+     */
+    private static final ThreadLocal<Map<Event, Boolean>> FORWARDED = new ThreadLocal<Map<Event, Boolean>>() {
+        @Override
+        protected Map<Event, Boolean> initialValue() {
+            return new WeakHashMap<>();
+        }
+    };
+
+    private EventDispatcher() {
+        // static utility
+    }
+
+    /**
+     * Deliver the event along its chain of handlers, failing the test if any of them throws.
+     *
+     * @param event the event to dispatch
+     * @return the number of handlers invoked
+     */
+    static int dispatch(Event event) {
+        try {
+            return invoke(event);
+        } catch (Exception e) {
+            fail(e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Deliver the event along its chain of handlers.
+     *
+     * @param event the event to dispatch
+     * @return the number of handlers invoked
+     * @throws Exception anything thrown by a handler
+     */
+    static int invoke(Event event) throws Exception {
+        SimulatedDesktop desktop = SimulatedDesktop.of(event.getTarget());
+        if (desktop != null && !desktop.isEventThread()) {
+            return desktop.dispatch(event);
+        }
+        SoakRecorder soak = SoakRecorder.current();
+        EventProfiler profiler = EventProfiler.current();
+        ComponentAccounting accounting = ComponentAccounting.current();
+        if (!ZKTimings.isEnabled() && soak == null && profiler == null && accounting == null) {
+            return handle(event);
+        }
+        int[] depth = DEPTH.get();
+        long start = System.nanoTime();
+        depth[0]++;
+        if (profiler != null) {
+            profiler.enter(event);
+        }
+        if (accounting != null) {
+            accounting.enter(event);
+        }
+        try {
+            return handle(event);
+        } finally {
+            if (accounting != null) {
+                accounting.exit();
+            }
+            if (profiler != null) {
+                profiler.exit();
+            }
+            if (--depth[0] == 0) {
+                long nanos = System.nanoTime() - start;
+                ZKTimings.eventDispatched(nanos);
+                if (soak != null) {
+                    soak.record(event, nanos);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int handle(Event event) throws Exception {
+        Component target = event.getTarget();
+        if (target == null) {
+            return 0;
+        }
+        if (event instanceof ForwardEvent) {
+            recordForward((ForwardEvent) event);
+        }
+        String name = event.getName();
+        int invoked = 0;
+        Map<Event, Boolean> forwarded = FORWARDED.get();
+        forwarded.remove(event);
+        boolean wired = false;
+        for (EventListener listener : target.getEventListeners(name)) {
+            wired |= isListenWiredByZK(listener, target);
+            listener.onEvent(event);
+            invoked++;
+            if (!event.isPropagatable()) {
+                return invoked;
+            }
+        }
+        Method method = eventMethod(target.getClass(), name);
+        if (method != null) {
+            call(method, target, event);
+            invoked++;
+            if (!event.isPropagatable()) {
+                return invoked;
+            }
+        }
+        if (wired || forwarded.remove(event) != null) {
+            return invoked;
+        }
+        Object composer = target.getAttribute(COMPOSER_ATTRIBUTE);
+        Method composerMethod = composer == null ? null : composerMethod(composer.getClass(), name);
+        if (composerMethod != null) {
+            call(composerMethod, composer, event);
+            invoked++;
+            if (!event.isPropagatable()) {
+                return invoked;
+            }
+        }
+        if (!(event instanceof ForwardEvent)) {
+            invoked += forwardToSpaceOwner(target, event);
+        }
+        return invoked;
+    }
+
+    /**
+     * Forward the event to the {@code onXxx$id} handlers of the target's space owner, as ZK does once a {@link
+     * org.zkoss.zk.ui.util.GenericForwardComposer} or {@link org.zkoss.zk.ui.select.SelectorComposer} has been wired.
+     * Without a composer bound to the space owner, nothing in ZK forwards the event, so neither does this.
+     */
+    private static int forwardToSpaceOwner(Component target, Event event) throws Exception {
+        String id = target.getId();
+        if (id == null || id.isEmpty()) {
+            return 0;
+        }
+        IdSpace space = target.getSpaceOwner();
+        if (!(space instanceof Component) || space == target) {
+            return 0;
+        }
+        Component owner = (Component) space;
+        Object composer = owner.getAttribute(COMPOSER_ATTRIBUTE);
+        if (composer == null) {
+            return 0;
+        }
+        String forwardName = event.getName() + "$" + id;
+        int invoked = 0;
+        if (owner.getEventListeners(forwardName).iterator().hasNext()
+                || eventMethod(owner.getClass(), forwardName) != null) {
+            invoked += handle(new ForwardEvent(forwardName, owner, event));
+        } else {
+            Method method = composerMethod(composer.getClass(), forwardName);
+            if (method != null) {
+                call(method, composer, new ForwardEvent(forwardName, owner, event));
+                invoked++;
+            }
+        }
+        if (!event.isPropagatable()) {
+            return invoked;
+        }
+        List<ListenBinding> bindings = listenBindings(composer.getClass()).get(event.getName());
+        if (bindings != null) {
+            for (ListenBinding binding : bindings) {
+                if (binding.id.equals(id)) {
+                    call(binding.method, composer, event);
+                    invoked++;
+                    if (!event.isPropagatable()) {
+                        break;
+                    }
+                }
+            }
+        }
+        return invoked;
+    }
+
+    /**
+     * Note that ZK forwarded the origin of the event to its space owner as {@code onXxx$id}, as the forwards wired by a
+     * {@link org.zkoss.zk.ui.util.GenericForwardComposer} do, so the space owner's handlers are already part of the
+     * origin's chain.
+     */
+    private static void recordForward(ForwardEvent event) {
+        Event origin = event.getOrigin();
+        Component target = origin == null ? null : origin.getTarget();
+        if (target != null && !target.getId().isEmpty() && event.getTarget() == target.getSpaceOwner()
+                && event.getName().equals(origin.getName() + "$" + target.getId())) {
+            FORWARDED.get().put(origin, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * ZK registers its own listener for each {@code @Listen} method wired by {@link
+     * org.zkoss.zk.ui.select.Selectors}; if it has for the space owner's composer, the space owner's handlers are
+     * already part of the chain.
+     */
+    private static boolean isListenWiredByZK(EventListener<?> listener, Component target) {
+        if (!LISTEN_LISTENER.equals(listener.getClass().getName())) {
+            return false;
+        }
+        IdSpace space = target.getSpaceOwner();
+        if (!(space instanceof Component)) {
+            return false;
+        }
+        Object composer = ((Component) space).getAttribute(COMPOSER_ATTRIBUTE);
+        try {
+            Field field = listener.getClass().getDeclaredField(LISTEN_LISTENER_COMPOSER);
+            field.setAccessible(true);
+            return composer != null && field.get(listener) == composer;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // can't tell which composer it belongs to, so assume ZK wired the space owner's
+            return true;
+        }
+    }
+
+    private static Method eventMethod(Class<?> type, String name) {
+        ConcurrentMap<String, Object> methods = methodsOf(EVENT_METHODS, type);
+        Object method = methods.get(name);
+        if (method == null) {
+            method = ComponentsCtrl.getEventMethod(type, name);
+            methods.putIfAbsent(name, method == null ? NO_METHOD : method);
+        }
+        return method == NO_METHOD ? null : (Method) method;
+    }
+
+    private static Method composerMethod(Class<?> type, String name) {
+        ConcurrentMap<String, Object> methods = methodsOf(COMPOSER_METHODS, type);
+        Object method = methods.get(name);
+        if (method == null) {
+            method = findHandler(type, name);
+            methods.putIfAbsent(name, method == null ? NO_METHOD : method);
+        }
+        return method == NO_METHOD ? null : (Method) method;
+    }
+
+    private static ConcurrentMap<String, Object> methodsOf(
+            ConcurrentMap<Class<?>, ConcurrentMap<String, Object>> cache, Class<?> type) {
+        ConcurrentMap<String, Object> methods = cache.get(type);
+        if (methods == null) {
+            cache.putIfAbsent(type, new ConcurrentHashMap<String, Object>());
+            methods = cache.get(type);
+        }
+        return methods;
+    }
+
+    private static Method findHandler(Class<?> type, String name) {
+        for (Method method : type.getMethods()) {
+            if (method.getName().equals(name) && isHandlerSignature(method)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isHandlerSignature(Method method) {
+        Class<?>[] parameters = method.getParameterTypes();
+        return parameters.length == 0 || (parameters.length == 1 && Event.class.isAssignableFrom(parameters[0]));
+    }
+
+    private static Map<String, List<ListenBinding>> listenBindings(Class<?> type) {
+        Map<String, List<ListenBinding>> bindings = LISTEN_BINDINGS.get(type);
+        if (bindings == null) {
+            bindings = parseListenBindings(type);
+            LISTEN_BINDINGS.putIfAbsent(type, bindings);
+        }
+        return bindings;
+    }
+
+    /**
+     * Parse the {@code @Listen} annotations of a composer class, keeping only those which select components by id.
+     */
+    private static Map<String, List<ListenBinding>> parseListenBindings(Class<?> type) {
+        Map<String, List<ListenBinding>> bindings = new HashMap<>();
+        for (Class<?> cls = type; cls != null && cls != Object.class; cls = cls.getSuperclass()) {
+            for (Method method : cls.getDeclaredMethods()) {
+                Listen listen = method.getAnnotation(Listen.class);
+                if (listen == null || !isHandlerSignature(method)) {
+                    continue;
+                }
+                method.setAccessible(true);
+                for (String statement : listen.value().split(";")) {
+                    int equals = statement.indexOf('=');
+                    if (equals < 0) {
+                        continue;
+                    }
+                    String[] events = statement.substring(0, equals).split(",");
+                    String[] selectors = statement.substring(equals + 1).split(",");
+                    for (String eventName : events) {
+                        for (String selector : selectors) {
+                            String id = idOf(selector.trim());
+                            if (id == null) {
+                                continue;
+                            }
+                            List<ListenBinding> forEvent = bindings.get(eventName.trim());
+                            if (forEvent == null) {
+                                forEvent = new ArrayList<>();
+                                bindings.put(eventName.trim(), forEvent);
+                            }
+                            forEvent.add(new ListenBinding(id, method));
+                        }
+                    }
+                }
+            }
+        }
+        return Collections.unmodifiableMap(bindings);
+    }
+
+    /**
+     * @return the id of a simple {@code #id} or {@code type#id} selector, or null for any other selector
+     */
+    private static String idOf(String selector) {
+        int hash = selector.indexOf('#');
+        if (hash < 0) {
+            return null;
+        }
+        String id = selector.substring(hash + 1);
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-') {
+                return null;
+            }
+        }
+        return id.isEmpty() ? null : id;
+    }
+
+    private static void call(Method method, Object handler, Event event) throws Exception {
+        try {
+            if (method.getParameterTypes().length == 0) {
+                method.invoke(handler);
+            } else if (method.getParameterTypes()[0].isInstance(event)) {
+                method.invoke(handler, event);
+            } else if (event instanceof ForwardEvent && method.getParameterTypes()[0].isInstance(
+                    ((ForwardEvent) event).getOrigin())) {
+                method.invoke(handler, ((ForwardEvent) event).getOrigin());
+            }
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static final class ListenBinding {
+
+        private final String id;
+        private final Method method;
+
+        private ListenBinding(String id, Method method) {
+            this.id = id;
+            this.method = method;
+        }
+    }
+
+}
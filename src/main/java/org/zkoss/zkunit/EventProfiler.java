@@ -0,0 +1,254 @@
+package org.zkoss.zkunit;
+
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zk.ui.event.Event;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A sampling profiler for event handlers, to see which of them, and which code within them, makes an event slow.<br/>
+ * While it runs, every thread dispatching an event through {@link ZKUtils#simulateEvent(Event)}, the mocked {@link
+ * org.zkoss.zk.ui.event.Events} or a {@link SynchronousEventQueue} has its stack sampled at a fixed interval. Each
+ * sample is tagged with the name of the event and the class of its target, and only the frames above zkunit's own
+ * dispatching are kept:
+ * <pre>
+ * EventProfiler profiler = EventProfiler.start(1, TimeUnit.MILLISECONDS);
+ * for (int i = 0; i &lt; 1000; i++) {
+ *     ZKUtils.simulateEvent(Events.ON_CLICK, refresh, null);
+ * }
+ * profiler.stop();
+ * profiler.writeCollapsed(new File("target/refresh.collapsed"));
+ * </pre>
+ * The samples are written in the collapsed stack format, one stack per line with its frames separated by semicolons
+ * and followed by the number of samples, which flame graph tools read directly.
+ * <p>
+ * Only one profiler runs at a time; starting another before it is stopped throws an {@link IllegalStateException}.
+ * Its sampling thread lives only until {@link #stop()}, after which events are no longer marked for it.
+ * </p>
+ *
+ * @author Sean Connolly
+ */
+public class EventProfiler {
+
+    private static final String NO_TARGET = "(none)";
+
+    private static volatile EventProfiler current;
+
+    private final long intervalNanos;
+    private final ConcurrentMap<Thread, Dispatch> dispatching = new ConcurrentHashMap<>();
+    private final Map<String, Long> stacks = new HashMap<>();
+    private final Thread sampler;
+    private volatile boolean running = true;
+    private long samples;
+
+    private EventProfiler(long intervalNanos) {
+        this.intervalNanos = intervalNanos;
+        this.sampler = new Thread("zkunit-profiler") {
+            @Override
+            public void run() {
+                sampleUntilStopped();
+            }
+        };
+        this.sampler.setDaemon(true);
+    }
+
+    /**
+     * Start sampling the threads dispatching events.
+     *
+     * @param interval the time between samples
+     * @param unit     the unit of the interval
+     * @return the running profiler
+     * @throws IllegalStateException if another profiler is running
+     */
+    public static synchronized EventProfiler start(long interval, TimeUnit unit) {
+        if (current != null) {
+            throw new IllegalStateException("another profiler is already running");
+        }
+        long intervalNanos = unit.toNanos(interval);
+        if (intervalNanos <= 0) {
+            throw new IllegalArgumentException("interval must be positive: " + interval + " " + unit);
+        }
+        EventProfiler profiler = new EventProfiler(intervalNanos);
+        current = profiler;
+        profiler.sampler.start();
+        return profiler;
+    }
+
+    /**
+     * Stop sampling, waiting for the last sample to be taken.
+     */
+    public void stop() {
+        synchronized (EventProfiler.class) {
+            if (current == this) {
+                current = null;
+            }
+        }
+        running = false;
+        LockSupport.unpark(sampler);
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the running profiler, or null if none is
+     */
+    static EventProfiler current() {
+        return current;
+    }
+
+    /**
+     * Start sampling the current thread, which is about to dispatch the event. Events dispatched by its handlers are
+     * attributed to the event which started the dispatch.
+     *
+     * @param event the event being dispatched
+     */
+    void enter(Event event) {
+        Thread thread = Thread.currentThread();
+        Dispatch dispatch = dispatching.get(thread);
+        if (dispatch == null) {
+            dispatching.put(thread, new Dispatch(tag(event)));
+        } else {
+            dispatch.depth++;
+        }
+    }
+
+    /**
+     * Stop sampling the current thread once its outermost dispatch is done.
+     */
+    void exit() {
+        Thread thread = Thread.currentThread();
+        Dispatch dispatch = dispatching.get(thread);
+        if (dispatch != null && dispatch.depth-- == 0) {
+            dispatching.remove(thread);
+        }
+    }
+
+    private static String tag(Event event) {
+        Component target = event.getTarget();
+        return event.getName() + " " + (target == null ? NO_TARGET : target.getClass().getName());
+    }
+
+    private void sampleUntilStopped() {
+        while (running) {
+            LockSupport.parkNanos(intervalNanos);
+            for (Map.Entry<Thread, Dispatch> entry : dispatching.entrySet()) {
+                StackTraceElement[] stack = entry.getKey().getStackTrace();
+                // the thread may have finished the dispatch while it was being sampled
+                if (dispatching.get(entry.getKey()) == entry.getValue()) {
+                    record(entry.getValue().tag, stack);
+                }
+            }
+        }
+    }
+
+    private synchronized void record(String tag, StackTraceElement[] stack) {
+        StringBuilder collapsed = new StringBuilder(tag);
+        for (int i = outermostDispatch(stack) - 1; i >= 0; i--) {
+            if (!isHidden(stack[i].getClassName())) {
+                collapsed.append(';').append(stack[i].getClassName()).append('.').append(stack[i].getMethodName());
+            }
+        }
+        String key = collapsed.toString();
+        Long count = stacks.get(key);
+        stacks.put(key, count == null ? 1 : count + 1);
+        samples++;
+    }
+
+    /**
+     * @return the index of the deepest of zkunit's dispatching frames; those below it are the caller's
+     */
+    private static int outermostDispatch(StackTraceElement[] stack) {
+        for (int i = stack.length - 1; i >= 0; i--) {
+            if (isDispatching(stack[i].getClassName())) {
+                return i;
+            }
+        }
+        return stack.length;
+    }
+
+    private static boolean isDispatching(String className) {
+        return className.startsWith(EventDispatcher.class.getName())
+                || className.startsWith(SynchronousEventQueue.class.getName());
+    }
+
+    private static boolean isHidden(String className) {
+        return isDispatching(className) || className.startsWith("java.lang.reflect.")
+                || className.startsWith("sun.reflect.") || className.startsWith("jdk.internal.reflect.");
+    }
+
+    /**
+     * @return the number of samples taken
+     */
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return the number of samples of each collapsed stack, most sampled first
+     */
+    public synchronized Map<String, Long> getCollapsed() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(stacks.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return Long.compare(b.getValue(), a.getValue());
+            }
+        });
+        Map<String, Long> collapsed = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : entries) {
+            collapsed.put(entry.getKey(), entry.getValue());
+        }
+        return collapsed;
+    }
+
+    /**
+     * Write the samples taken so far in the collapsed stack format.
+     *
+     * @param file the file to write to
+     * @throws IOException if the file can't be written
+     */
+    public void writeCollapsed(File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("unable to create " + directory);
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Long> entry : getCollapsed().entrySet()) {
+                writer.write(entry.getKey() + " " + entry.getValue() + "\n");
+            }
+        }
+    }
+
+    /**
+     * The outermost event a thread is dispatching, and how many dispatches are nested within it.
+     */
+    private static final class Dispatch {
+
+        private final String tag;
+        private int depth;
+
+        private Dispatch(String tag) {
+            this.tag = tag;
+        }
+    }
+
+}
@@ -0,0 +1,328 @@
+package org.zkoss.zkunit;
+
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zk.ui.event.AfterSizeEvent;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zk.ui.event.InputEvent;
+import org.zkoss.zk.ui.event.ScrollEvent;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fires bursts of high frequency client events, such as {@code onChanging}, {@code onScroll} and {@code onAfterSize},
+ * at a component, and measures the work its handlers do on the server.<br/>
+ * Created with {@link ZKUtils#simulateStorm(String, Component)}.
+ * <p>
+ * Each burst is a run of events a fixed interval apart, as a user typing or dragging a scrollbar would fire them, and
+ * bursts are separated by a pause. Time on the client is simulated, so a storm runs as fast as the handlers allow.
+ * Before the events reach the server they may be coalesced, as ZK's client engine would:
+ * <ul>
+ * <li>with a {@link #setDebounce(long, TimeUnit) debounce}, as for a textbox which isn't {@code instant}, an event is
+ * only sent once no other follows it within the delay,</li>
+ * <li>for a {@link #setDeferrable(boolean) deferrable} listener, events are held on the client and sent together with
+ * the next request, here at the end of each burst, keeping only the latest of each event.</li>
+ * </ul>
+ * Every event sent is dispatched to the target's handlers, and the report gives how many were sent, in how many
+ * requests, and the time and CPU the handlers took:
+ * <pre>
+ * EventStorm.StormReport report = ZKUtils.simulateStorm(Events.ON_CHANGING, search)
+ *         .setEvents(20, 80, TimeUnit.MILLISECONDS) // 20 keystrokes, 80ms apart
+ *         .setDebounce(350, TimeUnit.MILLISECONDS)
+ *         .run();
+ * </pre>
+ * </p>
+ *
+ * @author Sean Connolly
+ */
+public class EventStorm {
+
+    private final String eventName;
+    private final Component target;
+    private EventFactory factory;
+    private int bursts = 1;
+    private long pauseNanos = TimeUnit.SECONDS.toNanos(1);
+    private int eventsPerBurst = 100;
+    private long intervalNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    private long debounceNanos;
+    private boolean deferrable;
+
+    EventStorm(String eventName, Component target) {
+        this.eventName = eventName;
+        this.target = target;
+        this.factory = defaultFactory(eventName);
+    }
+
+    /**
+     * Creates each event of a storm.
+     */
+    public interface EventFactory {
+
+        /**
+         * @param name   the name of the event
+         * @param target the target of the event
+         * @param index  the index of the event within its burst
+         * @return the event
+         */
+        Event create(String name, Component target, int index);
+    }
+
+    /**
+     * @param bursts the number of bursts to fire, at least one
+     * @param pause  the time between the last event of one burst and the first of the next
+     * @param unit   the unit of the pause
+     * @return this storm
+     */
+    public EventStorm setBursts(int bursts, long pause, TimeUnit unit) {
+        if (bursts < 1) {
+            throw new IllegalArgumentException("bursts must be positive: " + bursts);
+        }
+        this.bursts = bursts;
+        this.pauseNanos = unit.toNanos(pause);
+        return this;
+    }
+
+    /**
+     * @param events   the number of events in each burst, at least one
+     * @param interval the time between events in a burst
+     * @param unit     the unit of the interval
+     * @return this storm
+     */
+    public EventStorm setEvents(int events, long interval, TimeUnit unit) {
+        if (events < 1) {
+            throw new IllegalArgumentException("events must be positive: " + events);
+        }
+        this.eventsPerBurst = events;
+        this.intervalNanos = unit.toNanos(interval);
+        return this;
+    }
+
+    /**
+     * @param delay how long the client waits for another event before sending one, or zero to send every event
+     * @param unit  the unit of the delay
+     * @return this storm
+     */
+    public EventStorm setDebounce(long delay, TimeUnit unit) {
+        this.debounceNanos = unit.toNanos(delay);
+        return this;
+    }
+
+    /**
+     * @param deferrable whether the client holds events until the end of each burst, keeping only the latest
+     * @return this storm
+     */
+    public EventStorm setDeferrable(boolean deferrable) {
+        this.deferrable = deferrable;
+        return this;
+    }
+
+    /**
+     * @param factory creates each event, in place of the default for the event name
+     * @return this storm
+     */
+    public EventStorm setEventFactory(EventFactory factory) {
+        this.factory = factory;
+        return this;
+    }
+
+    /**
+     * Fire the storm, dispatching each event sent by the client to the target's handlers.
+     *
+     * @return what the storm cost the server
+     */
+    public StormReport run() {
+        StormReport report = new StormReport(bursts);
+        List<Event> burst = new ArrayList<>(eventsPerBurst);
+        List<Event> held = new ArrayList<>();
+        for (int b = 0; b < bursts; b++) {
+            burst.clear();
+            for (int i = 0; i < eventsPerBurst; i++) {
+                burst.add(factory.create(eventName, target, i));
+            }
+            report.generated += burst.size();
+            for (int i = 0; i < burst.size(); i++) {
+                boolean last = i == burst.size() - 1;
+                long gap = last ? (b == bursts - 1 ? Long.MAX_VALUE : pauseNanos) : intervalNanos;
+                if (gap < debounceNanos) {
+                    // another event follows within the delay, so the client never sends this one
+                    continue;
+                }
+                if (deferrable) {
+                    held.clear();
+                    held.add(burst.get(i));
+                } else {
+                    send(Collections.singletonList(burst.get(i)), report);
+                }
+            }
+            if (deferrable && !held.isEmpty()) {
+                send(held, report);
+                held.clear();
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Send one request of events to the server, dispatching each to the target's handlers.
+     */
+    private static void send(List<Event> events, StormReport report) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean cpu = threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+        long cpuStart = cpu ? threads.getCurrentThreadCpuTime() : 0;
+        long start = System.nanoTime();
+        for (Event event : events) {
+            try {
+                report.handlers += EventDispatcher.invoke(event);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        report.serverNanos += System.nanoTime() - start;
+        if (cpu) {
+            report.serverCpuNanos += threads.getCurrentThreadCpuTime() - cpuStart;
+        } else {
+            report.serverCpuNanos = -1;
+        }
+        report.delivered += events.size();
+        report.requests++;
+    }
+
+    private static EventFactory defaultFactory(String eventName) {
+        switch (eventName) {
+            case Events.ON_CHANGING:
+                return new EventFactory() {
+                    @Override
+                    public Event create(String name, Component target, int index) {
+                        return new InputEvent(name, target, typed(index + 1), typed(index));
+                    }
+                };
+            case Events.ON_SCROLL:
+                return new EventFactory() {
+                    @Override
+                    public Event create(String name, Component target, int index) {
+                        return new ScrollEvent(name, target, index * 10);
+                    }
+                };
+            case Events.ON_AFTER_SIZE:
+                return new EventFactory() {
+                    @Override
+                    public Event create(String name, Component target, int index) {
+                        return new AfterSizeEvent(name, target, 800 + index, 600 + index);
+                    }
+                };
+            default:
+                return new EventFactory() {
+                    @Override
+                    public Event create(String name, Component target, int index) {
+                        return new Event(name, target, index);
+                    }
+                };
+        }
+    }
+
+    /**
+     * @return the text typed after the given number of keystrokes
+     */
+    private static String typed(int keystrokes) {
+        StringBuilder text = new StringBuilder(keystrokes);
+        for (int i = 0; i < keystrokes; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        return text.toString();
+    }
+
+    /**
+     * What a storm cost the server.
+     */
+    public static class StormReport {
+
+        private final int bursts;
+        private int generated;
+        private int delivered;
+        private int requests;
+        private int handlers;
+        private long serverNanos;
+        private long serverCpuNanos;
+
+        private StormReport(int bursts) {
+            this.bursts = bursts;
+        }
+
+        /**
+         * @return the number of events fired on the client
+         */
+        public int getGenerated() {
+            return generated;
+        }
+
+        /**
+         * @return the number of events sent to the server, after coalescing
+         */
+        public int getDelivered() {
+            return delivered;
+        }
+
+        /**
+         * @return the number of requests the events were sent in
+         */
+        public int getRequests() {
+            return requests;
+        }
+
+        /**
+         * @return the number of handlers invoked on the server
+         */
+        public int getHandlersInvoked() {
+            return handlers;
+        }
+
+        /**
+         * @return the fraction of events fired which were coalesced away on the client, between 0 and 1
+         */
+        public double getCoalescingRatio() {
+            return generated == 0 ? 0 : 1 - (double) delivered / generated;
+        }
+
+        /**
+         * @return the time, in nanoseconds, the server spent in the handlers
+         */
+        public long getServerNanos() {
+            return serverNanos;
+        }
+
+        /**
+         * @return the CPU time, in nanoseconds, the server spent in the handlers, or -1 if the JVM doesn't measure it
+         */
+        public long getServerCpuNanos() {
+            return serverCpuNanos;
+        }
+
+        /**
+         * @return the time, in nanoseconds, the server spent in the handlers per burst
+         */
+        public double getServerNanosPerBurst() {
+            return (double) serverNanos / bursts;
+        }
+
+        /**
+         * @return the number of events the handlers processed per second
+         */
+        public double getThroughput() {
+            return serverNanos == 0 ? 0 : delivered * 1e9 / serverNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d events fired, %d sent in %d requests (%.0f%% coalesced), %d handlers in %.2fms "
+                            + "(%.2fms per burst, %.0f events/s)", generated, delivered, requests,
+                    getCoalescingRatio() * 100, handlers, serverNanos / 1e6, getServerNanosPerBurst() / 1e6,
+                    getThroughput());
+        }
+    }
+
+}
@@ -0,0 +1,499 @@
+package org.zkoss.zkunit;
+
+import org.zkoss.util.media.Media;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.fail;
+
+/**
+ * An uploaded file, as {@link Media} for the {@code onUpload} handlers under test, backed by a file on disk rather than
+ * a byte array so uploads of any size can be simulated.<br/>
+ * The handler may stream the file, which costs no heap however large it is, or ask for all of it at once with {@link
+ * #getByteData()} or {@link #getStringData()}. The media records both, and fails the test if a handler asks for more
+ * than {@link #setMaxHeapBytes(long) the maximum} at once, as a handler calling {@code getByteData()} on a 2 GB upload
+ * would take down a live node:
+ * <pre>
+ * try (FileMedia media = FileMedia.ofSize("backup.zip", 2L &lt;&lt; 30, "application/zip")) {
+ *     FileMedia.Report report = ZKUtils.simulateUpload(uploadButton, media);
+ *     assertEquals(0, report.getBytesInHeap());
+ * }
+ * </pre>
+ * <p>
+ * The file is either streamed through a buffered {@link FileInputStream}, or memory mapped a region at a time so it is
+ * read from the page cache without copying through the heap. Each region is unmapped as soon as it has been read,
+ * where the JVM allows. Closing the media closes any streams the handler left open, and deletes the file if the media
+ * created it.
+ * </p>
+ *
+ * @author Sean Connolly
+ */
+public class FileMedia implements Media, Closeable {
+
+    /**
+     * The most bytes a handler may pull into heap at once by default, 16 MB.
+     */
+    public static final long DEFAULT_MAX_HEAP_BYTES = 16L << 20;
+
+    private static final int MAPPED_REGION_BYTES = 64 << 20;
+
+    private final File file;
+    private final String name;
+    private final String contentType;
+    private final boolean mapped;
+    private final boolean temporary;
+    private final long size;
+    private long maxHeapBytes = DEFAULT_MAX_HEAP_BYTES;
+
+    private final Set<InputStream> open = Collections.newSetFromMap(new ConcurrentHashMap<InputStream, Boolean>());
+
+    private final AtomicLong bytesStreamed = new AtomicLong();
+    private final AtomicLong bytesInHeap = new AtomicLong();
+    private final AtomicLong firstReadNanos = new AtomicLong();
+    private final AtomicLong lastReadNanos = new AtomicLong();
+
+    private FileMedia(File file, String name, String contentType, boolean mapped, boolean temporary) {
+        this.file = file;
+        this.name = name;
+        this.contentType = contentType;
+        this.mapped = mapped;
+        this.temporary = temporary;
+        this.size = file.length();
+    }
+
+    /**
+     * @param file        the uploaded file
+     * @param contentType its content type, such as {@code text/csv}
+     * @return media streaming the file through a buffered input stream
+     */
+    public static FileMedia streamed(File file, String contentType) {
+        return new FileMedia(file, file.getName(), contentType, false, false);
+    }
+
+    /**
+     * @param file        the uploaded file
+     * @param contentType its content type, such as {@code text/csv}
+     * @return media streaming the file from memory mapped regions
+     */
+    public static FileMedia mapped(File file, String contentType) {
+        return new FileMedia(file, file.getName(), contentType, true, false);
+    }
+
+    /**
+     * Create a temporary file of the given size, which is sparse where the file system allows, so even very large
+     * uploads cost little disk or time to set up. It is deleted when the media is {@link #close() closed}, or failing
+     * that when the JVM exits.
+     *
+     * @param name        the name the file is uploaded as
+     * @param size        its size in bytes
+     * @param contentType its content type
+     * @return media streaming the file from memory mapped regions
+     * @throws IOException if the file can't be created
+     */
+    public static FileMedia ofSize(String name, long size, String contentType) throws IOException {
+        File file = Files.createTempFile("zkunit-upload", null).toFile();
+        file.deleteOnExit();
+        try (RandomAccessFile sparse = new RandomAccessFile(file, "rw")) {
+            sparse.setLength(size);
+        }
+        return new FileMedia(file, name, contentType, true, true);
+    }
+
+    /**
+     * @param maxHeapBytes the most bytes a handler may pull into heap at once
+     * @return this media
+     */
+    public FileMedia setMaxHeapBytes(long maxHeapBytes) {
+        this.maxHeapBytes = maxHeapBytes;
+        return this;
+    }
+
+    @Override
+    public boolean isBinary() {
+        return contentType == null || !contentType.startsWith("text/");
+    }
+
+    @Override
+    public boolean inMemory() {
+        return false;
+    }
+
+    /**
+     * Read the whole file into heap, as ZK's own media do.
+     *
+     * @throws AssertionError if the file is larger than the maximum a handler may pull into heap
+     */
+    @Override
+    public byte[] getByteData() {
+        checkHeap("getByteData()", size);
+        try {
+            byte[] data = Files.readAllBytes(file.toPath());
+            bytesInHeap.addAndGet(data.length);
+            return data;
+        } catch (IOException e) {
+            throw new IllegalStateException("unable to read " + file, e);
+        }
+    }
+
+    /**
+     * Read the whole file into heap as a UTF-8 string, which takes two bytes of heap for every character.
+     *
+     * @throws AssertionError if the string would be larger than the maximum a handler may pull into heap
+     */
+    @Override
+    public String getStringData() {
+        checkHeap("getStringData()", size * 2);
+        try {
+            String data = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            bytesInHeap.addAndGet(data.length() * 2L);
+            return data;
+        } catch (IOException e) {
+            throw new IllegalStateException("unable to read " + file, e);
+        }
+    }
+
+    private void checkHeap(String method, long bytes) {
+        if (bytes > maxHeapBytes) {
+            fail(String.format("%s of '%s' would pull %d bytes into heap, more than the %d allowed; stream it with "
+                    + "getStreamData() instead", method, name, bytes, maxHeapBytes));
+        }
+    }
+
+    @Override
+    public InputStream getStreamData() {
+        try {
+            InputStream in = new CountingInputStream(mapped ? new MappedInputStream(file) : new BufferedInputStream(
+                    new FileInputStream(file)));
+            open.add(in);
+            return in;
+        } catch (IOException e) {
+            throw new IllegalStateException("unable to open " + file, e);
+        }
+    }
+
+    @Override
+    public Reader getReaderData() {
+        return new InputStreamReader(getStreamData(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getFormat() {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? null : name.substring(dot + 1);
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public boolean isContentDisposition() {
+        return true;
+    }
+
+    /**
+     * Close every stream the handler left open, unmapping any region still mapped, and delete the file if it was
+     * created by {@link #ofSize(String, long, String)}. A file the media was given is left in place.
+     *
+     * @throws IOException if a stream can't be closed, or the file can't be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        for (InputStream in : open) {
+            in.close();
+        }
+        if (temporary) {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    /**
+     * @return the file backing the media
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the size of the file in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the bytes the handler has read from the media's streams
+     */
+    public long getBytesStreamed() {
+        return bytesStreamed.get();
+    }
+
+    /**
+     * @return the bytes the handler has pulled into heap with {@link #getByteData()} or {@link #getStringData()}
+     */
+    public long getBytesInHeap() {
+        return bytesInHeap.get();
+    }
+
+    /**
+     * @return the bytes streamed per second, from the first read to the last
+     */
+    public double getStreamRate() {
+        long elapsed = lastReadNanos.get() - firstReadNanos.get();
+        return elapsed <= 0 ? 0 : bytesStreamed.get() * 1e9 / elapsed;
+    }
+
+    private void streamed(long started, int bytes) {
+        if (bytes > 0) {
+            firstReadNanos.compareAndSet(0, started);
+            bytesStreamed.addAndGet(bytes);
+            lastReadNanos.set(System.nanoTime());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%d bytes, %s): %d streamed at %.1f MB/s, %d in heap", name, size,
+                mapped ? "mapped" : "streamed", getBytesStreamed(), getStreamRate() / (1 << 20), getBytesInHeap());
+    }
+
+    /**
+     * Records what is read through it, and how quickly.
+     */
+    private final class CountingInputStream extends InputStream {
+
+        private final InputStream in;
+
+        private CountingInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long started = System.nanoTime();
+            int read = in.read();
+            streamed(started, read < 0 ? 0 : 1);
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            long started = System.nanoTime();
+            int read = in.read(buffer, offset, length);
+            streamed(started, read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return in.skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            open.remove(this);
+            in.close();
+        }
+    }
+
+    /**
+     * Reads a file through memory mapped regions, mapping the next region as each is used up.
+     */
+    private static final class MappedInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private final long size;
+        private long position;
+        private MappedByteBuffer region;
+
+        private MappedInputStream(File file) throws IOException {
+            this.channel = new RandomAccessFile(file, "r").getChannel();
+            this.size = channel.size();
+        }
+
+        private boolean hasRemaining() throws IOException {
+            if (!channel.isOpen()) {
+                throw new IOException("Stream closed");
+            }
+            if (region != null && region.hasRemaining()) {
+                return true;
+            }
+            if (position >= size) {
+                return false;
+            }
+            release();
+            long length = Math.min(MAPPED_REGION_BYTES, size - position);
+            region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            position += length;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return hasRemaining() ? region.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(length, region.remaining());
+            region.get(buffer, offset, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return region == null ? 0 : region.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            release();
+            channel.close();
+        }
+
+        private void release() {
+            if (region != null) {
+                unmap(region);
+                region = null;
+            }
+        }
+    }
+
+    /**
+     * Unmap a region now rather than when it is garbage collected, so its file can be deleted and its address space is
+     * returned straight away. Uses the JDK's own cleaner, through {@code sun.misc.Unsafe} from Java 9 or the buffer's
+     * cleaner on Java 8, and otherwise leaves the region to the garbage collector. The region must not be read again.
+     */
+    private static void unmap(MappedByteBuffer region) {
+        try {
+            Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafe.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                Method cleaner = region.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object clean = cleaner.invoke(region);
+                if (clean != null) {
+                    clean.getClass().getMethod("clean").invoke(clean);
+                }
+                return;
+            }
+            Field theUnsafe = unsafe.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), region);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // left to the garbage collector
+        }
+    }
+
+    /**
+     * What the handler made of an upload, across every file in it.
+     */
+    public static final class Report {
+
+        private final FileMedia[] medias;
+        private final long nanos;
+
+        Report(FileMedia[] medias, long nanos) {
+            this.medias = medias;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return the total size of the files uploaded
+         */
+        public long getBytesUploaded() {
+            long total = 0;
+            for (FileMedia media : medias) {
+                total += media.getSize();
+            }
+            return total;
+        }
+
+        /**
+         * @return the bytes the handler read from the files' streams
+         */
+        public long getBytesStreamed() {
+            long total = 0;
+            for (FileMedia media : medias) {
+                total += media.getBytesStreamed();
+            }
+            return total;
+        }
+
+        /**
+         * @return the bytes the handler pulled into heap all at once
+         */
+        public long getBytesInHeap() {
+            long total = 0;
+            for (FileMedia media : medias) {
+                total += media.getBytesInHeap();
+            }
+            return total;
+        }
+
+        /**
+         * @return the time, in nanoseconds, the handler took
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return the bytes the handler consumed, streamed or in heap, per second it took
+         */
+        public double getConsumptionRate() {
+            return nanos <= 0 ? 0 : (getBytesStreamed() + getBytesInHeap()) * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder(String.format(
+                    "%d files, %d bytes: %d streamed, %d in heap, in %.1fms at %.1f MB/s", medias.length,
+                    getBytesUploaded(), getBytesStreamed(), getBytesInHeap(), nanos / 1e6,
+                    getConsumptionRate() / (1 << 20)));
+            for (FileMedia media : medias) {
+                report.append("\n  ").append(media);
+            }
+            return report.toString();
+        }
+    }
+
+}
@@ -0,0 +1,648 @@
+package org.zkoss.zkunit;
+
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.EventQueue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Explores the orders in which the listeners and callbacks of event queue subscribers can run.<br/>
+ * A {@link SynchronousEventQueue} runs every listener, then its callback, as soon as an event is published. In a live
+ * ZK environment an asynchronous listener runs on a thread of its own and its callback is queued for the desktop
+ * afterwards, so listeners, callbacks and the events they publish in turn may interleave in many orders. The explorer
+ * runs a {@link Scenario} over and over, each time choosing a different order:
+ * <pre>
+ * InterleavingExplorer.Result result = new InterleavingExplorer(new InterleavingExplorer.Scenario() {
+ *     public void run() {
+ *         inbox = new InboxComposer();            // subscribes to the "mail" queue
+ *         EventQueues.lookup("mail").publish(new Event("onMail", null, message));
+ *     }
+ *     public void verify() {
+ *         assertEquals(1, inbox.getUnread());
+ *     }
+ * }).exploreAll();
+ * ZKAssert.assertAllSchedulesPass(result);
+ * </pre>
+ * <p>
+ * While a scenario runs, the queues looked up with the mocked {@link org.zkoss.zk.ui.event.EventQueues} of a {@link
+ * ZKTest}, or with {@link #lookup(String)}, are the explorer's own. Publishing to them only schedules each subscriber's
+ * listener; the explorer then runs one scheduled task at a time until none are left and the scenario is verified.
+ * </p>
+ * <p>
+ * A listener subscribed with a callback, or as asynchronous, may run at any time after the event is published, and its
+ * callback at any time after the listener. A synchronous listener receives the events of its queue in the order they
+ * were published, but may interleave with every other subscriber.
+ * </p>
+ * <p>
+ * Each schedule is identified by the choices made at each step, such as {@code 1.0.2}, and random schedules by their
+ * seed too, so a failing schedule can be {@link #replay(String) replayed} while debugging. Scenarios which report their
+ * {@link Scenario#state() state} let the explorer prune schedules which reach a state it has already explored.
+ * </p>
+ *
+ * @author Sean Connolly
+ */
+public class InterleavingExplorer {
+
+    private static final ThreadLocal<Run> CURRENT = new ThreadLocal<>();
+
+    private final Scenario scenario;
+    private int maxSchedules = 10000;
+
+    /**
+     * @param scenario the scenario to explore
+     */
+    public InterleavingExplorer(Scenario scenario) {
+        this.scenario = scenario;
+    }
+
+    /**
+     * The code under test, run once for each schedule explored.
+     */
+    public abstract static class Scenario {
+
+        /**
+         * Set up the code under test and publish the events which start the scenario. Each schedule starts from
+         * scratch, so everything the scenario uses must be created again here.
+         *
+         * @throws Exception if the scenario fails
+         */
+        public abstract void run() throws Exception;
+
+        /**
+         * Check the outcome of the scenario, once every listener and callback has run.
+         *
+         * @throws Exception if the outcome is wrong, such as an {@link AssertionError}
+         */
+        public void verify() throws Exception {
+            // nothing to check
+        }
+
+        /**
+         * Describe the current state of the code under test, for pruning. Two schedules which reach the same state with
+         * the same tasks left to run can only go on to the same outcomes, so only one of them is explored further.
+         *
+         * @return a value, with {@code equals} and {@code hashCode}, describing the state; or null to never prune
+         */
+        public Object state() {
+            return null;
+        }
+    }
+
+    /**
+     * @param maxSchedules the most schedules to run before giving up on exploring every one
+     * @return this explorer
+     */
+    public InterleavingExplorer setMaxSchedules(int maxSchedules) {
+        if (maxSchedules < 1) {
+            throw new IllegalArgumentException("max schedules must be positive: " + maxSchedules);
+        }
+        this.maxSchedules = maxSchedules;
+        return this;
+    }
+
+    /**
+     * Look up an event queue of the scenario being explored on this thread, creating it if necessary.
+     *
+     * @param name the name of the queue
+     * @return the queue, or null if no scenario is being explored
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Event> EventQueue<T> lookup(String name) {
+        Run run = CURRENT.get();
+        return run == null ? null : (EventQueue<T>) run.lookup(name);
+    }
+
+    /**
+     * Systematically explore every schedule, depth first, up to the maximum number of schedules.
+     *
+     * @return the outcome of the exploration
+     */
+    public Result exploreAll() {
+        Result result = new Result();
+        Set<Object> visited = new HashSet<>();
+        int[] prefix = new int[0];
+        while (prefix != null && result.schedules + result.pruned < maxSchedules) {
+            DepthFirstChooser chooser = new DepthFirstChooser(prefix, visited);
+            execute(chooser, null, result);
+            prefix = chooser.next();
+        }
+        result.exhaustive = prefix == null;
+        return result;
+    }
+
+    /**
+     * Explore random schedules, each chosen with its own seed: {@code seed}, {@code seed + 1} and so on.
+     *
+     * @param seed      the seed of the first schedule
+     * @param schedules the number of schedules to run
+     * @return the outcome of the exploration
+     */
+    public Result exploreRandom(long seed, int schedules) {
+        Result result = new Result();
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < schedules; i++) {
+            RandomChooser chooser = new RandomChooser(seed + i);
+            String schedule = execute(chooser, seed + i, result);
+            if (schedule != null && !seen.add(schedule)) {
+                result.duplicates++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Run a single schedule again, such as one which failed.
+     *
+     * @param schedule the choices made at each step, as reported by {@link Failure#getSchedule()}
+     * @return the outcome of the schedule
+     */
+    public Result replay(String schedule) {
+        String[] choices = schedule.isEmpty() ? new String[0] : schedule.split("\\.");
+        int[] prefix = new int[choices.length];
+        for (int i = 0; i < choices.length; i++) {
+            prefix[i] = Integer.parseInt(choices[i]);
+        }
+        Result result = new Result();
+        execute(new DepthFirstChooser(prefix, null), null, result);
+        return result;
+    }
+
+    /**
+     * Run a single random schedule again, such as one which failed.
+     *
+     * @param seed the seed of the schedule, as reported by {@link Failure#getSeed()}
+     * @return the outcome of the schedule
+     */
+    public Result replay(long seed) {
+        Result result = new Result();
+        execute(new RandomChooser(seed), seed, result);
+        return result;
+    }
+
+    /**
+     * Run the scenario once, choosing each task to run with the chooser.
+     *
+     * @return the schedule run, or null if it was pruned
+     */
+    private String execute(Chooser chooser, Long seed, Result result) {
+        Run run = new Run(chooser);
+        Run previous = CURRENT.get();
+        CURRENT.set(run);
+        long start = System.nanoTime();
+        try {
+            scenario.run();
+            if (!run.runAll()) {
+                result.pruned++;
+                return null;
+            }
+            scenario.verify();
+            result.schedules++;
+        } catch (Exception | AssertionError e) {
+            result.schedules++;
+            result.failures.add(new Failure(chooser.schedule(), seed, run.trace, e));
+        } finally {
+            result.nanos += System.nanoTime() - start;
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+        return chooser.schedule();
+    }
+
+    /**
+     * The state of one run of the scenario: its queues and the tasks scheduled on them.
+     */
+    private final class Run {
+
+        private final Chooser chooser;
+        private final Map<String, ExploredEventQueue<?>> queues = new HashMap<>();
+        private final List<Task> pending = new ArrayList<>();
+        private final List<String> trace = new ArrayList<>();
+        private int events;
+
+        private Run(Chooser chooser) {
+            this.chooser = chooser;
+        }
+
+        private ExploredEventQueue<?> lookup(String name) {
+            ExploredEventQueue<?> queue = queues.get(name);
+            if (queue == null) {
+                queue = new ExploredEventQueue<>(this, name);
+                queues.put(name, queue);
+            }
+            return queue;
+        }
+
+        /**
+         * Run every scheduled task, including those scheduled by the tasks themselves.
+         *
+         * @return false if the run was pruned
+         */
+        private boolean runAll() throws Exception {
+            while (!pending.isEmpty()) {
+                List<Task> enabled = enabled();
+                int choice = chooser.choose(enabled.size(), this);
+                if (choice < 0) {
+                    return false;
+                }
+                Task task = enabled.get(choice);
+                pending.remove(task);
+                trace.add(task.toString());
+                task.run();
+            }
+            return true;
+        }
+
+        /**
+         * @return the tasks which may run next: all but those of synchronous listeners with an earlier event pending
+         */
+        private List<Task> enabled() {
+            List<Task> enabled = new ArrayList<>(pending.size());
+            Set<Subscription<?>> waiting = new HashSet<>();
+            for (Task task : pending) {
+                if (task.isOrdered() && !waiting.add(task.subscription)) {
+                    continue;
+                }
+                enabled.add(task);
+            }
+            return enabled;
+        }
+
+        /**
+         * @return the state of the scenario and the tasks left to run, or null if the scenario has no state
+         */
+        private Object key() {
+            Object state = scenario.state();
+            if (state == null) {
+                return null;
+            }
+            List<String> labels = new ArrayList<>(pending.size());
+            for (Task task : pending) {
+                labels.add(task.toString());
+            }
+            Collections.sort(labels);
+            return Arrays.asList(state, labels);
+        }
+    }
+
+    /**
+     * An event queue whose subscribers are only invoked when the explorer chooses to.
+     */
+    private static final class ExploredEventQueue<T extends Event> implements EventQueue<T> {
+
+        private final Run run;
+        private final String name;
+        private final Map<EventListener<T>, Subscription<T>> subscriptions = new LinkedHashMap<>();
+        private int subscribed;
+
+        private ExploredEventQueue(Run run, String name) {
+            this.run = run;
+            this.name = name;
+        }
+
+        @Override
+        public void publish(T event) {
+            int sequence = run.events++;
+            for (Subscription<T> subscription : subscriptions.values()) {
+                run.pending.add(new Task(subscription, event, sequence, false));
+            }
+        }
+
+        @Override
+        public void subscribe(EventListener<T> listener) {
+            subscribe(listener, null, false);
+        }
+
+        @Override
+        public void subscribe(EventListener<T> listener, EventListener<T> callback) {
+            subscribe(listener, callback, true);
+        }
+
+        @Override
+        public void subscribe(EventListener<T> listener, boolean async) {
+            subscribe(listener, null, async);
+        }
+
+        private void subscribe(EventListener<T> listener, EventListener<T> callback, boolean async) {
+            subscriptions.put(listener, new Subscription<>(this, subscribed++, listener, callback, async));
+        }
+
+        @Override
+        public boolean unsubscribe(EventListener<T> listener) {
+            Subscription<T> subscription = subscriptions.remove(listener);
+            if (subscription == null) {
+                return false;
+            }
+            for (Iterator<Task> tasks = run.pending.iterator(); tasks.hasNext(); ) {
+                if (tasks.next().subscription == subscription) {
+                    tasks.remove();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isSubscribed(EventListener<T> listener) {
+            return subscriptions.containsKey(listener);
+        }
+
+        @Override
+        public void close() {
+            subscriptions.clear();
+        }
+
+        @Override
+        public boolean isClose() {
+            return false;
+        }
+    }
+
+    private static final class Subscription<T extends Event> {
+
+        private final ExploredEventQueue<T> queue;
+        private final int index;
+        private final EventListener<T> listener;
+        private final EventListener<T> callback;
+        private final boolean async;
+
+        private Subscription(ExploredEventQueue<T> queue, int index, EventListener<T> listener,
+                             EventListener<T> callback, boolean async) {
+            this.queue = queue;
+            this.index = index;
+            this.listener = listener;
+            this.callback = callback;
+            this.async = async;
+        }
+    }
+
+    /**
+     * The delivery of one event to one subscriber's listener, or to its callback.
+     */
+    private static final class Task {
+
+        private final Subscription<?> subscription;
+        private final Event event;
+        private final int sequence;
+        private final boolean callback;
+
+        private Task(Subscription<?> subscription, Event event, int sequence, boolean callback) {
+            this.subscription = subscription;
+            this.event = event;
+            this.sequence = sequence;
+            this.callback = callback;
+        }
+
+        /**
+         * @return true if the task must wait for the subscriber's earlier events
+         */
+        private boolean isOrdered() {
+            return !subscription.async && !callback;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void run() throws Exception {
+            Subscription<Event> target = (Subscription<Event>) subscription;
+            if (callback) {
+                target.callback.onEvent(event);
+                return;
+            }
+            target.listener.onEvent(event);
+            if (target.callback != null) {
+                target.queue.run.pending.add(new Task(subscription, event, sequence, true));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return subscription.queue.name + "[" + subscription.index + "] " + (callback ? "callback " : "listener ")
+                    + event.getName() + "#" + sequence;
+        }
+    }
+
+    /**
+     * Chooses which of the enabled tasks runs next.
+     */
+    private interface Chooser {
+
+        /**
+         * @return the index of the task to run, or -1 to abandon the run
+         */
+        int choose(int options, Run run);
+
+        /**
+         * @return the choices made so far
+         */
+        String schedule();
+    }
+
+    /**
+     * Follows a prefix of choices, then always chooses the first task, recording where else it could have gone.
+     */
+    private static final class DepthFirstChooser implements Chooser {
+
+        private final int[] prefix;
+        private final Set<Object> visited;
+        private final List<int[]> choices = new ArrayList<>();
+
+        private DepthFirstChooser(int[] prefix, Set<Object> visited) {
+            this.prefix = prefix;
+            this.visited = visited;
+        }
+
+        @Override
+        public int choose(int options, Run run) {
+            int depth = choices.size();
+            if (depth >= prefix.length && visited != null) {
+                Object key = run.key();
+                if (key != null && !visited.add(key)) {
+                    return -1;
+                }
+            }
+            int choice = depth < prefix.length ? Math.min(prefix[depth], options - 1) : 0;
+            choices.add(new int[]{choice, options});
+            return choice;
+        }
+
+        /**
+         * @return the prefix of the next schedule, depth first, or null if every schedule has been explored
+         */
+        private int[] next() {
+            for (int depth = choices.size() - 1; depth >= 0; depth--) {
+                int[] choice = choices.get(depth);
+                if (choice[0] + 1 < choice[1]) {
+                    int[] next = new int[depth + 1];
+                    for (int i = 0; i < depth; i++) {
+                        next[i] = choices.get(i)[0];
+                    }
+                    next[depth] = choice[0] + 1;
+                    return next;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String schedule() {
+            StringBuilder schedule = new StringBuilder();
+            for (int[] choice : choices) {
+                if (schedule.length() > 0) {
+                    schedule.append('.');
+                }
+                schedule.append(choice[0]);
+            }
+            return schedule.toString();
+        }
+    }
+
+    private static final class RandomChooser implements Chooser {
+
+        private final Random random;
+        private final StringBuilder schedule = new StringBuilder();
+
+        private RandomChooser(long seed) {
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public int choose(int options, Run run) {
+            int choice = random.nextInt(options);
+            if (schedule.length() > 0) {
+                schedule.append('.');
+            }
+            schedule.append(choice);
+            return choice;
+        }
+
+        @Override
+        public String schedule() {
+            return schedule.toString();
+        }
+    }
+
+    /**
+     * The outcome of exploring a scenario.
+     */
+    public static class Result {
+
+        private final List<Failure> failures = new ArrayList<>();
+        private int schedules;
+        private int pruned;
+        private int duplicates;
+        private boolean exhaustive;
+        private long nanos;
+
+        /**
+         * @return the number of schedules run to the end and verified
+         */
+        public int getSchedules() {
+            return schedules;
+        }
+
+        /**
+         * @return the number of schedules abandoned because they reached a state already explored
+         */
+        public int getPruned() {
+            return pruned;
+        }
+
+        /**
+         * @return the number of random schedules which repeated an earlier one
+         */
+        public int getDuplicates() {
+            return duplicates;
+        }
+
+        /**
+         * @return true if every schedule was explored, within the maximum number of schedules
+         */
+        public boolean isExhaustive() {
+            return exhaustive;
+        }
+
+        /**
+         * @return the time spent running schedules, in nanoseconds
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return the schedules which failed
+         */
+        public List<Failure> getFailures() {
+            return Collections.unmodifiableList(failures);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d schedules%s, %d pruned, %d duplicates, %d failed in %.1fms", schedules,
+                    exhaustive ? " (exhaustive)" : "", pruned, duplicates, failures.size(), nanos / 1e6);
+        }
+    }
+
+    /**
+     * A schedule in which the scenario failed.
+     */
+    public static final class Failure {
+
+        private final String schedule;
+        private final Long seed;
+        private final List<String> trace;
+        private final Throwable cause;
+
+        private Failure(String schedule, Long seed, List<String> trace, Throwable cause) {
+            this.schedule = schedule;
+            this.seed = seed;
+            this.trace = Collections.unmodifiableList(new ArrayList<>(trace));
+            this.cause = cause;
+        }
+
+        /**
+         * @return the choices made at each step, to {@link InterleavingExplorer#replay(String) replay} the schedule
+         */
+        public String getSchedule() {
+            return schedule;
+        }
+
+        /**
+         * @return the seed of the schedule, if it was random, to {@link InterleavingExplorer#replay(long) replay} it
+         */
+        public Long getSeed() {
+            return seed;
+        }
+
+        /**
+         * @return the tasks run, in order, such as {@code mail[0] listener onMail#0}
+         */
+        public List<String> getTrace() {
+            return trace;
+        }
+
+        /**
+         * @return what went wrong
+         */
+        public Throwable getCause() {
+            return cause;
+        }
+
+        @Override
+        public String toString() {
+            return "schedule " + schedule + (seed == null ? "" : " (seed " + seed + ")") + " failed with " + cause
+                    + " after " + trace;
+        }
+    }
+
+}
@@ -0,0 +1,420 @@
+package org.zkoss.zkunit;
+
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zk.ui.Desktop;
+import org.zkoss.zk.ui.Execution;
+import org.zkoss.zk.ui.Page;
+import org.zkoss.zk.ui.Session;
+import org.zkoss.zk.ui.WebApp;
+import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.EventQueue;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Finds event queue subscribers and component listeners which keep detached components alive.<br/>
+ * In a live ZK environment a forgotten {@code unsubscribe} keeps whatever the listener captured, often a composer and
+ * its whole component tree, and with them the desktop, alive for as long as the queue is. Watch the components which
+ * should be released, detach them, then look for leaks:
+ * <pre>
+ * LeakDetector detector = new LeakDetector().watch(inbox);
+ * inbox.detach();
+ * ZKAssert.assertNoLeaks(detector);
+ * </pre>
+ * <p>
+ * The detector walks everything reachable from each listener and callback subscribed to the event queues of the
+ * {@link ZKTest} or {@link ZKEnvironment}, and of every node of the {@link SimulatedCluster} it has joined, and to any
+ * queues {@link #addQueue(String, EventQueue) added}, and from each listener registered on the {@link
+ * #addRoot(Component) live components}. Each watched component it reaches is a leak, reported with the path of fields
+ * which retains it. Components are watched through weak references, so the detector never keeps them alive itself, and
+ * the walk doesn't pass through ZK's pages, desktops, sessions or mocks, which would reach everything. From a component
+ * it follows the children, attributes and listeners, and the fields declared by application subclasses, but not ZK's
+ * own fields, which link back to the parent, page and desktop. Collections and maps are walked through their elements
+ * and entries rather than their fields, as the JDK's own fields can't be read reflectively on newer JVMs. A walk which
+ * reaches {@link #MAX_OBJECTS} objects stops there, and is {@link #getTruncated() reported} so the test doesn't pass
+ * without having looked.
+ * </p>
+ *
+ * @author Sean Connolly
+ */
+public class LeakDetector {
+
+    /**
+     * The most objects walked from each root, so a root which reaches a huge graph can't stall the test.
+     */
+    static final int MAX_OBJECTS = 200000;
+
+    private static final ConcurrentMap<Class<?>, Field[]> FIELDS = new ConcurrentHashMap<>();
+
+    private final List<WeakReference<Component>> watched = new ArrayList<>();
+    private final Map<String, EventQueue<?>> queues = new LinkedHashMap<>();
+    private final List<WeakReference<Component>> roots = new ArrayList<>();
+    private final List<String> truncated = new ArrayList<>();
+
+    /**
+     * Watch a component and its descendants, which should be released once they're detached.
+     *
+     * @param component the component to watch
+     * @return this detector
+     */
+    public LeakDetector watch(Component component) {
+        watched.add(new WeakReference<>(component));
+        for (Component child : component.getChildren()) {
+            watch(child);
+        }
+        return this;
+    }
+
+    /**
+     * Watch every component attached to a simulated desktop, which should be released once it's destroyed. Watch the
+     * desktop before destroying it, while the components are still attached.
+     *
+     * @param desktop the desktop to watch
+     * @return this detector
+     */
+    public LeakDetector watch(SimulatedDesktop desktop) {
+        for (Component root : desktop.getPage().getRoots()) {
+            watch(root);
+        }
+        return this;
+    }
+
+    /**
+     * Look for leaks through the subscribers of an event queue, besides those of the mocked environment.
+     *
+     * @param name  the name of the queue, for reporting
+     * @param queue the queue
+     * @return this detector
+     */
+    public LeakDetector addQueue(String name, EventQueue<?> queue) {
+        queues.put(name, queue);
+        return this;
+    }
+
+    /**
+     * Look for leaks through the listeners of a component which stays alive, and of its descendants.
+     *
+     * @param component the live component
+     * @return this detector
+     */
+    public LeakDetector addRoot(Component component) {
+        roots.add(new WeakReference<>(component));
+        return this;
+    }
+
+    /**
+     * @return each watched component still reachable from a subscriber or listener, with the path retaining it
+     */
+    public List<Leak> findLeaks() {
+        truncated.clear();
+        Map<Object, Boolean> targets = new IdentityHashMap<>();
+        for (WeakReference<Component> reference : watched) {
+            Component component = reference.get();
+            if (component != null) {
+                targets.put(component, Boolean.TRUE);
+            }
+        }
+        List<Leak> leaks = new ArrayList<>();
+        if (targets.isEmpty()) {
+            return leaks;
+        }
+        Map<String, EventQueue<?>> all = new LinkedHashMap<>();
+        for (Map.Entry<String, EventQueue> queue : ZKEnvironment.installedQueues().entrySet()) {
+            all.put(queue.getKey(), queue.getValue());
+        }
+        all.putAll(queues);
+        for (Map.Entry<String, EventQueue<?>> queue : all.entrySet()) {
+            String label = "queue '" + queue.getKey() + "'";
+            if (queue.getValue() instanceof SynchronousEventQueue) {
+                for (EventListener<?> listener : ((SynchronousEventQueue<?>) queue.getValue()).getListeners()) {
+                    walk(label + " subscriber " + describe(listener), listener, targets, leaks);
+                }
+            } else {
+                walk(label, queue.getValue(), targets, leaks);
+            }
+        }
+        for (WeakReference<Component> reference : roots) {
+            Component root = reference.get();
+            if (root != null) {
+                walkListeners(root, targets, leaks);
+            }
+        }
+        return leaks;
+    }
+
+    /**
+     * @return each subscriber or listener whose walk, in the last {@link #findLeaks()}, stopped at {@link
+     * #MAX_OBJECTS} objects before reaching everything it retains
+     */
+    public List<String> getTruncated() {
+        return Collections.unmodifiableList(truncated);
+    }
+
+    private void walkListeners(Component component, Map<Object, Boolean> targets, List<Leak> leaks) {
+        for (String name : SharedStateChecker.eventNames(component)) {
+            for (EventListener<?> listener : component.getEventListeners(name)) {
+                walk(describe(component) + " listener '" + name + "' " + describe(listener), listener, targets,
+                        leaks);
+            }
+        }
+        for (Component child : component.getChildren()) {
+            walkListeners(child, targets, leaks);
+        }
+    }
+
+    /**
+     * Walk everything reachable from the root, breadth first so each leak is reported by its shortest path, reporting
+     * each watched component reached once.
+     */
+    private void walk(String label, Object root, Map<Object, Boolean> targets, List<Leak> leaks) {
+        if (targets.isEmpty()) {
+            return;
+        }
+        Map<Object, Step> steps = new IdentityHashMap<>();
+        Queue<Object> pending = new ArrayDeque<>();
+        steps.put(root, new Step(null, null));
+        pending.add(root);
+        while (!pending.isEmpty()) {
+            if (steps.size() >= MAX_OBJECTS) {
+                truncated.add(label);
+                return;
+            }
+            Object object = pending.poll();
+            if (targets.remove(object) != null) {
+                leaks.add(new Leak((Component) object, label, path(object, steps)));
+                if (targets.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            for (Map.Entry<String, Object> reference : references(object).entrySet()) {
+                Object next = reference.getValue();
+                if (next != null && !steps.containsKey(next) && isWalked(next)) {
+                    steps.put(next, new Step(object, reference.getKey()));
+                    pending.add(next);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the objects the object refers to, by the name of the reference
+     */
+    private static Map<String, Object> references(Object object) {
+        Map<String, Object> references = new LinkedHashMap<>();
+        if (object instanceof Component) {
+            // follow what a component holds for the application, not its links back into the page and desktop, so
+            // only the fields declared by the application's own component classes
+            Component component = (Component) object;
+            int index = 0;
+            for (Component child : component.getChildren()) {
+                references.put("child[" + index++ + "]", child);
+            }
+            for (Map.Entry<String, Object> attribute : component.getAttributes().entrySet()) {
+                references.put("attribute '" + attribute.getKey() + "'", attribute.getValue());
+            }
+            for (String name : SharedStateChecker.eventNames(component)) {
+                index = 0;
+                for (EventListener<?> listener : component.getEventListeners(name)) {
+                    references.put("listener '" + name + "'[" + index++ + "]", listener);
+                }
+            }
+            fields(object, references, true);
+        } else if (object.getClass().isArray()) {
+            if (!object.getClass().getComponentType().isPrimitive()) {
+                for (int i = 0; i < Array.getLength(object); i++) {
+                    references.put("[" + i + "]", Array.get(object, i));
+                }
+            }
+        } else {
+            if (object instanceof Collection) {
+                elements((Collection<?>) object, references);
+            } else if (object instanceof Map) {
+                entries((Map<?, ?>) object, references);
+            }
+            fields(object, references, false);
+        }
+        return references;
+    }
+
+    private static void fields(Object object, Map<String, Object> references, boolean applicationOnly) {
+        for (Field field : fields(object.getClass())) {
+            if (applicationOnly && isZK(field.getDeclaringClass())) {
+                continue;
+            }
+            try {
+                references.put(field.getName(), field.get(object));
+            } catch (IllegalAccessException e) {
+                // not reachable for our purposes
+            }
+        }
+    }
+
+    /**
+     * @return true if the class is part of ZK itself, rather than the application or zkunit
+     */
+    private static boolean isZK(Class<?> type) {
+        String name = type.getName();
+        return name.startsWith("org.zkoss.") && !name.startsWith("org.zkoss.zkunit.");
+    }
+
+    private static void elements(Collection<?> collection, Map<String, Object> references) {
+        try {
+            int index = 0;
+            for (Object element : collection) {
+                references.put("[" + index++ + "]", element);
+            }
+        } catch (RuntimeException e) {
+            // modified while walked, walk what was seen
+        }
+    }
+
+    private static void entries(Map<?, ?> map, Map<String, Object> references) {
+        try {
+            int index = 0;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                references.put("key[" + index + "]", entry.getKey());
+                references.put("value[" + index++ + "]", entry.getValue());
+            }
+        } catch (RuntimeException e) {
+            // modified while walked, walk what was seen
+        }
+    }
+
+    private static boolean isWalked(Object object) {
+        return !(object instanceof Class || object instanceof ClassLoader || object instanceof Thread
+                || object instanceof Reference || object instanceof String || object instanceof Number
+                || object instanceof Boolean || object instanceof Character || object instanceof Enum
+                || object instanceof Page || object instanceof Desktop || object instanceof Session
+                || object instanceof WebApp || object instanceof Execution || Proxy.isProxyClass(object.getClass())
+                || object.getClass().getName().contains("$$EnhancerByMockito"));
+    }
+
+    /**
+     * @return the instance fields of a class and its superclasses which may refer to other objects, leaving out those
+     * of collections and maps declared by the JDK, which are walked through their elements instead
+     */
+    private static Field[] fields(Class<?> type) {
+        Field[] fields = FIELDS.get(type);
+        if (fields == null) {
+            List<Field> all = new ArrayList<>();
+            boolean container = Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type);
+            for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+                if (container && current.getName().startsWith("java.")) {
+                    continue;
+                }
+                for (Field field : current.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers()) && !field.getType().isPrimitive()) {
+                        try {
+                            field.setAccessible(true);
+                            all.add(field);
+                        } catch (RuntimeException e) {
+                            // inaccessible, as some JDK internals are on newer JVMs
+                        }
+                    }
+                }
+            }
+            fields = all.toArray(new Field[all.size()]);
+            FIELDS.putIfAbsent(type, fields);
+        }
+        return fields;
+    }
+
+    private static List<String> path(Object object, Map<Object, Step> steps) {
+        List<String> path = new ArrayList<>();
+        for (Object current = object; steps.get(current).reference != null; current = steps.get(current).from) {
+            path.add(steps.get(current).reference + " (" + describe(current) + ")");
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    private static String describe(Object object) {
+        String name = object.getClass().getName();
+        name = name.substring(name.lastIndexOf('.') + 1);
+        if (object instanceof Component && !((Component) object).getId().isEmpty()) {
+            return name + " '" + ((Component) object).getId() + "'";
+        }
+        return name;
+    }
+
+    /**
+     * How the walk reached an object.
+     */
+    private static final class Step {
+
+        private final Object from;
+        private final String reference;
+
+        private Step(Object from, String reference) {
+            this.from = from;
+            this.reference = reference;
+        }
+    }
+
+    /**
+     * A watched component which is still reachable.
+     */
+    public static final class Leak {
+
+        private final WeakReference<Component> component;
+        private final String description;
+        private final String root;
+        private final List<String> path;
+
+        private Leak(Component component, String root, List<String> path) {
+            this.component = new WeakReference<>(component);
+            this.description = describe(component);
+            this.root = root;
+            this.path = Collections.unmodifiableList(path);
+        }
+
+        /**
+         * @return the leaked component, or null if it has since been released
+         */
+        public Component getComponent() {
+            return component.get();
+        }
+
+        /**
+         * @return the subscriber or listener which retains the component, such as {@code queue 'mail' subscriber
+         * InboxComposer$1}
+         */
+        public String getRoot() {
+            return root;
+        }
+
+        /**
+         * @return the references from the root to the component, such as {@code this$0 (InboxComposer)}
+         */
+        public List<String> getPath() {
+            return path;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder leak = new StringBuilder(description).append(" retained by ").append(root);
+            for (String step : path) {
+                leak.append(" -> ").append(step);
+            }
+            return leak.toString();
+        }
+    }
+
+}
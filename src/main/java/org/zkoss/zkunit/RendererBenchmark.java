@@ -0,0 +1,357 @@
+package org.zkoss.zkunit;
+
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zul.ListModel;
+import org.zkoss.zul.Listitem;
+import org.zkoss.zul.ListitemRenderer;
+import org.zkoss.zul.Row;
+import org.zkoss.zul.RowRenderer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Measures the throughput of a {@link RowRenderer} or {@link ListitemRenderer}, rendering every item of a {@link
+ * ListModel} into detached {@link Row}s or {@link Listitem}s, apart from any page.<br/>
+ * Created with {@link ZKUtils#benchmarkRenderer(RowRenderer, ListModel)} or {@link
+ * ZKUtils#benchmarkRenderer(ListitemRenderer, ListModel)}.
+ * <p>
+ * The model is rendered for a number of warmup rounds, which are discarded, then for a number of measured rounds. For
+ * each measured round the report gives the time, and where the JVM supports it the bytes allocated, per item. With a
+ * pool the model is split into chunks rendered concurrently, each chunk rendered start to finish on one thread so its
+ * allocations can be attributed to it.
+ * </p>
+ * <p>
+ * For numbers stable enough to compare across builds, call {@link #renderAll()} from a JMH {@code @Benchmark} method
+ * and return its result, leaving the warmup, forking and statistics to JMH; zkunit's own {@code RendererJmhBenchmark}
+ * does so for a grid's rows.
+ * </p>
+ *
+ * @author Sean Connolly
+ */
+public class RendererBenchmark<T> {
+
+    private final ItemRenderer<T> renderer;
+    private final ListModel<T> model;
+    private int warmupRounds = 5;
+    private int measuredRounds = 10;
+    private ForkJoinPool pool;
+    private int chunks = 1;
+
+    private RendererBenchmark(ItemRenderer<T> renderer, ListModel<T> model) {
+        this.renderer = renderer;
+        this.model = model;
+    }
+
+    static <T> RendererBenchmark<T> of(final RowRenderer<T> renderer, ListModel<T> model) {
+        return new RendererBenchmark<>(new ItemRenderer<T>() {
+            @Override
+            public Component render(T data, int index) throws Exception {
+                Row row = new Row();
+                renderer.render(row, data, index);
+                return row;
+            }
+        }, model);
+    }
+
+    static <T> RendererBenchmark<T> of(final ListitemRenderer<T> renderer, ListModel<T> model) {
+        return new RendererBenchmark<>(new ItemRenderer<T>() {
+            @Override
+            public Component render(T data, int index) throws Exception {
+                Listitem item = new Listitem();
+                renderer.render(item, data, index);
+                return item;
+            }
+        }, model);
+    }
+
+    /**
+     * @param rounds the number of times to render the model before measuring
+     * @return this benchmark
+     */
+    public RendererBenchmark<T> setWarmupRounds(int rounds) {
+        this.warmupRounds = Math.max(0, rounds);
+        return this;
+    }
+
+    /**
+     * @param rounds the number of times to render the model and measure it
+     * @return this benchmark
+     */
+    public RendererBenchmark<T> setMeasuredRounds(int rounds) {
+        this.measuredRounds = Math.max(1, rounds);
+        return this;
+    }
+
+    /**
+     * Render the model in chunks across a pool, rather than serially on the calling thread.
+     *
+     * @param pool   the pool to render on, or null to render serially
+     * @param chunks the number of chunks to split the model into
+     * @return this benchmark
+     */
+    public RendererBenchmark<T> setParallel(ForkJoinPool pool, int chunks) {
+        this.pool = pool;
+        this.chunks = Math.max(1, chunks);
+        return this;
+    }
+
+    /**
+     * Render the model into chunks across all available cores, on a pool shared by every benchmark.
+     *
+     * @return this benchmark
+     */
+    public RendererBenchmark<T> setParallel() {
+        return setParallel(SharedPool.POOL, SharedPool.POOL.getParallelism());
+    }
+
+    /**
+     * Render every item of the model once, without measuring.
+     *
+     * @return the rendered items, in model order
+     */
+    public List<Component> renderAll() {
+        List<Component> items = new ArrayList<>(model.getSize());
+        for (Chunk chunk : render()) {
+            items.addAll(chunk.items);
+        }
+        return items;
+    }
+
+    /**
+     * Warm up, then measure rendering the model.
+     *
+     * @return the measurements of each measured round
+     */
+    public RenderReport run() {
+        for (int i = 0; i < warmupRounds; i++) {
+            render();
+        }
+        List<Round> rounds = new ArrayList<>(measuredRounds);
+        int components = 0;
+        for (int i = 0; i < measuredRounds; i++) {
+            long start = System.nanoTime();
+            List<Chunk> rendered = render();
+            long nanos = System.nanoTime() - start;
+            long allocated = 0;
+            for (Chunk chunk : rendered) {
+                allocated = chunk.allocatedBytes < 0 || allocated < 0 ? -1 : allocated + chunk.allocatedBytes;
+            }
+            rounds.add(new Round(nanos, allocated));
+            if (i == measuredRounds - 1) {
+                for (Chunk chunk : rendered) {
+                    for (Component item : chunk.items) {
+                        components += countComponents(item);
+                    }
+                }
+            }
+        }
+        return new RenderReport(model.getSize(), rounds, components);
+    }
+
+    private List<Chunk> render() {
+        int size = model.getSize();
+        if (pool == null || chunks == 1 || size < 2) {
+            return Collections.singletonList(renderChunk(0, size));
+        }
+        int count = Math.min(chunks, size);
+        List<ForkJoinTask<Chunk>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int from = (int) ((long) size * i / count);
+            final int to = (int) ((long) size * (i + 1) / count);
+            tasks.add(pool.submit(new Callable<Chunk>() {
+                @Override
+                public Chunk call() {
+                    return renderChunk(from, to);
+                }
+            }));
+        }
+        List<Chunk> rendered = new ArrayList<>(count);
+        for (ForkJoinTask<Chunk> task : tasks) {
+            rendered.add(task.join());
+        }
+        return rendered;
+    }
+
+    private Chunk renderChunk(int from, int to) {
+        List<Component> items = new ArrayList<>(to - from);
+        long allocatedBefore = allocatedBytes();
+        for (int i = from; i < to; i++) {
+            try {
+                items.add(renderer.render(model.getElementAt(i), i));
+            } catch (Exception e) {
+                throw new RuntimeException("renderer failed on item " + i, e);
+            }
+        }
+        long allocatedAfter = allocatedBytes();
+        return new Chunk(items, allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore);
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far, or -1 if the JVM doesn't track them
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+            if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+                return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static int countComponents(Component component) {
+        int count = 1;
+        for (Component child : component.getChildren()) {
+            count += countComponents(child);
+        }
+        return count;
+    }
+
+    private interface ItemRenderer<T> {
+
+        Component render(T data, int index) throws Exception;
+    }
+
+    private static final class Chunk {
+
+        private final List<Component> items;
+        private final long allocatedBytes;
+
+        private Chunk(List<Component> items, long allocatedBytes) {
+            this.items = items;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    /**
+     * The time taken, and bytes allocated, rendering the whole model once.
+     */
+    public static class Round {
+
+        private final long nanos;
+        private final long allocatedBytes;
+
+        Round(long nanos, long allocatedBytes) {
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        /**
+         * @return the wall clock time taken to render the model, in nanoseconds
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return the bytes allocated rendering the model, or -1 if the JVM doesn't track them
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+    }
+
+    /**
+     * The measurements of a benchmark run.
+     */
+    public static class RenderReport {
+
+        private final int items;
+        private final List<Round> rounds;
+        private final int components;
+
+        RenderReport(int items, List<Round> rounds, int components) {
+            this.items = items;
+            this.rounds = Collections.unmodifiableList(rounds);
+            this.components = components;
+        }
+
+        /**
+         * @return the number of items in the model
+         */
+        public int getItems() {
+            return items;
+        }
+
+        /**
+         * @return the measured rounds, in order
+         */
+        public List<Round> getRounds() {
+            return rounds;
+        }
+
+        /**
+         * @return the mean time to render an item across all measured rounds, in nanoseconds
+         */
+        public double getMeanNanosPerItem() {
+            long total = 0;
+            for (Round round : rounds) {
+                total += round.nanos;
+            }
+            return items == 0 ? 0 : (double) total / rounds.size() / items;
+        }
+
+        /**
+         * @return the time to render an item in the fastest measured round, in nanoseconds
+         */
+        public double getBestNanosPerItem() {
+            long best = Long.MAX_VALUE;
+            for (Round round : rounds) {
+                best = Math.min(best, round.nanos);
+            }
+            return items == 0 ? 0 : (double) best / items;
+        }
+
+        /**
+         * @return the number of items rendered per second, at the mean time per item
+         */
+        public double getItemsPerSecond() {
+            double mean = getMeanNanosPerItem();
+            return mean == 0 ? 0 : 1e9 / mean;
+        }
+
+        /**
+         * @return the mean bytes allocated to render an item, or -1 if the JVM doesn't track them
+         */
+        public double getAllocatedBytesPerItem() {
+            long total = 0;
+            for (Round round : rounds) {
+                if (round.allocatedBytes < 0) {
+                    return -1;
+                }
+                total += round.allocatedBytes;
+            }
+            return items == 0 ? 0 : (double) total / rounds.size() / items;
+        }
+
+        /**
+         * @return the mean number of components each item renders into, including the item itself
+         */
+        public double getComponentsPerItem() {
+            return items == 0 ? 0 : (double) components / items;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d items x %d rounds: %.1fns/item (best %.1fns), %.0f items/s, %.0f bytes/item, "
+                            + "%.1f components/item", items, rounds.size(), getMeanNanosPerItem(),
+                    getBestNanosPerItem(), getItemsPerSecond(), getAllocatedBytesPerItem(), getComponentsPerItem());
+        }
+    }
+
+    /**
+     * The pool for benchmarks rendering across all cores, only created once first needed.
+     */
+    private static final class SharedPool {
+        private static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+}
@@ -0,0 +1,174 @@
+package org.zkoss.zkunit;
+
+import org.zkoss.zk.ui.AbstractComponent;
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zk.ui.event.EventListener;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares a copy of a component tree with its original, finding any mutable state the two still share.<br/>
+ * ZK copies its own state when a component is cloned, but the fields of application components, component
+ * attributes and event listeners are copied by reference; a listener which captured a component of the original tree
+ * will go on changing the original when it handles an event on the copy.
+ *
+ * @author Sean Connolly
+ */
+final class SharedStateChecker {
+
+    private static final String ZK_PACKAGE = "org.zkoss.";
+
+    private SharedStateChecker() {
+        // static utility
+    }
+
+    /**
+     * @param original the original tree
+     * @param copy     the copy
+     * @return a description of everything shared, in tree order
+     */
+    static List<String> check(Component original, Component copy) {
+        List<String> shared = new ArrayList<>();
+        check(original, copy, copy.getClass().getSimpleName(), shared);
+        return shared;
+    }
+
+    private static void check(Component original, Component copy, String path, List<String> shared) {
+        if (original == copy) {
+            shared.add(path + ": is the original component");
+            return;
+        }
+        checkFields(original, copy, path, shared);
+        for (Map.Entry<String, Object> attribute : copy.getAttributes().entrySet()) {
+            Object value = attribute.getValue();
+            if (value == original.getAttribute(attribute.getKey()) && isMutable(value)) {
+                shared.add(path + ": attribute '" + attribute.getKey() + "' shares a " + describe(value));
+            }
+        }
+        for (String eventName : eventNames(original)) {
+            Set<EventListener<?>> originals =
+                    Collections.newSetFromMap(new IdentityHashMap<EventListener<?>, Boolean>());
+            for (EventListener<?> listener : original.getEventListeners(eventName)) {
+                originals.add(listener);
+            }
+            for (EventListener<?> listener : copy.getEventListeners(eventName)) {
+                if (originals.contains(listener) && hasState(listener)) {
+                    shared.add(path + ": '" + eventName + "' listener is a shared " + describe(listener));
+                }
+            }
+        }
+        List<Component> originalChildren = original.getChildren();
+        List<Component> copyChildren = copy.getChildren();
+        if (originalChildren.size() != copyChildren.size()) {
+            shared.add(path + ": has " + copyChildren.size() + " children, the original has "
+                    + originalChildren.size());
+            return;
+        }
+        for (int i = 0; i < copyChildren.size(); i++) {
+            Component child = copyChildren.get(i);
+            String childPath = path + "/" + child.getClass().getSimpleName() + "[" + i + "]";
+            check(originalChildren.get(i), child, childPath, shared);
+        }
+    }
+
+    /**
+     * ZK's own fields are copied by ZK, so only the fields of application classes are compared.
+     */
+    private static void checkFields(Component original, Component copy, String path, List<String> shared) {
+        for (Class<?> type = copy.getClass(); type != null && !type.getName().startsWith(ZK_PACKAGE);
+             type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                    continue;
+                }
+                Object value = read(field, copy);
+                if (value != null && value == read(field, original) && isMutable(value)) {
+                    shared.add(path + ": field '" + field.getName() + "' shares a " + describe(value));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the listener holds any mutable state, which a copy would share with the original
+     */
+    private static boolean hasState(Object listener) {
+        for (Class<?> type = listener.getClass(); type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) && isMutable(read(field, listener))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isMutable(Object value) {
+        return value != null
+                && !(value instanceof String)
+                && !(value instanceof Boolean)
+                && !(value instanceof Character)
+                && !(value instanceof Enum)
+                && !(value instanceof Class)
+                && !(value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte || value instanceof Double || value instanceof Float
+                || value instanceof BigInteger || value instanceof BigDecimal);
+    }
+
+    private static String describe(Object value) {
+        String name = value.getClass().getSimpleName();
+        return name.isEmpty() ? value.getClass().getName() : name;
+    }
+
+    private static Object read(Field field, Object target) {
+        try {
+            field.setAccessible(true);
+            return field.get(target);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * ZK doesn't expose the names of the events a component has listeners for, so they are read from its internals.
+     *
+     * @return the names of the events the component has listeners for, or none if they can't be read
+     */
+    static Set<String> eventNames(Component component) {
+        if (!(component instanceof AbstractComponent)) {
+            return Collections.emptySet();
+        }
+        try {
+            Field auxField = AbstractComponent.class.getDeclaredField("_auxinf");
+            auxField.setAccessible(true);
+            Object aux = auxField.get(component);
+            if (aux == null) {
+                return Collections.emptySet();
+            }
+            Field listenersField = aux.getClass().getDeclaredField("listeners");
+            listenersField.setAccessible(true);
+            Map<?, ?> listeners = (Map<?, ?>) listenersField.get(aux);
+            if (listeners == null) {
+                return Collections.emptySet();
+            }
+            Set<String> names = new LinkedHashSet<>();
+            for (Object name : listeners.keySet()) {
+                names.add((String) name);
+            }
+            return names;
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            return Collections.emptySet();
+        }
+    }
+
+}
@@ -0,0 +1,358 @@
+package org.zkoss.zkunit;
+
+import org.zkoss.zk.ui.event.Event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * An in-process simulation of a ZK cluster, for testing application scoped {@link org.zkoss.zk.ui.event.EventQueue}s
+ * which fan out across nodes.<br/>
+ * Each {@link SimulatedNode} has its own desktops and event queue registry. Events published to a node's queue are
+ * delivered to that node's subscribers immediately and handed to a local stand-in for the message broker, which
+ * delivers them to the same named queue on every other node after a configurable latency, grouped into batches.
+ * <p>
+ * The broker runs on a virtual clock: nothing is delivered to a remote node until the cluster is {@link
+ * #advance(long) advanced} or {@link #flush() flushed}, so fan-out across thousands of subscribers on many nodes is
+ * deterministic and costs only the time spent in the listeners.
+ * </p>
+ *
+ * @author Sean Connolly
+ */
+public class SimulatedCluster {
+
+    private final List<SimulatedNode> nodes = new ArrayList<>();
+    private final Map<String, Batch> openBatches = new HashMap<>();
+    private final PriorityQueue<Batch> inFlight = new PriorityQueue<>();
+    private final Stats stats = new Stats();
+    private final Random random;
+
+    private long latency = 0;
+    private long jitter = 0;
+    private long batchWindow = 0;
+    private int batchSize = Integer.MAX_VALUE;
+    private long now = 0;
+    private long batchSequence = 0;
+
+    /**
+     * Create a cluster with no broker latency, where all messages sent at the same virtual time are batched.
+     */
+    public SimulatedCluster() {
+        this(0);
+    }
+
+    /**
+     * @param seed the seed for the broker's latency jitter, so runs with jitter are reproducible
+     */
+    public SimulatedCluster(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param latency the virtual time, in milliseconds, for a batch to travel from one node to another
+     * @return this cluster
+     */
+    public SimulatedCluster setLatency(long latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * Randomly vary the latency of each batch by up to the given amount. Batches may then overtake one another, as
+     * they can on a real network, which shows up in the {@link Stats#getOutOfOrderDeliveries() ordering statistics}.
+     *
+     * @param jitter the maximum additional virtual latency, in milliseconds
+     * @return this cluster
+     */
+    public SimulatedCluster setJitter(long jitter) {
+        this.jitter = jitter;
+        return this;
+    }
+
+    /**
+     * @param batchWindow how long, in virtual milliseconds, the broker collects messages between the same pair of nodes
+     *                    before sending them as a batch
+     * @return this cluster
+     */
+    public SimulatedCluster setBatchWindow(long batchWindow) {
+        this.batchWindow = batchWindow;
+        return this;
+    }
+
+    /**
+     * @param batchSize the maximum number of messages in a batch, a full batch is sent immediately
+     * @return this cluster
+     */
+    public SimulatedCluster setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @return a new node, joined to the cluster
+     */
+    public SimulatedNode addNode() {
+        SimulatedNode node = new SimulatedNode(this, "node" + nodes.size());
+        nodes.add(node);
+        return node;
+    }
+
+    /**
+     * @return all nodes in the cluster
+     */
+    public List<SimulatedNode> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    /**
+     * @return the current virtual time of the broker, in milliseconds
+     */
+    public long getTime() {
+        return now;
+    }
+
+    /**
+     * @return the statistics gathered since the cluster was created
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * Advance the broker's virtual clock, delivering every batch which arrives in the meantime.
+     *
+     * @param millis the number of virtual milliseconds to advance
+     */
+    public void advance(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("cannot advance the clock backwards: " + millis);
+        }
+        long end = now + millis;
+        while (true) {
+            closeBatches(end);
+            Batch next = inFlight.peek();
+            if (next == null || next.deliveryTime > end) {
+                break;
+            }
+            inFlight.poll();
+            now = Math.max(now, next.deliveryTime);
+            deliver(next);
+        }
+        now = end;
+    }
+
+    /**
+     * Advance the broker's virtual clock until every message sent so far, and any sent by the listeners receiving
+     * them, has been delivered.
+     */
+    public void flush() {
+        while (!openBatches.isEmpty() || !inFlight.isEmpty()) {
+            long until = now;
+            for (Batch batch : openBatches.values()) {
+                until = Math.max(until, batch.closeTime + latency + jitter);
+            }
+            for (Batch batch : inFlight) {
+                until = Math.max(until, batch.deliveryTime);
+            }
+            advance(until - now);
+        }
+    }
+
+    /**
+     * Called by a node when an event is published to one of its queues, to send it to every other node.
+     */
+    <T extends Event> void send(SimulatedNode origin, String queueName, T event, long sequence) {
+        stats.published++;
+        for (SimulatedNode destination : nodes) {
+            if (destination == origin) {
+                continue;
+            }
+            String key = origin.getId() + "->" + destination.getId();
+            Batch batch = openBatches.get(key);
+            if (batch == null) {
+                batch = new Batch(origin, destination, now + batchWindow);
+                openBatches.put(key, batch);
+            }
+            batch.messages.add(new Message(queueName, event, sequence, now));
+            stats.messagesSent++;
+            if (batch.messages.size() >= batchSize) {
+                openBatches.remove(key);
+                schedule(batch, now);
+            }
+        }
+    }
+
+    private void closeBatches(long until) {
+        Iterator<Batch> batches = openBatches.values().iterator();
+        while (batches.hasNext()) {
+            Batch batch = batches.next();
+            if (batch.closeTime <= until) {
+                batches.remove();
+                schedule(batch, batch.closeTime);
+            }
+        }
+    }
+
+    private void schedule(Batch batch, long sentTime) {
+        long delay = latency;
+        if (jitter > 0) {
+            delay += (long) (random.nextDouble() * (jitter + 1));
+        }
+        batch.deliveryTime = Math.max(now, sentTime) + delay;
+        batch.sequence = batchSequence++;
+        inFlight.add(batch);
+    }
+
+    private void deliver(Batch batch) {
+        stats.batchesDelivered++;
+        long start = System.nanoTime();
+        for (Message message : batch.messages) {
+            long latency = now - message.sentTime;
+            stats.totalLatency += latency;
+            stats.maxLatency = Math.max(stats.maxLatency, latency);
+            stats.listenersInvoked += batch.destination.receive(batch.origin, message.queueName, message.event,
+                    message.sequence, stats);
+            stats.messagesDelivered++;
+        }
+        stats.deliveryNanos += System.nanoTime() - start;
+    }
+
+    private static final class Message {
+
+        private final String queueName;
+        private final Event event;
+        private final long sequence;
+        private final long sentTime;
+
+        private Message(String queueName, Event event, long sequence, long sentTime) {
+            this.queueName = queueName;
+            this.event = event;
+            this.sequence = sequence;
+            this.sentTime = sentTime;
+        }
+    }
+
+    private static final class Batch implements Comparable<Batch> {
+
+        private final SimulatedNode origin;
+        private final SimulatedNode destination;
+        private final long closeTime;
+        private final List<Message> messages = new ArrayList<>();
+        private long deliveryTime;
+        private long sequence;
+
+        private Batch(SimulatedNode origin, SimulatedNode destination, long closeTime) {
+            this.origin = origin;
+            this.destination = destination;
+            this.closeTime = closeTime;
+        }
+
+        @Override
+        public int compareTo(Batch other) {
+            if (deliveryTime != other.deliveryTime) {
+                return deliveryTime < other.deliveryTime ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Statistics about the traffic through the cluster's broker.
+     */
+    public static class Stats {
+
+        private long published;
+        private long messagesSent;
+        private long messagesDelivered;
+        private long batchesDelivered;
+        private long listenersInvoked;
+        private long outOfOrderDeliveries;
+        private long totalLatency;
+        private long maxLatency;
+        private long deliveryNanos;
+
+        /**
+         * @return the number of events published to clustered queues on any node
+         */
+        public long getPublished() {
+            return published;
+        }
+
+        /**
+         * @return the number of node-to-node messages handed to the broker
+         */
+        public long getMessagesSent() {
+            return messagesSent;
+        }
+
+        /**
+         * @return the number of node-to-node messages delivered by the broker
+         */
+        public long getMessagesDelivered() {
+            return messagesDelivered;
+        }
+
+        /**
+         * @return the number of batches delivered by the broker
+         */
+        public long getBatchesDelivered() {
+            return batchesDelivered;
+        }
+
+        /**
+         * @return the number of remote subscribers invoked, i.e. the fan-out
+         */
+        public long getListenersInvoked() {
+            return listenersInvoked;
+        }
+
+        /**
+         * @return the number of messages delivered before a message sent earlier from the same node to the same queue
+         */
+        public long getOutOfOrderDeliveries() {
+            return outOfOrderDeliveries;
+        }
+
+        void outOfOrder() {
+            outOfOrderDeliveries++;
+        }
+
+        /**
+         * @return the largest virtual time, in milliseconds, between a message being sent and delivered
+         */
+        public long getMaxLatency() {
+            return maxLatency;
+        }
+
+        /**
+         * @return the mean virtual time, in milliseconds, between a message being sent and delivered
+         */
+        public double getMeanLatency() {
+            return messagesDelivered == 0 ? 0 : (double) totalLatency / messagesDelivered;
+        }
+
+        /**
+         * @return the real time spent delivering messages to remote subscribers, in nanoseconds
+         */
+        public long getDeliveryNanos() {
+            return deliveryNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats[published=" + published + ", sent=" + messagesSent + ", delivered=" + messagesDelivered
+                    + ", batches=" + batchesDelivered + ", listeners=" + listenersInvoked + ", outOfOrder="
+                    + outOfOrderDeliveries + ", maxLatency=" + maxLatency + "ms, delivery=" + deliveryNanos + "ns]";
+        }
+    }
+
+}
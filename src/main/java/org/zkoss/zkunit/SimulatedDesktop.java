@@ -0,0 +1,709 @@
+package org.zkoss.zkunit;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zk.ui.Desktop;
+import org.zkoss.zk.ui.Execution;
+import org.zkoss.zk.ui.Page;
+import org.zkoss.zk.ui.UiException;
+import org.zkoss.zk.ui.WebApp;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.impl.PageImpl;
+import org.zkoss.zk.ui.metainfo.LanguageDefinition;
+import org.zkoss.zk.ui.sys.DesktopCtrl;
+import org.zkoss.zk.ui.sys.ExecutionCtrl;
+import org.zkoss.zk.ui.sys.ExecutionsCtrl;
+import org.zkoss.zk.ui.sys.PageConfig;
+import org.zkoss.zk.ui.sys.UiEngine;
+import org.zkoss.zk.ui.sys.WebAppCtrl;
+import org.zkoss.zk.ui.util.Configuration;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * A desktop with its own event thread, processing one event at a time as a live ZK desktop does.<br/>
+ * Components {@link #attach(Component) attached} to the desktop's page belong to it. Events targeting them, whether
+ * simulated with {@link ZKUtils#simulateEvent(Event)} as the client would send them or sent with {@link
+ * #sendEvent(Event)}, are handed to the event thread and processed in turn, while the sender waits for them; events
+ * {@link #postEvent(Event) posted} are queued and the sender carries on. As in ZK, the mocked {@link
+ * org.zkoss.zk.ui.event.Events} of a {@link ZKTest} may only send, post or echo events to attached components on the
+ * event thread: called from any other thread they fail, and the call is recorded as a {@link Race}.
+ * <p>
+ * Only the event thread has a current {@link Execution}. Every change to an attached component, from property updates
+ * to children being added, is checked: a change made on any other thread, such as by a background task which forgot
+ * to activate the desktop, is recorded as a {@link Race} with the stack trace of the offending code. Assert there
+ * were none with {@link ZKAssert#assertNoRaces(SimulatedDesktop)}. As in ZK, detaching an attached component from
+ * another thread fails immediately.
+ * </p>
+ * <p>
+ * The desktop's {@link Stats} record how long events waited for the event thread, so the latency of a desktop under
+ * concurrent load can be measured.
+ * </p>
+ * <p>
+ * Desktops created in a {@link ZKTest}, or while a {@link ZKEnvironment} is installed, are destroyed after the test;
+ * any others must be {@link #destroy() destroyed} to stop their event threads.
+ * </p>
+ *
+ * @author Sean Connolly
+ */
+public class SimulatedDesktop {
+
+    private static final int MAX_RACES = 100;
+    private static final ConcurrentMap<Desktop, SimulatedDesktop> DESKTOPS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Execution> CURRENT_EXECUTION = new ThreadLocal<>();
+
+    private final String id;
+    private final Desktop desktop;
+    private final Execution execution;
+    private final ExecutorService eventThread;
+    private final AtomicLong uuids = new AtomicLong();
+    private final AtomicBoolean alive = new AtomicBoolean(true);
+    private final AtomicInteger pending = new AtomicInteger();
+    private final List<Race> races = new ArrayList<>();
+    private final List<Throwable> failures = new ArrayList<>();
+    private final Stats stats = new Stats();
+    private final Page page;
+
+    private volatile Thread thread;
+    private int raceCount;
+
+    /**
+     * @param id the desktop's id, which names its event thread
+     */
+    public SimulatedDesktop(String id) {
+        this.id = id;
+        this.desktop = mockDesktop();
+        this.execution = mock(Execution.class, withSettings().extraInterfaces(ExecutionCtrl.class));
+        when(execution.getDesktop()).thenReturn(desktop);
+        this.eventThread = Executors.newSingleThreadExecutor(new EventThreadFactory());
+        this.page = call(new Callable<Page>() {
+            @Override
+            public Page call() {
+                return newPage();
+            }
+        });
+        DESKTOPS.put(desktop, this);
+        ZKEnvironment.register(this);
+    }
+
+    /**
+     * @param component a component
+     * @return the simulated desktop the component is attached to, or null if it isn't attached to one
+     */
+    static SimulatedDesktop of(Component component) {
+        Desktop desktop = component == null ? null : component.getDesktop();
+        return desktop == null ? null : DESKTOPS.get(desktop);
+    }
+
+    /**
+     * ZK keeps the current execution in {@link org.zkoss.zk.ui.Executions}, which is mocked in a {@link ZKTest}, so the
+     * mock looks it up here instead.
+     *
+     * @return the execution of the desktop whose event thread this is, or null on any other thread
+     */
+    static Execution currentExecution() {
+        return CURRENT_EXECUTION.get();
+    }
+
+    private Desktop mockDesktop() {
+        WebApp webApp = mock(WebApp.class, withSettings().extraInterfaces(WebAppCtrl.class));
+        when(webApp.getConfiguration()).thenReturn(new Configuration());
+        when(((WebAppCtrl) webApp).getUiEngine()).thenReturn(recordingUiEngine());
+        Desktop desktop = mock(Desktop.class, withSettings().extraInterfaces(DesktopCtrl.class));
+        when(desktop.getId()).thenReturn(id);
+        when(desktop.getWebApp()).thenReturn(webApp);
+        when(desktop.isAlive()).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                return alive.get();
+            }
+        });
+        Answer<String> nextUuid = new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                return id + "_" + uuids.incrementAndGet();
+            }
+        };
+        when(((DesktopCtrl) desktop).getNextUuid(any(Component.class))).thenAnswer(nextUuid);
+        when(((DesktopCtrl) desktop).getNextUuid(any(Page.class))).thenAnswer(nextUuid);
+        return desktop;
+    }
+
+    /**
+     * ZK reports every change to an attached component to the web app's {@link UiEngine}, so that is where they are
+     * checked against the event thread.
+     */
+    private UiEngine recordingUiEngine() {
+        return (UiEngine) Proxy.newProxyInstance(UiEngine.class.getClassLoader(), new Class<?>[]{UiEngine.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] arguments) {
+                        if (method.getDeclaringClass() == Object.class) {
+                            return objectMethod(proxy, method.getName(), arguments);
+                        }
+                        String mutation = describe(method.getName(), arguments);
+                        Component component = arguments != null && arguments.length > 0
+                                && arguments[0] instanceof Component ? (Component) arguments[0] : null;
+                        if (mutation != null && Thread.currentThread() != thread) {
+                            recordRace(component, mutation);
+                        }
+                        account(method.getName(), component);
+                        Class<?> type = method.getReturnType();
+                        return type == boolean.class ? Boolean.FALSE : null;
+                    }
+                });
+    }
+
+    private Object objectMethod(Object proxy, String method, Object... arguments) {
+        switch (method) {
+            case "equals":
+                return proxy == arguments[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return "UiEngine of desktop " + id;
+        }
+    }
+
+    /**
+     * @return a description of the change to a component reported to the {@link UiEngine}, or null if it isn't one
+     */
+    private static String describe(String method, Object... arguments) {
+        switch (method) {
+            case "addInvalidate":
+                return "invalidate";
+            case "addSmartUpdate":
+                return "update '" + arguments[1] + "'";
+            case "addMoved":
+                return arguments[3] == null ? "detach" : arguments[2] == null ? "attach" : "move";
+            case "addUuidChanged":
+                return "change uuid";
+            case "addResponse":
+                return "response";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Report invalidations and property updates to the running {@link ComponentAccounting}, if any.
+     */
+    private static void account(String method, Component component) {
+        ComponentAccounting accounting = ComponentAccounting.current();
+        if (accounting == null) {
+            return;
+        }
+        if (method.equals("addInvalidate")) {
+            accounting.changed(component, ComponentAccounting.Change.INVALIDATED);
+        } else if (method.equals("addSmartUpdate")) {
+            accounting.changed(component, ComponentAccounting.Change.UPDATED);
+        }
+    }
+
+    /**
+     * Called by the mocked {@link org.zkoss.zk.ui.event.Events} before an event is sent, posted or echoed to one of the
+     * desktop's components. ZK only allows that within an execution, so from any other thread than the event thread
+     * the call is recorded as a race and fails.
+     *
+     * @param method the name of the method called, such as {@code postEvent}
+     * @param event  the event
+     * @throws UiException if the current thread isn't the event thread
+     */
+    void checkEventThread(String method, Event event) {
+        if (!isEventThread()) {
+            String call = method + " '" + event.getName() + "'";
+            recordRace(event.getTarget(), call);
+            throw new UiException(call + " to " + event.getTarget() + " is callable only on the event thread of "
+                    + "desktop " + id + ", not on thread " + Thread.currentThread().getName());
+        }
+    }
+
+    private void recordRace(Component component, String mutation) {
+        Thread current = Thread.currentThread();
+        Race race = new Race(component, mutation, current.getName(), new Throwable().getStackTrace());
+        synchronized (races) {
+            raceCount++;
+            if (races.size() < MAX_RACES) {
+                races.add(race);
+            }
+        }
+    }
+
+    private Page newPage() {
+        PageImpl page = new PageImpl(LanguageDefinition.lookup("xul/html"), null, "/" + id + ".zul", null);
+        page.preInit();
+        page.init(mock(PageConfig.class));
+        return page;
+    }
+
+    /**
+     * @return the desktop's id
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the (mock) ZK desktop
+     */
+    public Desktop getDesktop() {
+        return desktop;
+    }
+
+    /**
+     * @return the desktop's page, which components are attached to
+     */
+    public Page getPage() {
+        return page;
+    }
+
+    /**
+     * @return true if the current thread is the desktop's event thread
+     */
+    public boolean isEventThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Attach a component to the desktop's page, on the event thread.
+     *
+     * @param root the root of a tree of components
+     * @return the root
+     */
+    public <T extends Component> T attach(final T root) {
+        run(new Runnable() {
+            @Override
+            public void run() {
+                root.setPage(page);
+            }
+        });
+        return root;
+    }
+
+    /**
+     * Run a task on the event thread, as a background thread would after activating the desktop, waiting for it.
+     *
+     * @param task the task
+     */
+    public void run(final Runnable task) {
+        call(new Callable<Void>() {
+            @Override
+            public Void call() {
+                task.run();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Run a task on the event thread, waiting for its result.
+     *
+     * @param task the task
+     * @return the task's result
+     */
+    public <V> V call(Callable<V> task) {
+        try {
+            return execute(task, false);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Send an event to its target on the event thread, waiting until it has been processed. Called on the event
+     * thread, from a handler, the event is processed immediately.
+     *
+     * @param event the event
+     * @return the number of handlers invoked
+     */
+    public int sendEvent(Event event) {
+        try {
+            return dispatch(event);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Queue an event for the event thread, after every event already queued, and return immediately.
+     *
+     * @param event the event
+     * @return the number of handlers invoked, once the event has been processed
+     */
+    public Future<Integer> postEvent(Event event) {
+        final Callable<Integer> task = dispatchTask(event);
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                try {
+                    return task.call();
+                } catch (Exception | Error e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                    throw e;
+                }
+            }
+        }, true);
+    }
+
+    private Callable<Integer> dispatchTask(final Event event) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return EventDispatcher.invoke(event);
+            }
+        };
+    }
+
+    /**
+     * Called by the {@link EventDispatcher} for events which target this desktop's components.
+     */
+    int dispatch(Event event) throws Exception {
+        return execute(dispatchTask(event), true);
+    }
+
+    private <V> V execute(Callable<V> task, boolean event) throws Exception {
+        if (isEventThread()) {
+            return task.call();
+        }
+        try {
+            return submit(task, event).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for desktop " + id, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    private <V> Future<V> submit(final Callable<V> task, final boolean event) {
+        final long queued = System.nanoTime();
+        pending.incrementAndGet();
+        return eventThread.submit(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                long started = System.nanoTime();
+                try {
+                    return task.call();
+                } finally {
+                    if (event) {
+                        stats.processed(started - queued, System.nanoTime() - started);
+                    }
+                    pending.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait until every queued event, including those posted by the handlers of other queued events, has been
+     * processed.
+     *
+     * @throws AssertionError if a posted event failed
+     */
+    public void awaitIdle() {
+        if (isEventThread()) {
+            throw new IllegalStateException("The event thread can't wait for itself");
+        }
+        while (pending.get() > 0) {
+            run(new Runnable() {
+                @Override
+                public void run() {
+                    // every task queued before this one has now run
+                }
+            });
+        }
+        synchronized (failures) {
+            if (!failures.isEmpty()) {
+                Throwable failure = failures.get(0);
+                failures.clear();
+                AssertionError error = new AssertionError("A posted event failed on desktop " + id + ": " + failure);
+                error.initCause(failure);
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * @return the changes made to attached components off the event thread, up to the first 100
+     */
+    public List<Race> getRaces() {
+        synchronized (races) {
+            return Collections.unmodifiableList(new ArrayList<>(races));
+        }
+    }
+
+    /**
+     * @return the number of changes made to attached components off the event thread, including any not kept
+     */
+    public int getRaceCount() {
+        synchronized (races) {
+            return raceCount;
+        }
+    }
+
+    /**
+     * @return statistics on the events processed by the event thread
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * Process every queued event, detach every component and stop the event thread.<br/>
+     * The desktop is torn down even if a posted event failed, and the failure is then thrown as by {@link
+     * #awaitIdle()}.
+     */
+    public void destroy() {
+        if (!alive.get()) {
+            return;
+        }
+        AssertionError failure = null;
+        try {
+            awaitIdle();
+        } catch (AssertionError e) {
+            failure = e;
+        }
+        try {
+            run(new Runnable() {
+                @Override
+                public void run() {
+                    for (Component root : new ArrayList<>(page.getRoots())) {
+                        root.detach();
+                    }
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            if (failure == null) {
+                throw e;
+            }
+            failure.addSuppressed(e);
+        } finally {
+            alive.set(false);
+            DESKTOPS.remove(desktop);
+            eventThread.shutdown();
+            try {
+                eventThread.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+
+    /**
+     * Names the event thread, and makes the desktop's execution current on it, as ZK does while processing events.
+     */
+    private final class EventThreadFactory implements ThreadFactory {
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread eventThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    CURRENT_EXECUTION.set(execution);
+                    ExecutionsCtrl.setCurrent(execution);
+                    try {
+                        runnable.run();
+                    } finally {
+                        ExecutionsCtrl.setCurrent(null);
+                        CURRENT_EXECUTION.remove();
+                    }
+                }
+            }, "zkunit-desktop-" + id);
+            eventThread.setDaemon(true);
+            thread = eventThread;
+            return eventThread;
+        }
+    }
+
+    /**
+     * A change to a component attached to the desktop, made off its event thread.
+     */
+    public static final class Race {
+
+        private static final int FRAMES = 8;
+
+        private final Component component;
+        private final String mutation;
+        private final String threadName;
+        private final StackTraceElement[] stackTrace;
+
+        private Race(Component component, String mutation, String threadName, StackTraceElement[] stackTrace) {
+            this.component = component;
+            this.mutation = mutation;
+            this.threadName = threadName;
+            this.stackTrace = stackTrace;
+        }
+
+        /**
+         * @return the component changed, or null if the change wasn't to a single component
+         */
+        public Component getComponent() {
+            return component;
+        }
+
+        /**
+         * @return what was done to the component, such as {@code update 'value'} or {@code attach}
+         */
+        public String getMutation() {
+            return mutation;
+        }
+
+        /**
+         * @return the name of the thread which made the change
+         */
+        public String getThreadName() {
+            return threadName;
+        }
+
+        /**
+         * @return the stack trace of the change, from where ZK reported it
+         */
+        public StackTraceElement[] getStackTrace() {
+            return stackTrace.clone();
+        }
+
+        /**
+         * @return the first frames of the stack trace below ZK: the code which made the change, and its callers
+         */
+        List<StackTraceElement> getCallerFrames() {
+            int first = 0;
+            while (first < stackTrace.length && isZK(stackTrace[first].getClassName())) {
+                first++;
+            }
+            return Arrays.asList(stackTrace).subList(first, Math.min(stackTrace.length, first + FRAMES));
+        }
+
+        private static boolean isZK(String type) {
+            return type.startsWith("org.zkoss.zk.") || type.startsWith("org.zkoss.zul.")
+                    || type.equals(SimulatedDesktop.class.getName())
+                    || type.startsWith(SimulatedDesktop.class.getName() + "$")
+                    || type.startsWith(ZKEnvironment.class.getName()) || type.startsWith("com.sun.proxy.")
+                    || type.startsWith("org.powermock.") || type.startsWith("org.mockito.")
+                    || type.startsWith("java.lang.reflect.") || type.startsWith("sun.reflect.");
+        }
+
+        @Override
+        public String toString() {
+            return mutation + " of " + component + " on thread " + threadName + " at " + getCallerFrames();
+        }
+    }
+
+    /**
+     * Statistics on the events processed by a desktop's event thread. Events sent from a handler, which are processed
+     * immediately, aren't included.
+     */
+    public static class Stats {
+
+        private static final int MAX_LATENCIES = 1 << 16;
+
+        private long events;
+        private long totalLatency;
+        private long maxLatency;
+        private long busyNanos;
+        private long[] latencies = new long[64];
+
+        private synchronized void processed(long latency, long nanos) {
+            if (events == latencies.length && latencies.length < MAX_LATENCIES) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[(int) (events++ % latencies.length)] = latency;
+            totalLatency += latency;
+            maxLatency = Math.max(maxLatency, latency);
+            busyNanos += nanos;
+        }
+
+        /**
+         * @return the number of events processed
+         */
+        public synchronized long getEvents() {
+            return events;
+        }
+
+        /**
+         * @return the mean time, in nanoseconds, an event waited for the event thread
+         */
+        public synchronized double getMeanLatency() {
+            return events == 0 ? 0 : (double) totalLatency / events;
+        }
+
+        /**
+         * @return the longest time, in nanoseconds, an event waited for the event thread
+         */
+        public synchronized long getMaxLatency() {
+            return maxLatency;
+        }
+
+        /**
+         * Percentiles are taken over the most recent {@value #MAX_LATENCIES} events, so long runs stay in bounded
+         * memory.
+         *
+         * @param percentile the percentile, between 0 and 100
+         * @return the time, in nanoseconds, within which the given percentage of events started processing
+         */
+        public synchronized long getLatencyPercentile(double percentile) {
+            if (events == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(latencies, (int) Math.min(events, latencies.length));
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+
+        /**
+         * @return the time, in nanoseconds, the event thread spent processing events
+         */
+        public synchronized long getBusyNanos() {
+            return busyNanos;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%d events, latency mean %.0fns p99 %dns max %dns, busy %dns", events,
+                    getMeanLatency(), getLatencyPercentile(99), maxLatency, busyNanos);
+        }
+    }
+
+}
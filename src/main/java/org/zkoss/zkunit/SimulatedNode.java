@@ -0,0 +1,168 @@
+package org.zkoss.zkunit;
+
+import org.zkoss.zk.ui.Desktop;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventQueue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * A single node in a {@link SimulatedCluster}, with its own desktops and application scoped event queue registry.
+ *
+ * @author Sean Connolly
+ */
+public class SimulatedNode {
+
+    private final SimulatedCluster cluster;
+    private final String id;
+    private final List<Desktop> desktops = new ArrayList<>();
+    private final Map<String, ClusteredEventQueue> queues = new HashMap<>();
+    private final Map<String, Long> sent = new HashMap<>();
+    private final Map<String, Long> received = new HashMap<>();
+
+    SimulatedNode(SimulatedCluster cluster, String id) {
+        this.cluster = cluster;
+        this.id = id;
+    }
+
+    /**
+     * @return the node's id, unique within its cluster
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the cluster this node belongs to
+     */
+    public SimulatedCluster getCluster() {
+        return cluster;
+    }
+
+    /**
+     * @return a new mock desktop, hosted by this node
+     */
+    public Desktop newDesktop() {
+        Desktop desktop = mock(Desktop.class);
+        when(desktop.getId()).thenReturn(id + "-desktop" + desktops.size());
+        when(desktop.isAlive()).thenReturn(true);
+        desktops.add(desktop);
+        return desktop;
+    }
+
+    /**
+     * @param desktop the desktop to remove from this node
+     * @return true if the desktop was hosted by this node
+     */
+    public boolean removeDesktop(Desktop desktop) {
+        return desktops.remove(desktop);
+    }
+
+    /**
+     * @return the desktops hosted by this node
+     */
+    public List<Desktop> getDesktops() {
+        return Collections.unmodifiableList(desktops);
+    }
+
+    /**
+     * Look up, creating if necessary, the application scoped event queue with the given name on this node.<br/>
+     * Events published to the queue are delivered to this node's subscribers immediately, and to the subscribers of
+     * the same named queue on every other node when the broker delivers them.
+     *
+     * @param name the name of the queue
+     * @return the node's queue
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Event> EventQueue<T> lookup(String name) {
+        ClusteredEventQueue queue = queues.get(name);
+        if (queue == null) {
+            queue = new ClusteredEventQueue(name);
+            queues.put(name, queue);
+        }
+        return queue;
+    }
+
+    /**
+     * @param name the name of the queue
+     * @return true if the queue has been looked up on this node and not removed
+     */
+    public boolean exists(String name) {
+        return queues.containsKey(name);
+    }
+
+    /**
+     * @param name the name of the queue
+     * @return true if the queue existed on this node
+     */
+    public boolean remove(String name) {
+        return queues.remove(name) != null;
+    }
+
+    /**
+     * @return the application scoped event queues looked up on this node, by name
+     */
+    Map<String, EventQueue> getQueues() {
+        return new HashMap<String, EventQueue>(queues);
+    }
+
+    /**
+     * Called by the broker to deliver a message from another node.
+     *
+     * @return the number of subscribers the event was delivered to
+     */
+    @SuppressWarnings("unchecked")
+    int receive(SimulatedNode origin, String queueName, Event event, long sequence, SimulatedCluster.Stats stats) {
+        String key = origin.getId() + "/" + queueName;
+        Long last = received.get(key);
+        if (last != null && sequence < last) {
+            stats.outOfOrder();
+        } else {
+            received.put(key, sequence);
+        }
+        ClusteredEventQueue queue = queues.get(queueName);
+        if (queue == null) {
+            return 0;
+        }
+        queue.deliver(event);
+        return queue.getSubscriberCount();
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+
+    private final class ClusteredEventQueue<T extends Event> extends SynchronousEventQueue<T> {
+
+        private final String name;
+
+        private ClusteredEventQueue(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void publishAll(Collection<T> events) {
+            super.publishAll(events);
+            for (T event : events) {
+                Long sequence = sent.get(name);
+                sequence = sequence == null ? 0 : sequence + 1;
+                sent.put(name, sequence);
+                cluster.send(SimulatedNode.this, name, event, sequence);
+            }
+        }
+
+        private void deliver(T event) {
+            super.publishAll(Collections.singletonList(event));
+        }
+    }
+
+}
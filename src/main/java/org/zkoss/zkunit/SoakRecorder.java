@@ -0,0 +1,334 @@
+package org.zkoss.zkunit;
+
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zk.ui.event.Event;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the events dispatched in soak mode, in memory which stays flat however long the run.<br/>
+ * Soak tests drive millions of events through {@link ZKUtils#simulateEvent(Event)} and the mocked {@link
+ * org.zkoss.zk.ui.event.Events}. A {@link ZKEnvironment} in soak mode mocks ZK's static classes without recording
+ * their invocations, which Mockito would otherwise keep for the life of the test, and records each dispatched event
+ * here instead:
+ * <ul>
+ * <li>the most recent events in a fixed size ring buffer of primitives: the event's name and its target's class as
+ * interned ids, and its target as an identity hash, so no event, target or data is ever kept alive,</li>
+ * <li>the count, total and longest dispatch time of every event, and of every event name.</li>
+ * </ul>
+ * <pre>
+ * public class InboxSoakTest extends ZKTest {
+ *     private final SoakRecorder soak = new SoakRecorder();
+ *
+ *     &#64;Override
+ *     protected SoakRecorder getSoakRecorder() {
+ *         return soak;
+ *     }
+ * }
+ * </pre>
+ * <p>
+ * As invocations aren't recorded, {@link ZKAssert#assertEventSent(String, Component)} and its siblings can't be used
+ * in soak mode.
+ * </p>
+ *
+ * @author Sean Connolly
+ */
+public class SoakRecorder {
+
+    /**
+     * The number of recent events kept by default.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * The most distinct event names and target classes interned; any more are recorded as {@link #OTHER}.
+     */
+    static final int MAX_SYMBOLS = 1024;
+
+    /**
+     * The name recorded for event names and target classes beyond the first {@link #MAX_SYMBOLS}.
+     */
+    static final String OTHER = "(other)";
+
+    private static final String NO_TARGET = "(none)";
+
+    private static volatile SoakRecorder current;
+
+    private final int capacity;
+    private final int[] recentNames;
+    private final int[] recentTypes;
+    private final int[] recentTargets;
+    private final long[] recentStarts;
+    private final long[] recentNanos;
+
+    private final Map<String, Integer> symbolIds = new HashMap<>();
+    private final List<String> symbols = new ArrayList<>();
+    private long[] nameCounts = new long[16];
+    private long[] nameNanos = new long[16];
+
+    private long events;
+    private long totalNanos;
+    private long maxNanos;
+
+    /**
+     * Keep the {@value #DEFAULT_CAPACITY} most recent events.
+     */
+    public SoakRecorder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of recent events to keep
+     */
+    public SoakRecorder(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.recentNames = new int[capacity];
+        this.recentTypes = new int[capacity];
+        this.recentTargets = new int[capacity];
+        this.recentStarts = new long[capacity];
+        this.recentNanos = new long[capacity];
+        intern(OTHER);
+    }
+
+    /**
+     * @param recorder the recorder events are dispatched to, or null when not in soak mode
+     */
+    static void activate(SoakRecorder recorder) {
+        current = recorder;
+    }
+
+    /**
+     * @return the recorder events are dispatched to, or null when not in soak mode
+     */
+    static SoakRecorder current() {
+        return current;
+    }
+
+    /**
+     * @param event the event dispatched
+     * @param nanos the time taken to dispatch it, including every handler it reached
+     */
+    synchronized void record(Event event, long nanos) {
+        long end = System.nanoTime();
+        Component target = event.getTarget();
+        int name = intern(event.getName());
+        int slot = (int) (events % capacity);
+        recentNames[slot] = name;
+        recentTypes[slot] = intern(target == null ? NO_TARGET : target.getClass().getName());
+        recentTargets[slot] = System.identityHashCode(target);
+        recentStarts[slot] = end - nanos;
+        recentNanos[slot] = nanos;
+        nameCounts[name]++;
+        nameNanos[name] += nanos;
+        events++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    private int intern(String symbol) {
+        Integer id = symbolIds.get(symbol);
+        if (id != null) {
+            return id;
+        }
+        if (symbols.size() == MAX_SYMBOLS) {
+            return 0;
+        }
+        id = symbols.size();
+        symbols.add(symbol);
+        symbolIds.put(symbol, id);
+        if (id == nameCounts.length) {
+            nameCounts = Arrays.copyOf(nameCounts, id * 2);
+            nameNanos = Arrays.copyOf(nameNanos, id * 2);
+        }
+        return id;
+    }
+
+    /**
+     * @return the number of recent events kept
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of events dispatched
+     */
+    public synchronized long getEvents() {
+        return events;
+    }
+
+    /**
+     * @return the time, in nanoseconds, spent dispatching events
+     */
+    public synchronized long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return the mean time, in nanoseconds, taken to dispatch an event
+     */
+    public synchronized double getMeanNanos() {
+        return events == 0 ? 0 : (double) totalNanos / events;
+    }
+
+    /**
+     * @return the longest time, in nanoseconds, taken to dispatch an event
+     */
+    public synchronized long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * @return the mean time, in nanoseconds, taken to dispatch the recent events
+     */
+    public synchronized double getRecentMeanNanos() {
+        int recent = recentCount();
+        long total = 0;
+        for (int i = 0; i < recent; i++) {
+            total += recentNanos[i];
+        }
+        return recent == 0 ? 0 : (double) total / recent;
+    }
+
+    /**
+     * @return the number of recent events dispatched per second, from the first of them starting to the last ending
+     */
+    public synchronized double getRecentRate() {
+        int recent = recentCount();
+        if (recent == 0) {
+            return 0;
+        }
+        int first = (int) ((events - recent) % capacity);
+        int last = (int) ((events - 1) % capacity);
+        long elapsed = recentStarts[last] + recentNanos[last] - recentStarts[first];
+        return elapsed <= 0 ? 0 : recent * 1e9 / elapsed;
+    }
+
+    /**
+     * @return the number of events dispatched by event name, most frequent first
+     */
+    public synchronized Map<String, Long> getCountsByName() {
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 0; id < symbols.size(); id++) {
+            if (nameCounts[id] > 0) {
+                ids.add(id);
+            }
+        }
+        final long[] counts = nameCounts;
+        Collections.sort(ids, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(counts[b], counts[a]);
+            }
+        });
+        Map<String, Long> byName = new LinkedHashMap<>();
+        for (Integer id : ids) {
+            byName.put(symbols.get(id), nameCounts[id]);
+        }
+        return byName;
+    }
+
+    /**
+     * @param name the event name
+     * @return the mean time, in nanoseconds, taken to dispatch events of that name
+     */
+    public synchronized double getMeanNanos(String name) {
+        Integer id = symbolIds.get(name);
+        return id == null || nameCounts[id] == 0 ? 0 : (double) nameNanos[id] / nameCounts[id];
+    }
+
+    /**
+     * @return a copy of the recent events, oldest first
+     */
+    public synchronized List<Entry> getRecent() {
+        int recent = recentCount();
+        List<Entry> entries = new ArrayList<>(recent);
+        for (long i = events - recent; i < events; i++) {
+            int slot = (int) (i % capacity);
+            entries.add(new Entry(symbols.get(recentNames[slot]), symbols.get(recentTypes[slot]),
+                    recentTargets[slot], recentStarts[slot], recentNanos[slot]));
+        }
+        return entries;
+    }
+
+    private int recentCount() {
+        return (int) Math.min(events, capacity);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d events, mean %.0fns max %dns, recent mean %.0fns at %.0f/s", events, getMeanNanos(),
+                maxNanos, getRecentMeanNanos(), getRecentRate());
+    }
+
+    /**
+     * One of the recent events.
+     */
+    public static final class Entry {
+
+        private final String name;
+        private final String targetType;
+        private final int targetId;
+        private final long startNanos;
+        private final long nanos;
+
+        private Entry(String name, String targetType, int targetId, long startNanos, long nanos) {
+            this.name = name;
+            this.targetType = targetType;
+            this.targetId = targetId;
+            this.startNanos = startNanos;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return the event's name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the class name of the event's target
+         */
+        public String getTargetType() {
+            return targetType;
+        }
+
+        /**
+         * @return the identity hash of the event's target
+         */
+        public int getTargetId() {
+            return targetId;
+        }
+
+        /**
+         * @return when dispatch started, as {@link System#nanoTime()}
+         */
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        /**
+         * @return the time, in nanoseconds, taken to dispatch the event
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return name + " -> " + targetType + "@" + Integer.toHexString(targetId) + " in " + nanos + "ns";
+        }
+    }
+
+}
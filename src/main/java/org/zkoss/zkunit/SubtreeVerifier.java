@@ -0,0 +1,252 @@
+package org.zkoss.zkunit;
+
+import org.hamcrest.Matcher;
+import org.hamcrest.StringDescription;
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zk.ui.HtmlBasedComponent;
+import org.zkoss.zk.ui.HtmlNativeComponent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Checks a component subtree against a {@link ComponentSpec} in a single walk, collecting every mismatch along with
+ * its path in the tree.<br/>
+ * Paths are only rendered for mismatches, so a passing walk costs no more than visiting the components it must.
+ *
+ * @author Sean Connolly
+ */
+final class SubtreeVerifier {
+
+    private static final List<Class<?>> NOTHING_FORBIDDEN = Collections.emptyList();
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+
+    /**
+     * @param pool      the pool to fork large subtrees on, or null to walk serially
+     * @param threshold the number of children at which a component's children are walked in parallel
+     */
+    SubtreeVerifier(ForkJoinPool pool, int threshold) {
+        this.pool = pool;
+        this.threshold = Math.max(1, threshold);
+    }
+
+    /**
+     * @param root the root of the subtree under assertion
+     * @param spec the specification of the root
+     * @return a description of every mismatch, in tree order
+     */
+    List<String> verify(Component root, ComponentSpec spec) {
+        List<Component> roots = Collections.singletonList(root);
+        List<ComponentSpec> specs = Collections.singletonList(spec);
+        if (pool == null) {
+            List<String> mismatches = new ArrayList<>();
+            walk(root, specs, NOTHING_FORBIDDEN, new Path(null, root, -1), mismatches);
+            return mismatches;
+        }
+        return pool.invoke(new ChildrenTask(roots, 0, 1, Collections.singletonList(specs), NOTHING_FORBIDDEN, null));
+    }
+
+    private void walk(Component component, List<ComponentSpec> specs, List<Class<?>> forbidden, Path path,
+                      List<String> mismatches) {
+        for (Class<?> type : forbidden) {
+            if (type.isInstance(component)) {
+                mismatches.add(path + ": should not be a " + type.getSimpleName());
+            }
+        }
+        for (ComponentSpec spec : specs) {
+            check(component, spec, path, mismatches);
+        }
+        List<Class<?>> childForbidden = forbidden;
+        for (ComponentSpec spec : specs) {
+            if (!spec.forbiddenDescendants.isEmpty()) {
+                if (childForbidden == forbidden) {
+                    childForbidden = new ArrayList<>(forbidden);
+                }
+                childForbidden.addAll(spec.forbiddenDescendants);
+            }
+        }
+        List<Component> children = component.getChildren();
+        if (children.isEmpty()) {
+            return;
+        }
+        List<List<ComponentSpec>> childSpecs = specsPerChild(specs, children);
+        if (childSpecs == null && childForbidden.isEmpty()) {
+            return;
+        }
+        if (pool != null && children.size() >= threshold) {
+            List<Component> snapshot = new ArrayList<>(children);
+            mismatches.addAll(new ChildrenTask(snapshot, 0, snapshot.size(), childSpecs, childForbidden, path)
+                    .invoke());
+        } else {
+            walkChildren(children, 0, children.size(), childSpecs, childForbidden, path, mismatches);
+        }
+    }
+
+    private void walkChildren(List<Component> children, int from, int to, List<List<ComponentSpec>> childSpecs,
+                              List<Class<?>> forbidden, Path parent, List<String> mismatches) {
+        for (int i = from; i < to; i++) {
+            List<ComponentSpec> specs = childSpecs == null
+                    ? Collections.<ComponentSpec>emptyList()
+                    : childSpecs.get(i);
+            Component child = children.get(i);
+            walk(child, specs, forbidden, new Path(parent, child, parent == null ? -1 : i), mismatches);
+        }
+    }
+
+    /**
+     * @return the specifications for each child, or null if no child has any
+     */
+    private static List<List<ComponentSpec>> specsPerChild(List<ComponentSpec> specs, List<Component> children) {
+        List<List<ComponentSpec>> perChild = null;
+        for (ComponentSpec spec : specs) {
+            if (spec.allChildren == null && spec.children.isEmpty()) {
+                continue;
+            }
+            if (perChild == null) {
+                perChild = new ArrayList<>(children.size());
+                for (int i = 0; i < children.size(); i++) {
+                    perChild.add(new ArrayList<ComponentSpec>(1));
+                }
+            }
+            for (int i = 0; i < children.size(); i++) {
+                if (spec.allChildren != null) {
+                    perChild.get(i).add(spec.allChildren);
+                }
+                ComponentSpec childSpec = spec.children.get(i);
+                if (childSpec != null) {
+                    perChild.get(i).add(childSpec);
+                }
+            }
+        }
+        return perChild;
+    }
+
+    private static void check(Component component, ComponentSpec spec, Path path, List<String> mismatches) {
+        if (!spec.type.isInstance(component)) {
+            mismatches.add(path + ": expected a " + spec.type.getSimpleName() + ", found a "
+                    + component.getClass().getSimpleName());
+            return;
+        }
+        if (spec.nativeTag != null) {
+            String tag = ((HtmlNativeComponent) component).getTag();
+            if (!spec.nativeTag.equals(tag)) {
+                mismatches.add(path + ": expected <" + spec.nativeTag + ">, found <" + tag + ">");
+            }
+        }
+        if (spec.sclass != null || spec.style != null) {
+            if (!(component instanceof HtmlBasedComponent)) {
+                mismatches.add(path + ": expected an HtmlBasedComponent to check style against");
+            } else {
+                HtmlBasedComponent html = (HtmlBasedComponent) component;
+                if (spec.sclass != null && !spec.sclass.equals(html.getSclass())) {
+                    mismatches.add(path + ": expected sclass '" + spec.sclass + "', found '" + html.getSclass() + "'");
+                }
+                if (spec.style != null && !spec.style.equals(html.getStyle())) {
+                    mismatches.add(path + ": expected style '" + spec.style + "', found '" + html.getStyle() + "'");
+                }
+            }
+        }
+        int childCount = component.getChildren().size();
+        if (spec.childCount != null && spec.childCount != childCount) {
+            mismatches.add(path + ": expected " + spec.childCount + " children, found " + childCount);
+        }
+        for (Map.Entry<Integer, ComponentSpec> child : spec.children.entrySet()) {
+            if (child.getKey() >= childCount) {
+                mismatches.add(path + ": expected a child at index " + child.getKey() + ", found " + childCount
+                        + " children");
+            }
+        }
+        for (String eventName : spec.eventListeners) {
+            if (!component.getEventListeners(eventName).iterator().hasNext()) {
+                mismatches.add(path + ": expected '" + eventName + "' event registered");
+            }
+        }
+        for (Matcher<? super Component> matcher : spec.matchers) {
+            if (!matcher.matches(component)) {
+                StringDescription description = new StringDescription();
+                description.appendText(path + ": expected ").appendDescriptionOf(matcher).appendText(", but ");
+                matcher.describeMismatch(component, description);
+                mismatches.add(description.toString());
+            }
+        }
+    }
+
+    /**
+     * Walks a range of sibling components, splitting the range across the pool until it is small enough.
+     */
+    private final class ChildrenTask extends RecursiveTask<List<String>> {
+
+        private final List<Component> children;
+        private final int from;
+        private final int to;
+        private final List<List<ComponentSpec>> childSpecs;
+        private final List<Class<?>> forbidden;
+        private final Path parent;
+
+        private ChildrenTask(List<Component> children, int from, int to, List<List<ComponentSpec>> childSpecs,
+                             List<Class<?>> forbidden, Path parent) {
+            this.children = children;
+            this.from = from;
+            this.to = to;
+            this.childSpecs = childSpecs;
+            this.forbidden = forbidden;
+            this.parent = parent;
+        }
+
+        @Override
+        protected List<String> compute() {
+            if (to - from <= threshold) {
+                List<String> mismatches = new ArrayList<>();
+                walkChildren(children, from, to, childSpecs, forbidden, parent, mismatches);
+                return mismatches;
+            }
+            int middle = (from + to) >>> 1;
+            ChildrenTask left = new ChildrenTask(children, from, middle, childSpecs, forbidden, parent);
+            ChildrenTask right = new ChildrenTask(children, middle, to, childSpecs, forbidden, parent);
+            left.fork();
+            List<String> mismatches = new ArrayList<>(right.compute());
+            mismatches.addAll(0, left.join());
+            return mismatches;
+        }
+    }
+
+    /**
+     * A component's position in the tree, only rendered to a String when there is a mismatch to report.
+     */
+    private static final class Path {
+
+        private final Path parent;
+        private final Component component;
+        private final int index;
+
+        private Path(Path parent, Component component, int index) {
+            this.parent = parent;
+            this.component = component;
+            this.index = index;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            if (parent != null) {
+                builder.append(parent).append('/');
+            }
+            builder.append(component.getClass().getSimpleName());
+            if (index >= 0) {
+                builder.append('[').append(index).append(']');
+            }
+            String id = component.getId();
+            if (id != null && !id.isEmpty()) {
+                builder.append('#').append(id);
+            }
+            return builder.toString();
+        }
+    }
+
+}
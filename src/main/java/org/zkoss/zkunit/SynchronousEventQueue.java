@@ -4,48 +4,165 @@ import org.zkoss.zk.ui.event.Event;
 import org.zkoss.zk.ui.event.EventListener;
 import org.zkoss.zk.ui.event.EventQueue;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * A synchronous {@link org.zkoss.zk.ui.event.EventQueue} for testing purposes.<br/>
  * Listeners and callbacks are executed immediately and synchronously when an {@link org.zkoss.zk.ui.event.Event} is
- * published.
+ * published.<br/>
+ * Listeners may subscribe, unsubscribe and publish from any thread, even while an event is being published.
  *
  * @author Sean Connolly
  */
 public class SynchronousEventQueue<T extends Event> implements EventQueue<T> {
 
-	private final Map<EventListener<T>, EventListener<T>> subscriptions = new HashMap<>();
+	/**
+	 * Stands in for a missing callback, as a {@link ConcurrentHashMap} cannot hold null values.
+	 */
+	@SuppressWarnings("rawtypes")
+	private static final EventListener NO_CALLBACK = new EventListener() {
+		@Override
+		public void onEvent(Event event) {
+			// do nothing
+		}
+	};
+
+	private final ConcurrentMap<EventListener<T>, EventListener<T>> subscriptions = new ConcurrentHashMap<>();
+
+	private ForkJoinPool pool;
+	private int parallelThreshold;
 
 	@Override
 	public void publish(T event) {
+		publishAll(Collections.singletonList(event));
+	}
+
+	/**
+	 * Publish a batch of events, handing each subscriber the whole batch in one pass.<br/>
+	 * Each subscriber (and its callback) receives the events in order, but unlike calling {@link #publish(Event)} for
+	 * each event, every event is delivered to one subscriber before any are delivered to the next.
+	 *
+	 * @param events the events to publish
+	 */
+	public void publishAll(Collection<T> events) {
+		if(events.isEmpty() || subscriptions.isEmpty()) {
+			return;
+		}
+		if(pool != null && subscriptions.size() >= parallelThreshold) {
+			publishInParallel(events);
+			return;
+		}
 		try {
-			for(EventListener<T> listener : subscriptions.keySet()) {
+			for(Map.Entry<EventListener<T>, EventListener<T>> subscription : subscriptions.entrySet()) {
+				deliver(subscription.getKey(), subscription.getValue(), events);
+			}
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Fan events out to the subscribers in parallel, splitting the subscribers across the given pool, whenever there
+	 * are at least {@code threshold} subscribers. Each subscriber still receives the events in order, and {@link
+	 * #publish(Event)} still returns only once every subscriber has received them.<br/>
+	 * Listeners must then be safe to call from the pool's threads. Listeners which subscribe while an event is being
+	 * published in parallel receive it from the next publish on.
+	 *
+	 * @param pool      the pool to fan out on, or null to always fan out serially
+	 * @param threshold the minimum number of subscribers for which to fan out in parallel
+	 */
+	public void setParallelFanOut(ForkJoinPool pool, int threshold) {
+		this.pool = pool;
+		this.parallelThreshold = threshold;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void publishInParallel(Collection<T> events) {
+		Map.Entry<EventListener<T>, EventListener<T>>[] snapshot = subscriptions.entrySet().toArray(new Map.Entry[0]);
+		int leafSize = Math.max(1, snapshot.length / (pool.getParallelism() * 4));
+		pool.invoke(new FanOut<>(snapshot, 0, snapshot.length, leafSize, events));
+	}
+
+	private static <T extends Event> void deliver(EventListener<T> listener, EventListener<T> callback,
+			Collection<T> events) throws Exception {
+		EventProfiler profiler = EventProfiler.current();
+		for(T event : events) {
+			if(profiler != null) {
+				profiler.enter(event);
+			}
+			try {
 				listener.onEvent(event);
-				EventListener<T> callback = subscriptions.get(listener);
-				if(callback != null) {
+				if(callback != NO_CALLBACK) {
 					callback.onEvent(event);
 				}
+			} finally {
+				if(profiler != null) {
+					profiler.exit();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Delivers the events to a contiguous range of subscribers, splitting the range until it is small enough.
+	 */
+	private static final class FanOut<T extends Event> extends RecursiveAction {
+
+		private final Map.Entry<EventListener<T>, EventListener<T>>[] subscriptions;
+		private final int from;
+		private final int to;
+		private final int leafSize;
+		private final Collection<T> events;
+
+		private FanOut(Map.Entry<EventListener<T>, EventListener<T>>[] subscriptions, int from, int to, int leafSize,
+				Collection<T> events) {
+			this.subscriptions = subscriptions;
+			this.from = from;
+			this.to = to;
+			this.leafSize = leafSize;
+			this.events = events;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= leafSize) {
+				try {
+					for(int i = from; i < to; i++) {
+						deliver(subscriptions[i].getKey(), subscriptions[i].getValue(), events);
+					}
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new FanOut<>(subscriptions, from, middle, leafSize, events),
+						new FanOut<>(subscriptions, middle, to, leafSize, events));
 			}
-		} catch (Exception e) {
-			throw new RuntimeException(e);
 		}
 	}
 
 	@Override
 	public void subscribe(EventListener<T> listener) {
-		subscriptions.put(listener, null);
+		subscribe(listener, (EventListener<T>) null);
 	}
 
 	@Override
+	@SuppressWarnings("unchecked")
 	public void subscribe(EventListener<T> listener, EventListener<T> callback) {
-		subscriptions.put(listener, callback);
+		subscriptions.put(listener, callback != null ? callback : NO_CALLBACK);
 	}
 
 	@Override
 	public void subscribe(EventListener<T> listener, boolean async) {
-		subscriptions.put(listener, null);
+		subscribe(listener, (EventListener<T>) null);
 	}
 
 	@Override
@@ -59,6 +176,27 @@ public class SynchronousEventQueue<T extends Event> implements EventQueue<T> {
 		return subscriptions.containsKey(listener);
 	}
 
+	/**
+	 * @return the number of listeners currently subscribed
+	 */
+	int getSubscriberCount() {
+		return subscriptions.size();
+	}
+
+	/**
+	 * @return every listener and callback currently subscribed
+	 */
+	List<EventListener<T>> getListeners() {
+		List<EventListener<T>> listeners = new ArrayList<>(subscriptions.size());
+		for(Map.Entry<EventListener<T>, EventListener<T>> subscription : subscriptions.entrySet()) {
+			listeners.add(subscription.getKey());
+			if(subscription.getValue() != NO_CALLBACK) {
+				listeners.add(subscription.getValue());
+			}
+		}
+		return listeners;
+	}
+
 	@Override
 	public void close() {
 		// do nothing
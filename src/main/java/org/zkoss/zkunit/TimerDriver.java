@@ -0,0 +1,249 @@
+package org.zkoss.zkunit;
+
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zul.Timer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Drives the {@link Timer} components of a component tree against a virtual clock.<br/>
+ * In a live ZK environment the client fires {@code onTimer} events as real time passes. In a unit test there is no
+ * client, so instead we advance a virtual clock and fire {@code onTimer} on every running timer which comes due,
+ * respecting each timer's delay, repeats and running state. An hour of refreshes takes as long as the listeners do.
+ * <p>
+ * The tree is rescanned between ticks, so timers added, removed, started or stopped by listeners are picked up.
+ * Events are dispatched just as the mocked {@link Events} do in a {@link ZKTest}.
+ * </p>
+ *
+ * @author Sean Connolly
+ */
+public class TimerDriver {
+
+    private final Component root;
+    private final Map<Timer, Long> schedule = new LinkedHashMap<>();
+    private long now = 0;
+
+    /**
+     * @param root the component tree containing the timers to drive, may itself be a timer
+     */
+    public TimerDriver(Component root) {
+        this.root = root;
+    }
+
+    /**
+     * @return the current virtual time, in milliseconds since this driver was created
+     */
+    public long getTime() {
+        return now;
+    }
+
+    /**
+     * Advance the virtual clock, firing {@code onTimer} on every timer which comes due in the meantime.<br/>
+     * Timers which come due at the same virtual time are fired together, in tree order, as a single tick.
+     *
+     * @param millis the number of virtual milliseconds to advance
+     * @return a report of the work done on each tick
+     */
+    public TimerReport advance(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("cannot advance the clock backwards: " + millis);
+        }
+        long end = now + millis;
+        List<Tick> ticks = new ArrayList<>();
+        while (true) {
+            synchronize();
+            long next = nextFireTime();
+            if (next > end) {
+                break;
+            }
+            now = next;
+            ticks.add(fire());
+        }
+        now = end;
+        return new TimerReport(ticks);
+    }
+
+    private Tick fire() {
+        long start = System.nanoTime();
+        int fired = 0;
+        int listeners = 0;
+        List<Timer> due = new ArrayList<>();
+        for (Map.Entry<Timer, Long> entry : schedule.entrySet()) {
+            if (entry.getValue() == now) {
+                due.add(entry.getKey());
+            }
+        }
+        for (Timer timer : due) {
+            // an earlier listener this tick may have stopped it
+            if (!timer.isRunning()) {
+                schedule.remove(timer);
+                continue;
+            }
+            if (timer.isRepeats()) {
+                schedule.put(timer, now + delayOf(timer));
+            } else {
+                // as Timer.service does when the client reports a one-shot timer has fired
+                timer.setRunning(false);
+                schedule.remove(timer);
+            }
+            listeners += EventDispatcher.dispatch(new Event(Events.ON_TIMER, timer));
+            fired++;
+        }
+        return new Tick(now, fired, listeners, System.nanoTime() - start);
+    }
+
+    private void synchronize() {
+        Set<Timer> timers = new LinkedHashSet<>();
+        collectTimers(root, timers);
+        Iterator<Timer> scheduled = schedule.keySet().iterator();
+        while (scheduled.hasNext()) {
+            Timer timer = scheduled.next();
+            if (!timer.isRunning() || !timers.contains(timer)) {
+                scheduled.remove();
+            }
+        }
+        for (Timer timer : timers) {
+            if (timer.isRunning() && !schedule.containsKey(timer)) {
+                schedule.put(timer, now + delayOf(timer));
+            }
+        }
+    }
+
+    private long nextFireTime() {
+        long next = Long.MAX_VALUE;
+        for (long time : schedule.values()) {
+            next = Math.min(next, time);
+        }
+        return next;
+    }
+
+    private static void collectTimers(Component component, Set<Timer> timers) {
+        if (component instanceof Timer) {
+            timers.add((Timer) component);
+        }
+        for (Component child : component.getChildren()) {
+            collectTimers(child, timers);
+        }
+    }
+
+    /**
+     * A timer with no delay would fire forever without the clock moving, so we never let the clock stand still.
+     */
+    private static long delayOf(Timer timer) {
+        return Math.max(1, timer.getDelay());
+    }
+
+    /**
+     * The work done when the virtual clock reached a moment at which one or more timers came due.
+     */
+    public static class Tick {
+
+        private final long time;
+        private final int timersFired;
+        private final int listenersInvoked;
+        private final long elapsedNanos;
+
+        Tick(long time, int timersFired, int listenersInvoked, long elapsedNanos) {
+            this.time = time;
+            this.timersFired = timersFired;
+            this.listenersInvoked = listenersInvoked;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return the virtual time of the tick, in milliseconds
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return the number of {@code onTimer} events fired
+         */
+        public int getTimersFired() {
+            return timersFired;
+        }
+
+        /**
+         * @return the number of event listeners invoked by the fired events
+         */
+        public int getListenersInvoked() {
+            return listenersInvoked;
+        }
+
+        /**
+         * @return the real time spent in the event listeners, in nanoseconds
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Tick@" + time + "ms[timers=" + timersFired + ", listeners=" + listenersInvoked + ", "
+                    + elapsedNanos + "ns]";
+        }
+    }
+
+    /**
+     * The ticks which occurred during a single {@link TimerDriver#advance(long)}.
+     */
+    public static class TimerReport {
+
+        private final List<Tick> ticks;
+
+        TimerReport(List<Tick> ticks) {
+            this.ticks = Collections.unmodifiableList(ticks);
+        }
+
+        /**
+         * @return every tick, in the order they occurred
+         */
+        public List<Tick> getTicks() {
+            return ticks;
+        }
+
+        /**
+         * @return the total number of {@code onTimer} events fired
+         */
+        public int getTimersFired() {
+            int total = 0;
+            for (Tick tick : ticks) {
+                total += tick.getTimersFired();
+            }
+            return total;
+        }
+
+        /**
+         * @return the total number of event listeners invoked
+         */
+        public int getListenersInvoked() {
+            int total = 0;
+            for (Tick tick : ticks) {
+                total += tick.getListenersInvoked();
+            }
+            return total;
+        }
+
+        /**
+         * @return the total real time spent in the event listeners, in nanoseconds
+         */
+        public long getElapsedNanos() {
+            long total = 0;
+            for (Tick tick : ticks) {
+                total += tick.getElapsedNanos();
+            }
+            return total;
+        }
+    }
+
+}
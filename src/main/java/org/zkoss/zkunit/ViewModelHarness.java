@@ -0,0 +1,617 @@
+package org.zkoss.zkunit;
+
+import org.zkoss.bind.annotation.BindingParam;
+import org.zkoss.bind.annotation.Command;
+import org.zkoss.bind.annotation.GlobalCommand;
+import org.zkoss.bind.annotation.Init;
+import org.zkoss.bind.annotation.NotifyChange;
+import org.zkoss.lang.Classes;
+import org.zkoss.zk.ui.Component;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import static org.junit.Assert.fail;
+
+/**
+ * A test harness for MVVM ViewModels, binding a ViewModel to a component tree without a ZK container.<br/>
+ * In a live ZK environment the {@link org.zkoss.bind.BindComposer} binds component properties to ViewModel
+ * properties, invokes {@code @Command} methods and re-evaluates bindings whenever a property is notified as changed.
+ * Here the bindings are declared in Java instead of ZUL, and every notification is traced along with the binding
+ * re-evaluations and component updates it triggers, so tests can assert that a command only updates what it should.
+ * <p>
+ * For example, the ZUL {@code <label value="@load(vm.cart.total)"/>} becomes:
+ * <pre>
+ * ViewModelHarness&lt;CartViewModel&gt; harness = new ViewModelHarness&lt;&gt;(new CartViewModel());
+ * harness.load(totalLabel, "value", "cart.total");
+ * ViewModelHarness.CommandTrace trace = harness.command("checkout");
+ * trace.assertReevaluationsAtMost(1);
+ * </pre>
+ * </p>
+ * <p>
+ * In a {@link ZKTest}, calls to {@link org.zkoss.bind.BindUtils#postNotifyChange(String, String, Object, String)}
+ * and {@link org.zkoss.bind.BindUtils#postGlobalCommand(String, String, String, Map)} are routed to every open harness.
+ * </p>
+ *
+ * @author Sean Connolly
+ */
+public class ViewModelHarness<VM> {
+
+    private static final Set<ViewModelHarness<?>> OPEN =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<ViewModelHarness<?>, Boolean>()));
+
+    private final VM viewModel;
+    private final List<Binding> bindings = new ArrayList<>();
+    private final List<CommandTrace> traces = new ArrayList<>();
+    private CommandTrace current;
+
+    /**
+     * Create a harness for the ViewModel, invoking its {@code @Init} method.
+     *
+     * @param viewModel the ViewModel under test
+     */
+    public ViewModelHarness(VM viewModel) {
+        this.viewModel = viewModel;
+        init(viewModel.getClass());
+        OPEN.add(this);
+    }
+
+    /**
+     * @return the ViewModel under test
+     */
+    public VM getViewModel() {
+        return viewModel;
+    }
+
+    /**
+     * Bind a component property to a ViewModel property, as {@code @load(vm.path)} does. The component is loaded
+     * immediately and again whenever the property, or any property along its path, is notified as changed.
+     *
+     * @param component the component to load into
+     * @param property  the component's property, e.g. {@code value}
+     * @param path      the ViewModel property path, e.g. {@code cart.total} or {@code rows[3].name}
+     * @return this harness
+     */
+    public ViewModelHarness<VM> load(Component component, String property, String path) {
+        Binding binding = new Binding(component, property, path, false);
+        bindings.add(binding);
+        reevaluate(binding);
+        return this;
+    }
+
+    /**
+     * Bind a component property to a ViewModel property in both directions, as {@code @bind(vm.path)} does. As well
+     * as being loaded, the component's value is saved to the ViewModel before each command.
+     *
+     * @param component the component to load into and save from
+     * @param property  the component's property, e.g. {@code value}
+     * @param path      the ViewModel property path
+     * @return this harness
+     */
+    public ViewModelHarness<VM> bind(Component component, String property, String path) {
+        Binding binding = new Binding(component, property, path, true);
+        bindings.add(binding);
+        reevaluate(binding);
+        return this;
+    }
+
+    /**
+     * Execute a command with no arguments.
+     *
+     * @param name the name of the command
+     * @return the trace of the notifications the command caused
+     */
+    public CommandTrace command(String name) {
+        return command(name, Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * Execute a command as the binder would: save the two-way bindings, invoke the {@code @Command} method, then
+     * process its {@code @NotifyChange} and any {@code BindUtils.postNotifyChange} it made.
+     *
+     * @param name the name of the command
+     * @param args the arguments for the command's {@code @BindingParam} parameters
+     * @return the trace of the notifications the command caused
+     */
+    public CommandTrace command(String name, Map<String, Object> args) {
+        Method method = findCommand(Command.class, name);
+        if (method == null) {
+            fail("no @Command '" + name + "' on " + viewModel.getClass().getName());
+        }
+        return execute(name, method, args);
+    }
+
+    /**
+     * Execute a global command, if the ViewModel has a {@code @GlobalCommand} of the given name.
+     *
+     * @param name the name of the global command
+     * @param args the arguments for the command's {@code @BindingParam} parameters
+     * @return the trace of the notifications the command caused, or null if the ViewModel doesn't handle it
+     */
+    public CommandTrace globalCommand(String name, Map<String, Object> args) {
+        Method method = findCommand(GlobalCommand.class, name);
+        return method == null ? null : execute(name, method, args);
+    }
+
+    /**
+     * Notify that a property has changed, as {@code BindUtils.postNotifyChange} does, re-evaluating every binding whose
+     * path passes through that property of that bean.
+     *
+     * @param bean     the bean whose property changed, {@code *} on the ViewModel notifies every binding
+     * @param property the property which changed, or {@code *} for all of the bean's properties
+     */
+    public void notifyChange(Object bean, String property) {
+        if (current != null) {
+            current.pending.add(new Notification(bean, property, "BindUtils.postNotifyChange"));
+        } else {
+            CommandTrace trace = new CommandTrace(null);
+            traces.add(trace);
+            process(trace, new Notification(bean, property, "BindUtils.postNotifyChange"));
+        }
+    }
+
+    /**
+     * @return the traces of every command executed, and notification made outside a command, in order
+     */
+    public List<CommandTrace> getTraces() {
+        return Collections.unmodifiableList(traces);
+    }
+
+    /**
+     * Stop routing {@code BindUtils} calls to this harness.
+     */
+    public void close() {
+        OPEN.remove(this);
+    }
+
+    static void postNotifyChange(Object bean, String property) {
+        for (ViewModelHarness<?> harness : openHarnesses()) {
+            harness.notifyChange(bean, property);
+        }
+    }
+
+    static void postGlobalCommand(String name, Map<String, Object> args) {
+        Map<String, Object> safeArgs = args == null ? Collections.<String, Object>emptyMap() : args;
+        for (ViewModelHarness<?> harness : openHarnesses()) {
+            harness.globalCommand(name, safeArgs);
+        }
+    }
+
+    private static List<ViewModelHarness<?>> openHarnesses() {
+        synchronized (OPEN) {
+            return new ArrayList<>(OPEN);
+        }
+    }
+
+    private CommandTrace execute(String name, Method method, Map<String, Object> args) {
+        CommandTrace trace = new CommandTrace(name);
+        traces.add(trace);
+        CommandTrace outer = current;
+        current = trace;
+        try {
+            for (Binding binding : bindings) {
+                if (binding.twoWay) {
+                    save(binding);
+                }
+            }
+            invoke(method, arguments(method, args));
+            NotifyChange notifyChange = method.getAnnotation(NotifyChange.class);
+            if (notifyChange != null) {
+                for (String property : notifyChange.value()) {
+                    trace.pending.add(new Notification(viewModel, property, "@NotifyChange"));
+                }
+            }
+        } finally {
+            current = outer;
+        }
+        while (!trace.pending.isEmpty()) {
+            process(trace, trace.pending.remove(0));
+        }
+        return trace;
+    }
+
+    private void process(CommandTrace trace, Notification notification) {
+        trace.notifications.add(notification);
+        String property = ".".equals(notification.property) ? "*" : notification.property;
+        for (Binding binding : bindings) {
+            if (binding.dependsOn(viewModel, notification.bean, property)) {
+                trace.reevaluations++;
+                if (reevaluate(binding)) {
+                    trace.componentUpdates++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the component was updated
+     */
+    private boolean reevaluate(Binding binding) {
+        Object value = Properties.coerce(binding.component, binding.property, binding.evaluate(viewModel));
+        Object shown = Properties.get(binding.component, binding.property);
+        if (value == null ? shown == null : value.equals(shown)) {
+            return false;
+        }
+        Properties.set(binding.component, binding.property, value);
+        return true;
+    }
+
+    private void save(Binding binding) {
+        Object value = Properties.get(binding.component, binding.property);
+        Object bean = binding.evaluateBase(viewModel);
+        String last = binding.segments[binding.segments.length - 1];
+        if (bean == null || Properties.isIndexed(last)) {
+            return;
+        }
+        Object saved = Properties.get(bean, last);
+        if (value == null ? saved == null : value.equals(saved)) {
+            return;
+        }
+        Method setter = Properties.set(bean, last, value);
+        NotifyChange notifyChange = setter == null ? null : setter.getAnnotation(NotifyChange.class);
+        if (notifyChange != null) {
+            String[] properties = notifyChange.value().length == 0 ? new String[]{last} : notifyChange.value();
+            for (String property : properties) {
+                current.pending.add(new Notification(bean, property, "@NotifyChange on save"));
+            }
+        }
+    }
+
+    private void init(Class<?> type) {
+        for (Class<?> cls = type; cls != null && cls != Object.class; cls = cls.getSuperclass()) {
+            for (Method method : cls.getDeclaredMethods()) {
+                Init init = method.getAnnotation(Init.class);
+                if (init != null) {
+                    if (init.superclass()) {
+                        init(cls.getSuperclass());
+                    }
+                    invoke(method, arguments(method, Collections.<String, Object>emptyMap()));
+                    return;
+                }
+            }
+        }
+    }
+
+    private Method findCommand(Class<? extends Annotation> annotation, String name) {
+        for (Method method : viewModel.getClass().getMethods()) {
+            Annotation command = method.getAnnotation(annotation);
+            if (command == null) {
+                continue;
+            }
+            String[] names = command instanceof Command
+                    ? ((Command) command).value()
+                    : ((GlobalCommand) command).value();
+            if (names.length == 0 ? method.getName().equals(name) : Arrays.asList(names).contains(name)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private static Object[] arguments(Method method, Map<String, Object> args) {
+        Class<?>[] types = method.getParameterTypes();
+        Annotation[][] annotations = method.getParameterAnnotations();
+        Object[] values = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            Object arg = null;
+            for (Annotation annotation : annotations[i]) {
+                if (annotation instanceof BindingParam) {
+                    arg = args.get(((BindingParam) annotation).value());
+                }
+            }
+            values[i] = arg == null && !types[i].isPrimitive() ? null : Classes.coerce(types[i], arg);
+        }
+        return values;
+    }
+
+    private void invoke(Method method, Object[] args) {
+        try {
+            method.setAccessible(true);
+            method.invoke(viewModel, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * A binding between a component property and a ViewModel property path.
+     */
+    private static final class Binding {
+
+        private final Component component;
+        private final String property;
+        private final String[] segments;
+        private final boolean twoWay;
+
+        private Binding(Component component, String property, String path, boolean twoWay) {
+            this.component = component;
+            this.property = property;
+            this.segments = path.split("\\.");
+            this.twoWay = twoWay;
+        }
+
+        private Object evaluate(Object viewModel) {
+            Object value = evaluateBase(viewModel);
+            return value == null ? null : Properties.get(value, segments[segments.length - 1]);
+        }
+
+        private Object evaluateBase(Object viewModel) {
+            Object value = viewModel;
+            for (int i = 0; i < segments.length - 1 && value != null; i++) {
+                value = Properties.get(value, segments[i]);
+            }
+            return value;
+        }
+
+        /**
+         * A binding depends on a property of a bean if the bean appears along its path, followed by the property.
+         */
+        private boolean dependsOn(Object viewModel, Object bean, String changed) {
+            Object value = viewModel;
+            for (String segment : segments) {
+                if (value == null) {
+                    return false;
+                }
+                if (value == bean && ("*".equals(changed) || Properties.nameOf(segment).equals(changed))) {
+                    return true;
+                }
+                value = Properties.get(value, segment);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A property change notification, as made by {@code @NotifyChange} or {@code BindUtils.postNotifyChange}.
+     */
+    public static class Notification {
+
+        private final Object bean;
+        private final String property;
+        private final String source;
+
+        Notification(Object bean, String property, String source) {
+            this.bean = bean;
+            this.property = property;
+            this.source = source;
+        }
+
+        /**
+         * @return the bean whose property was notified as changed
+         */
+        public Object getBean() {
+            return bean;
+        }
+
+        /**
+         * @return the property notified as changed
+         */
+        public String getProperty() {
+            return property;
+        }
+
+        /**
+         * @return what made the notification, e.g. {@code @NotifyChange} or {@code BindUtils.postNotifyChange}
+         */
+        public String getSource() {
+            return source;
+        }
+
+        @Override
+        public String toString() {
+            return source + "(" + bean.getClass().getSimpleName() + "." + property + ")";
+        }
+    }
+
+    /**
+     * The notifications caused by a single command and the work they triggered.
+     */
+    public static class CommandTrace {
+
+        private final String command;
+        private final List<Notification> notifications = new ArrayList<>();
+        private final List<Notification> pending = new ArrayList<>();
+        private int reevaluations = 0;
+        private int componentUpdates = 0;
+
+        CommandTrace(String command) {
+            this.command = command;
+        }
+
+        /**
+         * @return the name of the command, or null for a notification made outside any command
+         */
+        public String getCommand() {
+            return command;
+        }
+
+        /**
+         * @return every notification processed, in order
+         */
+        public List<Notification> getNotifications() {
+            return Collections.unmodifiableList(notifications);
+        }
+
+        /**
+         * @return the distinct properties notified, as {@code Bean.property}
+         */
+        public Set<String> getNotifiedProperties() {
+            Set<String> properties = new LinkedHashSet<>();
+            for (Notification notification : notifications) {
+                properties.add(notification.bean.getClass().getSimpleName() + "." + notification.property);
+            }
+            return properties;
+        }
+
+        /**
+         * @return the number of bindings re-evaluated
+         */
+        public int getReevaluations() {
+            return reevaluations;
+        }
+
+        /**
+         * @return the number of component properties actually changed by re-evaluated bindings
+         */
+        public int getComponentUpdates() {
+            return componentUpdates;
+        }
+
+        /**
+         * @param max the most notifications the command should cause
+         */
+        public void assertNotificationsAtMost(int max) {
+            if (notifications.size() > max) {
+                fail("expected at most " + max + " notifications from " + this + ": " + notifications);
+            }
+        }
+
+        /**
+         * @param max the most binding re-evaluations the command should cause
+         */
+        public void assertReevaluationsAtMost(int max) {
+            if (reevaluations > max) {
+                fail("expected at most " + max + " binding re-evaluations from " + this);
+            }
+        }
+
+        /**
+         * @param max the most component updates the command should cause
+         */
+        public void assertComponentUpdatesAtMost(int max) {
+            if (componentUpdates > max) {
+                fail("expected at most " + max + " component updates from " + this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "CommandTrace[" + (command == null ? "notifyChange" : command) + ", notifications="
+                    + notifications.size() + ", reevaluations=" + reevaluations + ", updates=" + componentUpdates + "]";
+        }
+    }
+
+    /**
+     * Reads and writes bean properties by name, where a path segment may index a List or array, e.g. {@code rows[3]}.
+     */
+    private static final class Properties {
+
+        private Properties() {
+            // static utility
+        }
+
+        private static boolean isIndexed(String segment) {
+            return segment.indexOf('[') >= 0;
+        }
+
+        private static String nameOf(String segment) {
+            int bracket = segment.indexOf('[');
+            return bracket < 0 ? segment : segment.substring(0, bracket);
+        }
+
+        private static Object get(Object bean, String segment) {
+            String name = nameOf(segment);
+            Object value;
+            if (bean instanceof Map) {
+                value = ((Map<?, ?>) bean).get(name);
+            } else {
+                Method getter = accessor(bean.getClass(), name, 0);
+                if (getter == null) {
+                    throw new IllegalArgumentException("no property '" + name + "' on " + bean.getClass().getName());
+                }
+                value = call(getter, bean);
+            }
+            int bracket = segment.indexOf('[');
+            while (bracket >= 0 && value != null) {
+                int close = segment.indexOf(']', bracket);
+                int index = Integer.parseInt(segment.substring(bracket + 1, close).trim());
+                if (value instanceof List) {
+                    List<?> list = (List<?>) value;
+                    value = index < list.size() ? list.get(index) : null;
+                } else if (value.getClass().isArray()) {
+                    value = index < java.lang.reflect.Array.getLength(value)
+                            ? java.lang.reflect.Array.get(value, index)
+                            : null;
+                } else {
+                    throw new IllegalArgumentException("'" + name + "' can't be indexed, it is a "
+                            + value.getClass().getName());
+                }
+                bracket = segment.indexOf('[', close);
+            }
+            return value;
+        }
+
+        /**
+         * @return the setter invoked, or null if the bean is a Map
+         */
+        @SuppressWarnings("unchecked")
+        private static Method set(Object bean, String name, Object value) {
+            if (bean instanceof Map) {
+                ((Map<String, Object>) bean).put(name, value);
+                return null;
+            }
+            Method setter = accessor(bean.getClass(), name, 1);
+            if (setter == null) {
+                throw new IllegalArgumentException("no setter for '" + name + "' on " + bean.getClass().getName());
+            }
+            call(setter, bean, Classes.coerce(setter.getParameterTypes()[0], value));
+            return setter;
+        }
+
+        /**
+         * @return the value coerced to the type the bean's setter accepts, so it can be compared to what is shown
+         */
+        private static Object coerce(Object bean, String name, Object value) {
+            Method setter = bean instanceof Map ? null : accessor(bean.getClass(), name, 1);
+            return setter == null ? value : Classes.coerce(setter.getParameterTypes()[0], value);
+        }
+
+        private static Method accessor(Class<?> type, String name, int parameters) {
+            String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+            for (Method method : type.getMethods()) {
+                if (method.getParameterTypes().length != parameters) {
+                    continue;
+                }
+                String methodName = method.getName();
+                if (parameters == 1
+                        ? methodName.equals("set" + capitalized)
+                        : methodName.equals("get" + capitalized) || methodName.equals("is" + capitalized)) {
+                    return method;
+                }
+            }
+            return null;
+        }
+
+        private static Object call(Method method, Object bean, Object... args) {
+            try {
+                method.setAccessible(true);
+                return method.invoke(bean, args);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+}
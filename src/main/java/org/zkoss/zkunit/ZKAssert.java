@@ -11,6 +11,8 @@ import org.zkoss.zk.ui.event.Events;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.core.IsInstanceOf.instanceOf;
@@ -22,6 +24,11 @@ import static org.powermock.api.mockito.PowerMockito.verifyStatic;
  * A set of utilities for asserting the state of ZK user interfaces.<br/>
  * ZK's POJO model makes it very easy for us to programmatically build, interact with, and examine user interface
  * components. These utilities handle common such actions.
+ * <p>
+ * Failure messages are only built once an assertion has failed, so passing assertions are cheap even when the
+ * components under assertion are expensive to describe. See {@link ZKAssertions} for a fluent API over the same
+ * assertions.
+ * </p>
  *
  * @author Sean Connolly
  */
@@ -33,7 +40,9 @@ public class ZKAssert {
      * @param component the component under assertion
      */
     public static void assertStubonly(Component component) {
-        assertEquals("true", component.getStubonly());
+        if (!"true".equals(component.getStubonly())) {
+            assertEquals("true", component.getStubonly());
+        }
     }
 
     /**
@@ -44,7 +53,9 @@ public class ZKAssert {
      */
     public static void assertStyle(HtmlBasedComponent component, String expectedStyle) {
         // TODO don't assert equality, but check if the expected style is _one_ of the styles
-        assertEquals(expectedStyle, component.getStyle());
+        if (!equal(expectedStyle, component.getStyle())) {
+            assertEquals(expectedStyle, component.getStyle());
+        }
     }
 
     /**
@@ -55,7 +66,9 @@ public class ZKAssert {
      */
     public static void assertStyleClass(HtmlBasedComponent component, String expectedClass) {
         // TODO don't assert equality, but check if the expected style class is _one_ of the style classes
-        assertEquals(expectedClass, component.getSclass());
+        if (!equal(expectedClass, component.getSclass())) {
+            assertEquals(expectedClass, component.getSclass());
+        }
     }
 
     /**
@@ -65,12 +78,16 @@ public class ZKAssert {
      */
     public static void assertHasNoChildren(Component container) {
         List<Component> children = container.getChildren();
-        assertTrue("expected no children, found: " + children, children.isEmpty());
+        if (!children.isEmpty()) {
+            fail("expected no children, found: " + children);
+        }
     }
 
     public static <T> T assertHasChildOfType(Component container, Class<T> expectedClass) {
         List<Component> children = container.getChildren();
-        assertThat("container should have at least one child", children.size(), greaterThan(0));
+        if (children.isEmpty()) {
+            assertThat("container should have at least one child", children.size(), greaterThan(0));
+        }
         for (Component child : children) {
             if (expectedClass.isInstance(child)) {
                 return expectedClass.cast(child);
@@ -98,7 +115,9 @@ public class ZKAssert {
      */
     public static <T> T assertOnlyChildIsOfType(Component container, Class<T> expectedClass) {
         List<Component> children = container.getChildren();
-        assertEquals("should have one child (" + children + ") ", 1, children.size());
+        if (children.size() != 1) {
+            assertEquals("should have one child (" + children + ") ", 1, children.size());
+        }
         return assertChildIsOfType(container, 0, expectedClass);
     }
 
@@ -126,9 +145,13 @@ public class ZKAssert {
      */
     public static <T> T assertChildIsOfType(Component container, int index, Class<T> expectedClass) {
         List<Component> children = container.getChildren();
-        assertTrue("expected at least " + (index + 1) + " children, found " + children.size(), children.size() > index);
+        if (children.size() <= index) {
+            fail("expected at least " + (index + 1) + " children, found " + children.size());
+        }
         Component child = children.get(index);
-        assertThat("child is of wrong class", child, instanceOf(expectedClass));
+        if (!expectedClass.isInstance(child)) {
+            assertThat("child is of wrong class", child, instanceOf(expectedClass));
+        }
         return expectedClass.cast(child);
     }
 
@@ -144,7 +167,9 @@ public class ZKAssert {
     public static <T> List<T> assertChildrenAreOfType(Component container, Class<T> expectedClass, int expectedCount) {
         List<T> childList = new ArrayList<T>();
         List<Component> children = container.getChildren();
-        assertEquals("container has the incorrect number of children", expectedCount, children.size());
+        if (children.size() != expectedCount) {
+            assertEquals("container has the incorrect number of children", expectedCount, children.size());
+        }
         for (Component nextChild : children) {
             childList.add(expectedClass.cast(nextChild));
         }
@@ -162,7 +187,9 @@ public class ZKAssert {
      */
     public static HtmlNativeComponent assertOnlyChildIsNativeHtmlComponent(Component container, String type) {
         List<Component> children = container.getChildren();
-        assertEquals("container should only have one child", 1, children.size());
+        if (children.size() != 1) {
+            assertEquals("container should only have one child", 1, children.size());
+        }
         Component onlyChild = children.get(0);
         return getNativeHtmlComponent(onlyChild, type);
     }
@@ -180,7 +207,9 @@ public class ZKAssert {
                                                                                   int expectedCount) {
         List<HtmlNativeComponent> childList = new ArrayList<>();
         List<Component> children = container.getChildren();
-        assertEquals("container has the incorrect number of children", expectedCount, children.size());
+        if (children.size() != expectedCount) {
+            assertEquals("container has the incorrect number of children", expectedCount, children.size());
+        }
         for (Component nextChild : children) {
             childList.add(getNativeHtmlComponent(nextChild, type));
         }
@@ -188,11 +217,14 @@ public class ZKAssert {
     }
 
     private static HtmlNativeComponent getNativeHtmlComponent(Component component, String type) {
-        assertTrue("not an HtmlNativeComponent (got " + component.getClass().getSimpleName() + ")",
-                component instanceof HtmlNativeComponent);
+        if (!(component instanceof HtmlNativeComponent)) {
+            fail("not an HtmlNativeComponent (got " + component.getClass().getSimpleName() + ")");
+        }
         HtmlNativeComponent nativeChild = (HtmlNativeComponent) component;
         String tag = nativeChild.getTag();
-        assertEquals("HtmlNativeComponent is not of the type '" + type + "'", type, tag);
+        if (!equal(type, tag)) {
+            assertEquals("HtmlNativeComponent is not of the type '" + type + "'", type, tag);
+        }
         return nativeChild;
     }
 
@@ -205,7 +237,9 @@ public class ZKAssert {
      */
     public static EventListener assertHasEventListener(Component component, String eventName) {
         Iterator<EventListener<?>> listeners = component.getEventListeners(eventName).iterator();
-        assertTrue("expected '" + eventName + "' event registered on " + component, listeners.hasNext());
+        if (!listeners.hasNext()) {
+            fail("expected '" + eventName + "' event registered on " + component);
+        }
         return listeners.next();
     }
 
@@ -220,8 +254,10 @@ public class ZKAssert {
     public static <T extends EventListener> T assertHasEventListener(Component component, String eventName,
                                                                      Class<T> listenerClass) {
         EventListener listener = assertHasEventListener(component, eventName);
-        assertTrue("expected '" + eventName + "' event registered as " + listenerClass.getName() + ", found "
-                + listener.getClass().getName(), listenerClass.isInstance(listener));
+        if (!listenerClass.isInstance(listener)) {
+            fail("expected '" + eventName + "' event registered as " + listenerClass.getName() + ", found "
+                    + listener.getClass().getName());
+        }
         return listenerClass.cast(listener);
     }
 
@@ -233,7 +269,192 @@ public class ZKAssert {
      */
     public static void assertHasNoEventListeners(Component component, String eventName) {
         Iterator<EventListener<?>> listeners = component.getEventListeners(eventName).iterator();
-        assertFalse("expected no '" + eventName + "' event registered on " + component, listeners.hasNext());
+        if (listeners.hasNext()) {
+            fail("expected no '" + eventName + "' event registered on " + component);
+        }
+    }
+
+    /**
+     * Assert that the subtree rooted at {@code root} matches the {@code spec}, checking the whole subtree in a single
+     * walk.<br/>
+     * Unlike the other assertions, this doesn't stop at the first failure; every mismatch is reported, with its path in
+     * the tree, in a single failure.
+     *
+     * @param root the root of the subtree under assertion
+     * @param spec the specification the subtree should match
+     */
+    public static void assertSubtree(Component root, ComponentSpec spec) {
+        assertNoMismatches(new SubtreeVerifier(null, 0).verify(root, spec));
+    }
+
+    /**
+     * Assert that the subtree rooted at {@code root} matches the {@code spec}, as {@link #assertSubtree(Component,
+     * ComponentSpec)} does, but walking the children of any component with many children in parallel.
+     *
+     * @param root the root of the subtree under assertion
+     * @param spec the specification the subtree should match
+     */
+    public static void assertSubtreeInParallel(Component root, ComponentSpec spec) {
+        assertSubtreeInParallel(root, spec, SubtreePool.POOL, SubtreePool.THRESHOLD);
+    }
+
+    /**
+     * Assert that the subtree rooted at {@code root} matches the {@code spec}, as {@link #assertSubtree(Component,
+     * ComponentSpec)} does, but walking the children of any component with at least {@code threshold} children in
+     * parallel on the given {@code pool}.
+     *
+     * @param root      the root of the subtree under assertion
+     * @param spec      the specification the subtree should match
+     * @param pool      the pool to walk on
+     * @param threshold the number of children at which they are walked in parallel
+     */
+    public static void assertSubtreeInParallel(Component root, ComponentSpec spec, ForkJoinPool pool, int threshold) {
+        assertNoMismatches(new SubtreeVerifier(pool, threshold).verify(root, spec));
+    }
+
+    /**
+     * Assert that a copy of a component tree, such as one made with {@link Component#clone()}, shares no mutable state
+     * with the original: no application fields, attributes or stateful event listeners are shared by reference.
+     *
+     * @param original the original tree
+     * @param copy     the copy under assertion
+     */
+    public static void assertNoSharedState(Component original, Component copy) {
+        assertNoMismatches(SharedStateChecker.check(original, copy));
+    }
+
+    /**
+     * Assert that no component attached to a {@link SimulatedDesktop} has been changed off the desktop's event thread.
+     * The failure lists each change with the code which made it.
+     *
+     * @param desktop the desktop under assertion
+     */
+    public static void assertNoRaces(SimulatedDesktop desktop) {
+        List<String> races = new ArrayList<>();
+        for (SimulatedDesktop.Race race : desktop.getRaces()) {
+            StringBuilder description = new StringBuilder();
+            description.append(race.getMutation()).append(" of ").append(race.getComponent())
+                    .append(" on thread ").append(race.getThreadName());
+            for (StackTraceElement frame : race.getCallerFrames()) {
+                description.append("\n      at ").append(frame);
+            }
+            races.add(description.toString());
+        }
+        int unlisted = desktop.getRaceCount() - races.size();
+        if (unlisted > 0) {
+            races.add("and " + unlisted + " more");
+        }
+        assertNone(races, "race", "races");
+    }
+
+    /**
+     * Assert that no component watched by the {@link LeakDetector} is still reachable from an event queue subscriber
+     * or a live component's listener. The failure lists each leaked component with the path retaining it, and each
+     * subscriber or listener which reaches too many objects to walk them all, as it may retain more.
+     *
+     * @param detector the detector under assertion
+     */
+    public static void assertNoLeaks(LeakDetector detector) {
+        List<String> leaks = new ArrayList<>();
+        for (LeakDetector.Leak leak : detector.findLeaks()) {
+            leaks.add(leak.toString());
+        }
+        for (String root : detector.getTruncated()) {
+            leaks.add(root + " reaches more than " + LeakDetector.MAX_OBJECTS + " objects, so may retain more");
+        }
+        assertNone(leaks, "leak", "leaks");
+    }
+
+    /**
+     * Assert that every schedule explored by an {@link InterleavingExplorer} passed. The failure lists each failing
+     * schedule, which can be replayed, with the tasks it ran.
+     *
+     * @param result the outcome of the exploration under assertion
+     */
+    public static void assertAllSchedulesPass(InterleavingExplorer.Result result) {
+        List<String> failures = new ArrayList<>();
+        for (InterleavingExplorer.Failure failure : result.getFailures()) {
+            if (failures.size() == 10) {
+                failures.add("and " + (result.getFailures().size() - 10) + " more");
+                break;
+            }
+            failures.add(failure.toString());
+        }
+        assertNone(failures, "failed schedule", "failed schedules");
+    }
+
+    /**
+     * Assert that an event, as accounted for by a {@link ComponentAccounting}, created at most the given number of
+     * components. The failure lists how many of each class it created.
+     *
+     * @param max     the most components the event may create
+     * @param account the account of the event under assertion
+     */
+    public static void assertCreatesAtMost(int max, ComponentAccounting.Account account) {
+        assertAtMost(max, ComponentAccounting.Change.CREATED, account);
+    }
+
+    /**
+     * Assert that an event, as accounted for by a {@link ComponentAccounting}, detached at most the given number of
+     * components. The failure lists how many of each class it detached.
+     *
+     * @param max     the most components the event may detach
+     * @param account the account of the event under assertion
+     */
+    public static void assertDetachesAtMost(int max, ComponentAccounting.Account account) {
+        assertAtMost(max, ComponentAccounting.Change.DETACHED, account);
+    }
+
+    /**
+     * Assert that an event, as accounted for by a {@link ComponentAccounting}, invalidated at most the given number of
+     * components. The failure lists how many of each class it invalidated.
+     *
+     * @param max     the most components the event may invalidate
+     * @param account the account of the event under assertion
+     */
+    public static void assertInvalidatesAtMost(int max, ComponentAccounting.Account account) {
+        assertAtMost(max, ComponentAccounting.Change.INVALIDATED, account);
+    }
+
+    private static void assertAtMost(int max, ComponentAccounting.Change change, ComponentAccounting.Account account) {
+        int count = account.getCount(change);
+        if (count > max) {
+            StringBuilder message = new StringBuilder();
+            message.append(account.describe()).append(' ').append(change).append(' ').append(count)
+                    .append(count == 1 ? " component" : " components").append(", expected at most ").append(max)
+                    .append(':');
+            for (Map.Entry<Class<?>, Integer> type : account.getCountsByClass(change).entrySet()) {
+                message.append("\n  ").append(type.getValue()).append(' ').append(type.getKey().getName());
+            }
+            fail(message.toString());
+        }
+    }
+
+    private static boolean equal(Object expected, Object actual) {
+        return expected == null ? actual == null : expected.equals(actual);
+    }
+
+    private static void assertNoMismatches(List<String> mismatches) {
+        assertNone(mismatches, "mismatch", "mismatches");
+    }
+
+    private static void assertNone(List<String> problems, String singular, String plural) {
+        if (!problems.isEmpty()) {
+            StringBuilder message = new StringBuilder();
+            message.append(problems.size()).append(' ').append(problems.size() == 1 ? singular : plural).append(':');
+            for (String problem : problems) {
+                message.append("\n  ").append(problem);
+            }
+            fail(message.toString());
+        }
+    }
+
+    /**
+     * The default pool for parallel subtree assertions, only created once first needed.
+     */
+    private static final class SubtreePool {
+        private static final ForkJoinPool POOL = new ForkJoinPool();
+        private static final int THRESHOLD = 64;
     }
 
     /**
@@ -0,0 +1,25 @@
+package org.zkoss.zkunit;
+
+import org.zkoss.zk.ui.Component;
+
+/**
+ * Entry point for fluent assertions on ZK components, in the style of AssertJ:
+ * <pre>
+ * assertThat(messagesList).hasChildCount(10).allChildrenAreOfType(A.class);
+ * </pre>
+ * The assertions are the same as those in {@link ZKAssert}, and likewise only build their failure messages once they
+ * have failed.
+ *
+ * @author Sean Connolly
+ */
+public class ZKAssertions {
+
+    /**
+     * @param component the component under assertion
+     * @return fluent assertions on the component
+     */
+    public static ComponentAssert assertThat(Component component) {
+        return new ComponentAssert(component);
+    }
+
+}
@@ -0,0 +1,488 @@
+package org.zkoss.zkunit;
+
+import org.junit.rules.ExternalResource;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.zkoss.bind.BindUtils;
+import org.zkoss.zk.ui.*;
+import org.zkoss.zk.ui.event.*;
+import org.zkoss.zk.ui.select.Selectors;
+import org.zkoss.zk.ui.util.Clients;
+import org.zkoss.zul.Filedownload;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+import static org.powermock.api.mockito.PowerMockito.doAnswer;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.reflect.internal.WhiteboxImpl.findMethod;
+
+/**
+ * The mocked ZK environment behind {@link ZKTest}, for tests which can't or don't want to extend it.<br/>
+ * Use it as a JUnit rule in any test run by PowerMock which prepares the same static classes {@link ZKTest} does. Run
+ * with the {@link ZKTestRunner}, a {@link org.powermock.modules.junit4.PowerMockRunner}, and with {@link ZKTimings}
+ * left to the system class loader, its time is recorded per test class in the {@link ZKTimings}:
+ * <pre>
+ * &#64;RunWith(ZKTestRunner.class)
+ * &#64;PowerMockIgnore("org.zkoss.zkunit.ZKTimings*")
+ * &#64;PowerMockRunnerDelegate(Parameterized.class)
+ * &#64;PrepareForTest({Selectors.class, Sessions.class, Clients.class, Events.class, EventQueues.class,
+ *         Executions.class, Filedownload.class, BindUtils.class})
+ * public class InboxTest extends SomeOtherBase {
+ *     &#64;Rule
+ *     public final ZKEnvironment zk = new ZKEnvironment();
+ * }
+ * </pre>
+ * <p>
+ * The environment's event queues may be looked up, subscribed to and published to from any thread, so code under test
+ * which hands work to background threads sees the same queues as the test itself.
+ * </p>
+ *
+ * @author Sean Connolly
+ */
+public class ZKEnvironment extends ExternalResource {
+
+    private static volatile ZKEnvironment installed;
+
+    private final EventQueueExistsAnswer existsAnswer = new EventQueueExistsAnswer();
+    private final EventQueueLookupAnswer lookupAnswer = new EventQueueLookupAnswer();
+    private final EventQueueRemoveAnswer removeAnswer = new EventQueueRemoveAnswer();
+
+    private final ConcurrentMap<String, EventQueue> queues = new ConcurrentHashMap<>();
+    private final List<SimulatedDesktop> desktops = new CopyOnWriteArrayList<>();
+
+    private volatile SimulatedNode clusterNode;
+
+    private SoakRecorder soakRecorder;
+
+    @Override
+    protected void before() throws Throwable {
+        install();
+    }
+
+    @Override
+    protected void after() {
+        uninstall();
+    }
+
+    /**
+     * Mock the static classes used by an active ZK environment, as a {@link ZKTest} does before each test.<br/>
+     * PowerMock resets its mocks after each test, so this must be called for every test. The time taken to mock each
+     * static class is recorded in the {@link ZKTimings}.
+     *
+     * @throws Exception if the mocks can't be installed
+     */
+    public void install() throws Exception {
+        long start = System.nanoTime();
+        SoakRecorder.activate(soakRecorder);
+        installed = this;
+        mock(Selectors.class);
+        long mark = recordMocked(Selectors.class, start);
+        mock(Sessions.class);
+        mark = recordMocked(Sessions.class, mark);
+        mock(Clients.class);
+        mark = recordMocked(Clients.class, mark);
+        mock(Events.class);
+        mockEvents();
+        mark = recordMocked(Events.class, mark);
+        mock(EventQueues.class);
+        mockEventQueues();
+        mark = recordMocked(EventQueues.class, mark);
+        mock(Executions.class);
+        mockExecutions();
+        mark = recordMocked(Executions.class, mark);
+        mock(Filedownload.class);
+        mark = recordMocked(Filedownload.class, mark);
+        mock(BindUtils.class);
+        mockBindUtils();
+        mark = recordMocked(BindUtils.class, mark);
+        ZKTimings.environmentMocked(mark - start);
+    }
+
+    /**
+     * Destroy every {@link SimulatedDesktop} created since the environment was installed, stopping their event threads,
+     * as a {@link ZKTest} does after each test.
+     *
+     * @throws AssertionError if an event posted to one of the desktops failed
+     */
+    public void uninstall() {
+        AssertionError failure = null;
+        for (SimulatedDesktop desktop : desktops) {
+            try {
+                desktop.destroy();
+            } catch (AssertionError e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        desktops.clear();
+        if (installed == this) {
+            installed = null;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return true if an environment is installed, so the static classes are mocked
+     */
+    static boolean isInstalled() {
+        return installed != null;
+    }
+
+    /**
+     * Called by each new {@link SimulatedDesktop}, so the installed environment destroys it after the test.
+     */
+    static void register(SimulatedDesktop desktop) {
+        ZKEnvironment environment = installed;
+        if (environment != null) {
+            environment.desktops.add(desktop);
+        }
+    }
+
+    /**
+     * @return the event queues looked up in the environment installed most recently, by name, including the
+     * application scoped queues of every node in the cluster it has joined, by node and name such as {@code node0/mail}
+     */
+    static Map<String, EventQueue> installedQueues() {
+        ZKEnvironment environment = installed;
+        if (environment == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, EventQueue> queues = new TreeMap<>(environment.queues);
+        SimulatedNode clusterNode = environment.clusterNode;
+        if (clusterNode != null) {
+            for (SimulatedNode node : clusterNode.getCluster().getNodes()) {
+                for (Map.Entry<String, EventQueue> queue : node.getQueues().entrySet()) {
+                    queues.put(node.getId() + "/" + queue.getKey(), queue.getValue());
+                }
+            }
+        }
+        return queues;
+    }
+
+    private void mock(Class<?> type) {
+        if (soakRecorder == null) {
+            mockStatic(type);
+        } else {
+            mockStatic(type, withSettings().stubOnly());
+        }
+    }
+
+    /**
+     * Record the time taken to mock and stub a static class in the {@link ZKTimings}.
+     *
+     * @return the time now, to start timing the next static class from
+     */
+    private static long recordMocked(Class<?> type, long start) {
+        long now = System.nanoTime();
+        ZKTimings.staticMocked(type.getName(), now - start);
+        return now;
+    }
+
+    /**
+     * Run in soak mode, for tests which dispatch more events than could ever be remembered. The static classes are
+     * mocked without recording their invocations, so {@link ZKAssert#assertEventSent(String, Component)} and its
+     * siblings can't be used, and each dispatched event is recorded by the {@link SoakRecorder} in bounded memory.<br/>
+     * Takes effect the next time the environment is {@link #install() installed}.
+     *
+     * @param recorder the recorder for dispatched events, or null to leave soak mode
+     * @return this environment
+     */
+    public ZKEnvironment soak(SoakRecorder recorder) {
+        this.soakRecorder = recorder;
+        return this;
+    }
+
+    /**
+     * Route lookups, existence checks and removals of {@link EventQueues#APPLICATION application} scoped event queues
+     * to a node in a simulated cluster, so events published by the code under test fan out to the rest of the cluster.
+     *
+     * @param node the node this test runs on, or null to leave the cluster
+     */
+    public void joinCluster(SimulatedNode node) {
+        this.clusterNode = node;
+    }
+
+    private void mockEventQueues() {
+        queues.clear();
+        clusterNode = null;
+        when(EventQueues.exists(anyString())).thenAnswer(existsAnswer);
+        when(EventQueues.exists(anyString(), anyString())).thenAnswer(existsAnswer);
+        when(EventQueues.lookup(anyString())).thenAnswer(lookupAnswer);
+        when(EventQueues.lookup(anyString(), anyBoolean())).thenAnswer(lookupAnswer);
+        when(EventQueues.lookup(anyString(), anyString(), anyBoolean())).thenAnswer(lookupAnswer);
+        when(EventQueues.remove(anyString())).thenAnswer(removeAnswer);
+        when(EventQueues.remove(anyString(), anyString())).thenAnswer(removeAnswer);
+        when(EventQueues.remove(anyString(), any(WebApp.class))).thenAnswer(removeAnswer);
+        when(EventQueues.remove(anyString(), any(Session.class))).thenAnswer(removeAnswer);
+    }
+
+    private void mockEvents() throws Exception {
+        when(Events.isValid(anyString())).thenReturn(true);
+        handleEventSent("sendEvent", Event.class);
+        Events.sendEvent(any(Event.class));
+        handleEventSent("sendEvent", Component.class, Event.class);
+        Events.sendEvent(any(Component.class), any(Event.class));
+        handleEventSent("sendEvent", String.class, Component.class, Object.class);
+        Events.sendEvent(anyString(), any(Component.class), anyObject());
+        handleEventQueued("echoEvent", Event.class);
+        Events.echoEvent(any(Event.class));
+        handleEventQueued("echoEvent", String.class, Component.class, Object.class);
+        Events.echoEvent(anyString(), any(Component.class), anyObject());
+        handleEventQueued("postEvent", Event.class);
+        Events.postEvent(any(Event.class));
+        handleEventQueued("postEvent", String.class, Component.class, Object.class);
+        Events.postEvent(anyString(), any(Component.class), anyObject());
+    }
+
+    private void mockExecutions() {
+        when(Executions.getCurrent()).thenAnswer(new Answer<Execution>() {
+            @Override
+            public Execution answer(InvocationOnMock invocation) {
+                ComponentAccounting accounting = ComponentAccounting.current();
+                if (accounting != null) {
+                    accounting.executionLookedUp();
+                }
+                return SimulatedDesktop.currentExecution();
+            }
+        });
+        when(Executions.createComponents(anyString(), any(Component.class), anyMap())).thenAnswer(
+                new Answer<Component>() {
+                    @Override
+                    public Component answer(InvocationOnMock invocation) {
+                        Object[] arguments = invocation.getArguments();
+                        return ZKUtils.createComponents((String) arguments[0], (Component) arguments[1]);
+                    }
+                });
+        when(Executions.createComponentsDirectly(anyString(), anyString(), any(Component.class), anyMap())).thenAnswer(
+                new Answer<Component>() {
+                    @Override
+                    public Component answer(InvocationOnMock invocation) {
+                        Object[] arguments = invocation.getArguments();
+                        return ZKUtils.createComponentsDirectly((String) arguments[0], (Component) arguments[2]);
+                    }
+                });
+    }
+
+    private void mockBindUtils() throws Exception {
+        doAnswer(new NotifyChangeAnswer()).when(BindUtils.class, findMethod(BindUtils.class, "postNotifyChange",
+                String.class, String.class, Object.class, String.class));
+        BindUtils.postNotifyChange(anyString(), anyString(), anyObject(), anyString());
+        doAnswer(new GlobalCommandAnswer()).when(BindUtils.class, findMethod(BindUtils.class, "postGlobalCommand",
+                String.class, String.class, String.class, Map.class));
+        BindUtils.postGlobalCommand(anyString(), anyString(), anyString(), anyMapOf(String.class, Object.class));
+    }
+
+    /**
+     * Events sent are handled immediately, on the calling thread.
+     */
+    private void handleEventSent(String methodName, Class<?>... parameterTypes) throws Exception {
+        doAnswer(new SendEventAnswer(methodName)).when(Events.class,
+                findMethod(Events.class, methodName, parameterTypes));
+    }
+
+    /**
+     * Events posted or echoed to a component attached to a {@link SimulatedDesktop} are queued for its event thread;
+     * any others are handled immediately.
+     */
+    private void handleEventQueued(String methodName, Class<?>... parameterTypes) throws Exception {
+        doAnswer(new PostEventAnswer(methodName)).when(Events.class,
+                findMethod(Events.class, methodName, parameterTypes));
+    }
+
+    private class EventQueueExistsAnswer implements Answer<Boolean> {
+
+        @Override
+        public Boolean answer(InvocationOnMock invocationOnMock) {
+            String name = invocationOnMock.getArguments()[0].toString();
+            if (clusterNode != null && isApplicationScoped(invocationOnMock.getArguments())) {
+                return clusterNode.exists(name);
+            }
+            return queues.containsKey(name);
+        }
+    }
+
+    private class EventQueueLookupAnswer implements Answer<EventQueue> {
+        @Override
+        public EventQueue answer(InvocationOnMock invocationOnMock) {
+            String name = invocationOnMock.getArguments()[0].toString();
+            EventQueue explored = InterleavingExplorer.lookup(name);
+            if (explored != null) {
+                return explored;
+            }
+            if (clusterNode != null && isApplicationScoped(invocationOnMock.getArguments())) {
+                return clusterNode.lookup(name);
+            }
+            EventQueue queue = queues.get(name);
+            if (queue == null) {
+                queues.putIfAbsent(name, new SynchronousEventQueue());
+                queue = queues.get(name);
+            }
+            return queue;
+        }
+
+    }
+
+    private class EventQueueRemoveAnswer implements Answer<Boolean> {
+
+        @Override
+        public Boolean answer(InvocationOnMock invocationOnMock) {
+            String name = invocationOnMock.getArguments()[0].toString();
+            if (clusterNode != null && isApplicationScoped(invocationOnMock.getArguments())) {
+                return clusterNode.remove(name);
+            }
+            queues.remove(name);
+            return true;
+        }
+    }
+
+    /**
+     * @return true if the arguments to an {@link EventQueues} method name the application scope, by name or web app
+     */
+    private static boolean isApplicationScoped(Object... arguments) {
+        return arguments.length > 1 && (EventQueues.APPLICATION.equals(arguments[1]) || arguments[1] instanceof WebApp);
+    }
+
+    /**
+     * Routes {@link BindUtils#postNotifyChange(String, String, Object, String)} to the open {@link ViewModelHarness}es.
+     */
+    private static final class NotifyChangeAnswer implements Answer<Void> {
+
+        @Override
+        public Void answer(InvocationOnMock invocation) {
+            Object[] arguments = invocation.getArguments();
+            ViewModelHarness.postNotifyChange(arguments[2], (String) arguments[3]);
+            return null;
+        }
+    }
+
+    /**
+     * Routes {@link BindUtils#postGlobalCommand(String, String, String, Map)} to the open {@link ViewModelHarness}es.
+     */
+    private static final class GlobalCommandAnswer implements Answer<Void> {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Void answer(InvocationOnMock invocation) {
+            Object[] arguments = invocation.getArguments();
+            ViewModelHarness.postGlobalCommand((String) arguments[2], (Map<String, Object>) arguments[3]);
+            return null;
+        }
+    }
+
+    /**
+     * Handles an event sent with {@link Events#sendEvent(Event)} immediately. As in ZK, sending an event to a component
+     * attached to a {@link SimulatedDesktop} is only allowed on the desktop's event thread.
+     */
+    private static final class SendEventAnswer extends EventAnswer {
+
+        private SendEventAnswer(String methodName) {
+            super(methodName);
+        }
+
+        @Override
+        public Void answer(InvocationOnMock invocation) {
+            Event event = getEvent(invocation.getArguments());
+            SimulatedDesktop desktop = SimulatedDesktop.of(event.getTarget());
+            if (desktop != null) {
+                desktop.checkEventThread(methodName, event);
+            }
+            EventDispatcher.dispatch(event);
+            return null;
+        }
+    }
+
+    /**
+     * Queues an event posted with {@link Events#postEvent(Event)} or echoed with {@link Events#echoEvent(Event)} for
+     * the event thread of the {@link SimulatedDesktop} its target is attached to, which must be the calling thread as
+     * in ZK. Events to any other component are handled immediately.
+     */
+    private static final class PostEventAnswer extends EventAnswer {
+
+        private PostEventAnswer(String methodName) {
+            super(methodName);
+        }
+
+        @Override
+        public Void answer(InvocationOnMock invocation) {
+            Event event = getEvent(invocation.getArguments());
+            SimulatedDesktop desktop = SimulatedDesktop.of(event.getTarget());
+            if (desktop != null) {
+                desktop.checkEventThread(methodName, event);
+                desktop.postEvent(event);
+            } else {
+                EventDispatcher.dispatch(event);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Resolves the event from the arguments of any of the {@link Events} methods which send, post or echo one.
+     */
+    private abstract static class EventAnswer implements Answer<Void> {
+
+        protected final String methodName;
+
+        private EventAnswer(String methodName) {
+            this.methodName = methodName;
+        }
+
+        protected Event getEvent(Object... arguments) {
+            if (arguments.length == 1 && arguments[0] instanceof Event) {
+                return (Event) arguments[0];
+            } else {
+                Component eventTarget = getEventTarget(arguments);
+                String eventName = getEventName(arguments);
+                Object eventData = getEventData(arguments);
+                return new Event(eventName, eventTarget, eventData);
+            }
+        }
+
+        private Component getEventTarget(Object... arguments) {
+            for (Object argument : arguments) {
+                if (argument instanceof Event) {
+                    return ((Event) argument).getTarget();
+                } else if (argument instanceof Component) {
+                    return (Component) argument;
+                }
+            }
+            throw new RuntimeException("Could not resolve event target from arguments: " + Arrays.toString(arguments));
+        }
+
+        private String getEventName(Object... arguments) {
+            for (Object argument : arguments) {
+                if (argument instanceof Event) {
+                    return ((Event) argument).getName();
+                } else if (argument instanceof String) {
+                    return (String) argument;
+                }
+            }
+            throw new RuntimeException("Could not resolve event target from arguments: " + Arrays.toString(arguments));
+        }
+
+        private Object getEventData(Object... arguments) {
+            // Reverse iterate to avoid returning the event name as the data
+            for (int i = arguments.length - 1; i >= 0; i--) {
+                Object argument = arguments[i];
+                if (argument instanceof Event) {
+                    return ((Event) argument).getData();
+                } else if (!(argument instanceof Component)) {
+                    return argument;
+                }
+            }
+            return null;
+        }
+
+    }
+}
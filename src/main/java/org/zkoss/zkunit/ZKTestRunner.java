@@ -0,0 +1,70 @@
+package org.zkoss.zkunit;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link PowerMockRunner} behind {@link ZKTest}, which records where the time goes in {@link ZKTimings}: how long
+ * PowerMock takes to prepare each test class's class loader, and how long each test takes as a whole.<br/>
+ * Without the {@code zkunit.timings} system property it behaves exactly as a {@link PowerMockRunner}.
+ *
+ * @author Sean Connolly
+ */
+public class ZKTestRunner extends PowerMockRunner {
+
+    /**
+     * @param testClass the test class to run
+     * @throws Exception if PowerMock can't prepare the test class
+     */
+    public ZKTestRunner(Class<?> testClass) throws Exception {
+        this(testClass, System.nanoTime());
+    }
+
+    private ZKTestRunner(Class<?> testClass, long start) throws Exception {
+        super(testClass);
+        ZKTimings.classPrepared(testClass.getName(), System.nanoTime() - start);
+    }
+
+    @Override
+    public void run(RunNotifier notifier) {
+        if (!ZKTimings.isEnabled()) {
+            super.run(notifier);
+            return;
+        }
+        TimingListener listener = new TimingListener();
+        notifier.addListener(listener);
+        try {
+            super.run(notifier);
+        } finally {
+            notifier.removeListener(listener);
+        }
+    }
+
+    /**
+     * Times each test from the moment it starts, before its {@code @Before} methods, to the moment it finishes.
+     */
+    private static final class TimingListener extends RunListener {
+
+        private final Map<Description, Long> started = new ConcurrentHashMap<>();
+
+        @Override
+        public void testStarted(Description description) {
+            ZKTimings.testStarted(description.getClassName());
+            started.put(description, System.nanoTime());
+        }
+
+        @Override
+        public void testFinished(Description description) {
+            Long start = started.remove(description);
+            if (start != null) {
+                ZKTimings.testFinished(description.getClassName(), System.nanoTime() - start);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,277 @@
+package org.zkoss.zkunit;
+
+import org.powermock.core.classloader.MockClassLoader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records where the time goes in a suite of {@link ZKTest}s: PowerMock's class loader preparation, mocking the ZK
+ * environment before each test, dispatching events and the body of each test.<br/>
+ * Recording is enabled by setting the {@code zkunit.timings} system property to the file the report should be
+ * written to, e.g. {@code mvn test -Dzkunit.timings=target/zkunit-timings.json}. The report is written as JSON when
+ * the JVM exits, listing the test classes slowest first and the cost of mocking each static class.
+ * <p>
+ * PowerMock loads each test class, and zkunit with it, in a class loader of its own. So that every test class records
+ * to the same place, {@link ZKTest} tells PowerMock to leave this class to the system class loader with {@code
+ * @PowerMockIgnore("org.zkoss.zkunit.ZKTimings*")}; tests using a {@link ZKEnvironment} rule need the same annotation
+ * to be timed. A copy of this class loaded by PowerMock regardless records nothing.
+ * </p>
+ *
+ * @author Sean Connolly
+ */
+public final class ZKTimings {
+
+    /**
+     * The system property naming the file to write the report to.
+     */
+    public static final String REPORT_PROPERTY = "zkunit.timings";
+
+    private static final String REPORT_FILE = System.getProperty(REPORT_PROPERTY);
+    private static final String UNKNOWN_CLASS = "(unknown)";
+
+    private static final int TESTS = 0;
+    private static final int CLASS_LOADER_NANOS = 1;
+    private static final int SETUP_NANOS = 2;
+    private static final int TOTAL_NANOS = 3;
+    private static final int EVENTS = 4;
+    private static final int DISPATCH_NANOS = 5;
+    private static final int MOCKS = 0;
+    private static final int MOCK_NANOS = 1;
+
+    private static final ConcurrentMap<String, AtomicLongArray> CLASSES = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, AtomicLongArray> STATICS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<String> CURRENT_CLASS = new ThreadLocal<>();
+
+    private static volatile boolean enabled = REPORT_FILE != null && !REPORT_FILE.isEmpty() && !isMockLoaded();
+
+    static {
+        if (enabled) {
+            Runtime.getRuntime().addShutdownHook(new Thread("zkunit-timings") {
+                @Override
+                public void run() {
+                    try {
+                        writeReport(new File(REPORT_FILE));
+                    } catch (IOException e) {
+                        throw new IllegalStateException("unable to write timings to " + REPORT_FILE, e);
+                    }
+                }
+            });
+        }
+    }
+
+    private ZKTimings() {
+        // static utility
+    }
+
+    /**
+     * @return true if this copy of the class was loaded by PowerMock, so records only for the test class loading it
+     */
+    private static boolean isMockLoaded() {
+        return ZKTimings.class.getClassLoader() instanceof MockClassLoader;
+    }
+
+    /**
+     * @return true if timings are being recorded
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Record timings without writing a report, or stop recording them, for zkunit's own tests.
+     *
+     * @param enabled true to record timings
+     */
+    static void setEnabled(boolean enabled) {
+        ZKTimings.enabled = enabled;
+    }
+
+    /**
+     * @param testClass the name of the test class
+     * @param nanos     the time taken to prepare the test class's class loader
+     */
+    public static void classPrepared(String testClass, long nanos) {
+        if (enabled) {
+            timings(testClass).addAndGet(CLASS_LOADER_NANOS, nanos);
+        }
+    }
+
+    /**
+     * @param testClass the name of the test class whose test is starting on the current thread
+     */
+    public static void testStarted(String testClass) {
+        if (enabled) {
+            CURRENT_CLASS.set(testClass);
+        }
+    }
+
+    /**
+     * @param testClass the name of the test class whose test has finished on the current thread
+     * @param nanos     the time taken by the whole test, including its setup
+     */
+    public static void testFinished(String testClass, long nanos) {
+        if (enabled) {
+            AtomicLongArray timings = timings(testClass);
+            timings.incrementAndGet(TESTS);
+            timings.addAndGet(TOTAL_NANOS, nanos);
+            CURRENT_CLASS.remove();
+        }
+    }
+
+    /**
+     * @param nanos the time taken to mock the whole ZK environment for the current test
+     */
+    public static void environmentMocked(long nanos) {
+        if (enabled) {
+            timings(currentClass()).addAndGet(SETUP_NANOS, nanos);
+        }
+    }
+
+    /**
+     * @param staticClass the name of the static class mocked
+     * @param nanos       the time taken to mock and stub it
+     */
+    public static void staticMocked(String staticClass, long nanos) {
+        if (enabled) {
+            AtomicLongArray timings = timings(STATICS, staticClass, 2);
+            timings.incrementAndGet(MOCKS);
+            timings.addAndGet(MOCK_NANOS, nanos);
+        }
+    }
+
+    /**
+     * @param nanos the time taken to dispatch an event, including every handler it reached
+     */
+    public static void eventDispatched(long nanos) {
+        if (enabled) {
+            AtomicLongArray timings = timings(currentClass());
+            timings.incrementAndGet(EVENTS);
+            timings.addAndGet(DISPATCH_NANOS, nanos);
+        }
+    }
+
+    private static String currentClass() {
+        String current = CURRENT_CLASS.get();
+        return current == null ? UNKNOWN_CLASS : current;
+    }
+
+    private static AtomicLongArray timings(String testClass) {
+        return timings(CLASSES, testClass, 6);
+    }
+
+    private static AtomicLongArray timings(ConcurrentMap<String, AtomicLongArray> all, String name, int length) {
+        AtomicLongArray timings = all.get(name);
+        if (timings == null) {
+            all.putIfAbsent(name, new AtomicLongArray(length));
+            timings = all.get(name);
+        }
+        return timings;
+    }
+
+    /**
+     * Write the report of everything recorded so far.
+     *
+     * @param file the file to write to
+     * @throws IOException if the file, or its directory, can't be written
+     */
+    public static void writeReport(File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("unable to create " + directory);
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(report());
+        }
+    }
+
+    /**
+     * @return the report of everything recorded so far, as JSON
+     */
+    static String report() {
+        List<Map.Entry<String, AtomicLongArray>> classes = new ArrayList<>(CLASSES.entrySet());
+        Collections.sort(classes, new Comparator<Map.Entry<String, AtomicLongArray>>() {
+            @Override
+            public int compare(Map.Entry<String, AtomicLongArray> a, Map.Entry<String, AtomicLongArray> b) {
+                return Long.compare(overallNanos(b.getValue()), overallNanos(a.getValue()));
+            }
+        });
+        List<Map.Entry<String, AtomicLongArray>> statics = new ArrayList<>(STATICS.entrySet());
+        Collections.sort(statics, new Comparator<Map.Entry<String, AtomicLongArray>>() {
+            @Override
+            public int compare(Map.Entry<String, AtomicLongArray> a, Map.Entry<String, AtomicLongArray> b) {
+                return Long.compare(b.getValue().get(MOCK_NANOS), a.getValue().get(MOCK_NANOS));
+            }
+        });
+        long classLoader = 0;
+        long setup = 0;
+        long body = 0;
+        long dispatch = 0;
+        StringBuilder json = new StringBuilder("{\n  \"classes\": [");
+        for (int i = 0; i < classes.size(); i++) {
+            AtomicLongArray timings = classes.get(i).getValue();
+            classLoader += timings.get(CLASS_LOADER_NANOS);
+            setup += timings.get(SETUP_NANOS);
+            body += bodyNanos(timings);
+            dispatch += timings.get(DISPATCH_NANOS);
+            json.append(i == 0 ? "\n" : ",\n").append("    {\"name\": ").append(quote(classes.get(i).getKey()))
+                    .append(", \"tests\": ").append(timings.get(TESTS))
+                    .append(", \"classLoaderMillis\": ").append(millis(timings.get(CLASS_LOADER_NANOS)))
+                    .append(", \"setupMillis\": ").append(millis(timings.get(SETUP_NANOS)))
+                    .append(", \"bodyMillis\": ").append(millis(bodyNanos(timings)))
+                    .append(", \"events\": ").append(timings.get(EVENTS))
+                    .append(", \"dispatchMillis\": ").append(millis(timings.get(DISPATCH_NANOS)))
+                    .append(", \"totalMillis\": ").append(millis(overallNanos(timings)))
+                    .append('}');
+        }
+        json.append("\n  ],\n  \"statics\": [");
+        for (int i = 0; i < statics.size(); i++) {
+            AtomicLongArray timings = statics.get(i).getValue();
+            long mocks = timings.get(MOCKS);
+            long nanos = timings.get(MOCK_NANOS);
+            json.append(i == 0 ? "\n" : ",\n").append("    {\"name\": ").append(quote(statics.get(i).getKey()))
+                    .append(", \"mocks\": ").append(mocks)
+                    .append(", \"totalMillis\": ").append(millis(nanos))
+                    .append(", \"meanMillis\": ").append(millis(nanos / Math.max(1, mocks)))
+                    .append('}');
+        }
+        json.append("\n  ],\n  \"totals\": {\"classLoaderMillis\": ").append(millis(classLoader))
+                .append(", \"setupMillis\": ").append(millis(setup))
+                .append(", \"bodyMillis\": ").append(millis(body))
+                .append(", \"dispatchMillis\": ").append(millis(dispatch))
+                .append("}\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * The body is everything in a test but mocking the environment; dispatching events is part of it.
+     */
+    private static long bodyNanos(AtomicLongArray timings) {
+        return Math.max(0, timings.get(TOTAL_NANOS) - timings.get(SETUP_NANOS));
+    }
+
+    private static long overallNanos(AtomicLongArray timings) {
+        return timings.get(CLASS_LOADER_NANOS) + timings.get(TOTAL_NANOS);
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+}
@@ -2,12 +2,20 @@ package org.zkoss.zkunit;
 
 import org.zkoss.zk.ui.Component;
 import org.zkoss.zk.ui.event.Event;
-import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zk.ui.event.UploadEvent;
 import org.zkoss.zul.Column;
 import org.zkoss.zul.Columns;
 import org.zkoss.zul.Grid;
+import org.zkoss.zul.ListModel;
+import org.zkoss.zul.Listitem;
+import org.zkoss.zul.ListitemRenderer;
+import org.zkoss.zul.Row;
+import org.zkoss.zul.RowRenderer;
 import org.zkoss.zul.Rows;
 
+import java.util.List;
+
 /**
  * Utilities for use in ZK unit tests.
  *
@@ -48,6 +56,60 @@ public class ZKUtils {
         return grid;
     }
 
+    /**
+     * Create a benchmark of a {@link RowRenderer}, rendering every item of the model into a detached {@link Row}.<br/>
+     * In a live ZK environment a grid's renderer runs as part of rendering the page; here it can be measured alone.
+     *
+     * @param renderer the renderer under test
+     * @param model    the model to render
+     * @return a benchmark, ready to {@link RendererBenchmark#run() run}
+     */
+    public static <T> RendererBenchmark<T> benchmarkRenderer(RowRenderer<T> renderer, ListModel<T> model) {
+        return RendererBenchmark.of(renderer, model);
+    }
+
+    /**
+     * Create a benchmark of a {@link ListitemRenderer}, rendering every item of the model into a detached {@link
+     * Listitem}.
+     *
+     * @param renderer the renderer under test
+     * @param model    the model to render
+     * @return a benchmark, ready to {@link RendererBenchmark#run() run}
+     */
+    public static <T> RendererBenchmark<T> benchmarkRenderer(ListitemRenderer<T> renderer, ListModel<T> model) {
+        return RendererBenchmark.of(renderer, model);
+    }
+
+    /**
+     * Create the components of a ZUL page, as {@link org.zkoss.zk.ui.Executions#createComponents(String, Component,
+     * java.util.Map)} would in a live ZK environment.<br/>
+     * The page is loaded from the test classpath, or from {@code src/main/webapp}, and cached by the shared {@link
+     * ZulDefinitionStore}, so only the first test to load it pays for parsing it.
+     *
+     * @param path   the path of the page
+     * @param parent the component to append the page's root components to, or null to leave them detached
+     * @return the first root component of the page, or null if it has none
+     */
+    public static Component createComponents(String path, Component parent) {
+        return first(ZulDefinitionStore.getShared().load(path).create(parent));
+    }
+
+    /**
+     * Create components from ZUL markup, as {@link org.zkoss.zk.ui.Executions#createComponentsDirectly(String, String,
+     * Component, java.util.Map)} would in a live ZK environment.
+     *
+     * @param content the ZUL markup
+     * @param parent  the component to append the root components to, or null to leave them detached
+     * @return the first root component, or null if there are none
+     */
+    public static Component createComponentsDirectly(String content, Component parent) {
+        return first(ZulDefinitionStore.getShared().loadDirectly(content).create(parent));
+    }
+
+    private static Component first(List<Component> components) {
+        return components.isEmpty() ? null : components.get(0);
+    }
+
     /**
      * Simulate a ZK event.<br/>
      * Normally this is handled by ZK but in tests we don't have an active ZK environment.
@@ -60,14 +122,67 @@ public class ZKUtils {
         simulateEvent(new Event(eventName, target, data));
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Simulate a ZK event.<br/>
+     * Normally this is handled by ZK but in tests we don't have an active ZK environment. The event is delivered along
+     * the same chain of handlers ZK would use: the target's listeners, its own {@code onXxx} event method and, for
+     * targets with an id whose space owner has a composer bound, the {@code onXxx$id} handlers of the space owner and
+     * composer.
+     *
+     * @param event the event to simulate, at least one handler must be registered for it
+     */
     public static void simulateEvent(Event event) {
-        EventListener listener = ZKAssert.assertHasEventListener(event.getTarget(), event.getName());
+        int invoked;
         try {
-            listener.onEvent(event);
+            invoked = EventDispatcher.invoke(event);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        if (invoked == 0) {
+            ZKAssert.assertHasEventListener(event.getTarget(), event.getName());
+        }
+    }
+
+    /**
+     * Create a storm of high frequency client events, such as {@code onChanging} or {@code onScroll}, at a component.
+     * Bursts of events are fired as a user would fire them, optionally coalesced on the client as ZK's debouncing and
+     * deferrable listeners would, and the work their handlers do on the server is measured.
+     *
+     * @param eventName the name of the events
+     * @param target    the target of the events
+     * @return a storm, ready to {@link EventStorm#run() run}
+     */
+    public static EventStorm simulateStorm(String eventName, Component target) {
+        return new EventStorm(eventName, target);
+    }
+
+    /**
+     * Simulate the user uploading files to a component, firing an {@link UploadEvent} named {@code onUpload}.<br/>
+     * Each file is backed by disk, so uploads of any size can be simulated. The report shows how much of the upload
+     * the handler streamed, how much it pulled into heap and how quickly; and the test fails if the handler pulls more
+     * of a file into heap than the media allow.
+     *
+     * @param target the component uploaded to, an {@code onUpload} handler must be registered for it
+     * @param medias the uploaded files
+     * @return what the handler made of the upload
+     */
+    public static FileMedia.Report simulateUpload(Component target, FileMedia... medias) {
+        long start = System.nanoTime();
+        simulateEvent(new UploadEvent(Events.ON_UPLOAD, target, medias));
+        return new FileMedia.Report(medias, System.nanoTime() - start);
+    }
+
+    /**
+     * Bind a composer to a component, as ZK does when applying a composer in a live environment.<br/>
+     * Events simulated on the component then reach the composer's {@code onXxx} methods, and those on components in
+     * its id space are forwarded to the composer's {@code onXxx$id} methods and {@code @Listen("onXxx = #id")} methods,
+     * without the composer having to be wired up.
+     *
+     * @param component the component the composer is applied to
+     * @param composer  the composer
+     */
+    public static void bindComposer(Component component, Object composer) {
+        component.setAttribute(EventDispatcher.COMPOSER_ATTRIBUTE, composer);
     }
 
 }
@@ -0,0 +1,274 @@
+package org.zkoss.zkunit;
+
+import org.zkoss.lang.Classes;
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zk.ui.HtmlNativeComponent;
+import org.zkoss.zk.ui.UiException;
+import org.zkoss.zk.ui.ext.DynamicPropertied;
+import org.zkoss.zk.ui.util.Composer;
+import org.zkoss.zul.Label;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A parsed ZUL page, from which component trees are created without a ZK container.<br/>
+ * This plays the part of ZK's {@link org.zkoss.zk.ui.metainfo.PageDefinition}, which can't be built or instantiated
+ * outside a running web application and can't be serialized. Element names are resolved to component classes when
+ * the page is parsed, so a definition can be cached, in memory or on disk, and instantiated any number of times.
+ * <p>
+ * Properties with literal values are set through the component's setters, {@code apply} composers are instantiated
+ * and bound with {@link ZKUtils#bindComposer(Component, Object)}, and {@code forward} attributes are registered.
+ * EL expressions, data binding annotations, zscript and {@code onXxx} attributes need a live ZK execution and are left
+ * unset.
+ * </p>
+ *
+ * @author Sean Connolly
+ * @see ZulDefinitionStore
+ */
+public class ZulDefinition implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String source;
+    private final List<Node> roots;
+
+    ZulDefinition(String source, List<Node> roots) {
+        this.source = source;
+        this.roots = roots;
+    }
+
+    /**
+     * @return where the page was parsed from
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Create a new component tree from the page.
+     *
+     * @param parent the component to append the page's root components to, or null to leave them detached
+     * @return the root components created
+     */
+    public List<Component> create(Component parent) {
+        List<Component> created = new ArrayList<>();
+        for (Node root : roots) {
+            root.create(parent, created);
+        }
+        return created;
+    }
+
+    /**
+     * The kinds of element a page is made of.
+     */
+    enum Kind {
+        /**
+         * A component, resolved from the ZUL language definition.
+         */
+        COMPONENT,
+        /**
+         * A native html element, created as a {@link HtmlNativeComponent}.
+         */
+        NATIVE,
+        /**
+         * A {@code <zk>} element, whose children belong to its parent.
+         */
+        TRANSPARENT,
+        /**
+         * An {@code <attribute>} element, setting a property of its parent.
+         */
+        ATTRIBUTE,
+        /**
+         * A {@code <custom-attributes>} element, setting attributes of its parent.
+         */
+        CUSTOM_ATTRIBUTES
+    }
+
+    /**
+     * A single element of the page.
+     */
+    static final class Node implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Kind kind;
+        private final String name;
+        private final Map<String, String> properties = new LinkedHashMap<>();
+        private final List<Node> children = new ArrayList<>();
+        private final List<String> composers = new ArrayList<>();
+        private final List<String> forwards = new ArrayList<>();
+        private String text;
+
+        /**
+         * @param kind the kind of element
+         * @param name the component class name, the native tag or the attribute name, depending on the kind
+         */
+        Node(Kind kind, String name) {
+            this.kind = kind;
+            this.name = name;
+        }
+
+        void setProperty(String property, String value) {
+            properties.put(property, value);
+        }
+
+        void addChild(Node child) {
+            children.add(child);
+        }
+
+        void addComposer(String className) {
+            composers.add(className);
+        }
+
+        void addForward(String forward) {
+            forwards.add(forward);
+        }
+
+        void setText(String text) {
+            this.text = text;
+        }
+
+        List<Node> getChildren() {
+            return children;
+        }
+
+        private void create(Component parent, List<Component> created) {
+            switch (kind) {
+                case TRANSPARENT:
+                    for (Node child : children) {
+                        child.create(parent, created);
+                    }
+                    return;
+                case ATTRIBUTE:
+                    if (parent != null) {
+                        setProperty(parent, name, text == null ? "" : text);
+                    }
+                    return;
+                case CUSTOM_ATTRIBUTES:
+                    if (parent != null) {
+                        for (Map.Entry<String, String> attribute : properties.entrySet()) {
+                            parent.setAttribute(attribute.getKey(), attribute.getValue());
+                        }
+                    }
+                    return;
+                default:
+                    Component component = instantiate();
+                    if (parent != null) {
+                        component.setParent(parent);
+                    }
+                    created.add(component);
+                    populate(component);
+            }
+        }
+
+        private Component instantiate() {
+            if (kind == Kind.NATIVE) {
+                return new HtmlNativeComponent(name);
+            }
+            try {
+                return (Component) Classes.forNameByThread(name).newInstance();
+            } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+                throw new UiException("Unable to create " + name + ": " + e.getMessage(), e);
+            }
+        }
+
+        private void populate(Component component) {
+            for (Map.Entry<String, String> property : properties.entrySet()) {
+                setProperty(component, property.getKey(), property.getValue());
+            }
+            List<Component> grandchildren = new ArrayList<>();
+            for (Node child : children) {
+                child.create(component, grandchildren);
+            }
+            if (text != null) {
+                if (kind == Kind.NATIVE) {
+                    ((HtmlNativeComponent) component).setPrologContent(text);
+                } else {
+                    component.appendChild(new Label(text));
+                }
+            }
+            for (String forward : forwards) {
+                addForward(component, forward);
+            }
+            for (String composer : composers) {
+                apply(component, composer);
+            }
+        }
+
+        /**
+         * Register a {@code forward="onClick=onSave"} or {@code forward="onSave"} on the component's space owner.
+         */
+        private static void addForward(Component component, String forward) {
+            int equals = forward.indexOf('=');
+            String original = equals < 0 ? "onClick" : forward.substring(0, equals).trim();
+            String target = equals < 0 ? forward.trim() : forward.substring(equals + 1).trim();
+            component.addForward(original, (Component) null, target);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static void apply(Component component, String className) {
+            Object composer;
+            try {
+                composer = Classes.forNameByThread(className).newInstance();
+            } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+                throw new UiException("Unable to apply " + className + ": " + e.getMessage(), e);
+            }
+            if (composer instanceof Composer) {
+                try {
+                    ((Composer<Component>) composer).doAfterCompose(component);
+                } catch (Exception e) {
+                    throw new UiException(className + " failed to compose " + component + ": " + e.getMessage(), e);
+                }
+            }
+            ZKUtils.bindComposer(component, composer);
+        }
+
+        private static void setProperty(Component component, String property, String value) {
+            if ("id".equals(property)) {
+                component.setId(value);
+                return;
+            }
+            Method setter = setterOf(component.getClass(), property);
+            if (setter != null) {
+                try {
+                    setter.invoke(component, Classes.coerce(setter.getParameterTypes()[0], value));
+                } catch (InvocationTargetException e) {
+                    throw new UiException("Unable to set " + property + " of " + component + ": "
+                            + e.getCause().getMessage(), e.getCause());
+                } catch (IllegalAccessException e) {
+                    throw new UiException(e);
+                }
+            } else if (component instanceof DynamicPropertied) {
+                ((DynamicPropertied) component).setDynamicProperty(property, value);
+            } else {
+                throw new UiException("No property '" + property + "' on " + component.getClass().getName());
+            }
+        }
+
+        /**
+         * @return the setter for the property, preferring one which takes a String
+         */
+        private static Method setterOf(Class<?> type, String property) {
+            String name = "set" + Character.toUpperCase(property.charAt(0)) + property.substring(1);
+            Method found = null;
+            for (Method method : type.getMethods()) {
+                if (method.getName().equals(name) && method.getParameterTypes().length == 1) {
+                    if (method.getParameterTypes()[0] == String.class) {
+                        return method;
+                    }
+                    if (found == null) {
+                        found = method;
+                    }
+                }
+            }
+            return found;
+        }
+    }
+
+}
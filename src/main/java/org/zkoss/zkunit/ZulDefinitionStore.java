@@ -0,0 +1,319 @@
+package org.zkoss.zkunit;
+
+import org.zkoss.zk.Version;
+import org.zkoss.zk.ui.UiException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads ZUL pages from the test classpath, caching each parsed {@link ZulDefinition} so a page used by hundreds of
+ * tests is only parsed once.<br/>
+ * Pages are cached in memory for the life of the JVM, and can be serialized to a directory on disk so they survive
+ * across forked test JVMs. The disk cache is keyed by a digest of the page's content, the ZK version and the version
+ * of the cache format, so an edited page, or one cached by another version of ZK or zkunit, is always re-parsed. Only
+ * the classes a parsed page is made of are read back from the cache.
+ * <p>
+ * The shared store only caches to disk when the {@code zkunit.zul.cache} system property names a directory, which
+ * should belong to the build, such as {@code target/zkunit-zul-cache}.
+ * </p>
+ *
+ * @author Sean Connolly
+ */
+public class ZulDefinitionStore {
+
+    /**
+     * The system property naming the directory for the shared store's disk cache.
+     */
+    public static final String CACHE_DIRECTORY_PROPERTY = "zkunit.zul.cache";
+
+    private static final String WEBAPP_DIRECTORY = "src/main/webapp";
+
+    /**
+     * The version of the serialized form of a {@link ZulDefinition}, to be bumped whenever it changes.
+     */
+    private static final int CACHE_FORMAT = 2;
+
+    /**
+     * The only classes a cached page may be made of.
+     */
+    private static final Set<String> CACHED_CLASSES = new HashSet<>(Arrays.asList(ZulDefinition.class.getName(),
+            ZulDefinition.Node.class.getName(), ZulDefinition.Kind.class.getName(), Enum.class.getName(),
+            String.class.getName(), ArrayList.class.getName(), HashMap.class.getName(),
+            LinkedHashMap.class.getName()));
+
+    private final File cacheDirectory;
+    private final ConcurrentMap<String, Cached> memory = new ConcurrentHashMap<>();
+    private final AtomicInteger parses = new AtomicInteger();
+    private final AtomicInteger memoryHits = new AtomicInteger();
+    private final AtomicInteger diskHits = new AtomicInteger();
+
+    /**
+     * @param cacheDirectory the directory to serialize parsed pages to, or null to cache in memory only
+     */
+    public ZulDefinitionStore(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * @return the store shared by every test in the JVM
+     */
+    public static ZulDefinitionStore getShared() {
+        return Shared.STORE;
+    }
+
+    /**
+     * Load a page from the classpath, or failing that from {@code src/main/webapp}.<br/>
+     * The path may be written as it would be passed to {@link org.zkoss.zk.ui.Executions#createComponents(String,
+     * org.zkoss.zk.ui.Component, java.util.Map)}: a leading {@code /} is ignored and {@code ~./} refers to the
+     * classpath's {@code web} directory.
+     *
+     * @param path the path of the page
+     * @return the parsed page
+     */
+    public ZulDefinition load(String path) {
+        URL url = resolve(path);
+        if (url == null) {
+            throw new UiException("Page not found: " + path);
+        }
+        try {
+            URLConnection connection = url.openConnection();
+            long lastModified = connection.getLastModified();
+            Cached cached = memory.get(url.toString());
+            if (cached != null && cached.lastModified == lastModified) {
+                memoryHits.incrementAndGet();
+                return cached.definition;
+            }
+            byte[] content;
+            try (InputStream input = connection.getInputStream()) {
+                content = readFully(input);
+            }
+            ZulDefinition definition = load(content, path);
+            memory.put(url.toString(), new Cached(lastModified, definition));
+            return definition;
+        } catch (IOException e) {
+            throw new UiException("Unable to read " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parse ZUL markup directly, as {@link org.zkoss.zk.ui.Executions#createComponentsDirectly(String, String,
+     * org.zkoss.zk.ui.Component, java.util.Map)} does.
+     *
+     * @param content the ZUL markup
+     * @return the parsed page
+     */
+    public ZulDefinition loadDirectly(String content) {
+        String key = "content:" + content;
+        Cached cached = memory.get(key);
+        if (cached != null) {
+            memoryHits.incrementAndGet();
+            return cached.definition;
+        }
+        try {
+            ZulDefinition definition = load(content.getBytes(StandardCharsets.UTF_8), "(inline)");
+            memory.put(key, new Cached(0, definition));
+            return definition;
+        } catch (IOException e) {
+            throw new UiException(e);
+        }
+    }
+
+    private ZulDefinition load(byte[] content, String source) throws IOException {
+        File cacheFile = cacheDirectory == null ? null : new File(cacheDirectory, cacheKey(content) + ".ser");
+        if (cacheFile != null && cacheFile.isFile()) {
+            ZulDefinition definition = readCache(cacheFile);
+            if (definition != null) {
+                diskHits.incrementAndGet();
+                return definition;
+            }
+        }
+        parses.incrementAndGet();
+        ZulDefinition definition = ZulParser.parse(new ByteArrayInputStream(content), source);
+        if (cacheFile != null) {
+            writeCache(cacheFile, definition);
+        }
+        return definition;
+    }
+
+    /**
+     * Forget every page cached in memory, leaving the disk cache in place.
+     */
+    public void clear() {
+        memory.clear();
+    }
+
+    /**
+     * @return the number of pages parsed, rather than found in a cache
+     */
+    public int getParses() {
+        return parses.get();
+    }
+
+    /**
+     * @return the number of pages found in the memory cache
+     */
+    public int getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    /**
+     * @return the number of pages found in the disk cache
+     */
+    public int getDiskHits() {
+        return diskHits.get();
+    }
+
+    private static URL resolve(String path) {
+        String resource = path.startsWith("~./") ? "web/" + path.substring(3) : path;
+        while (resource.startsWith("/")) {
+            resource = resource.substring(1);
+        }
+        URL url = Thread.currentThread().getContextClassLoader().getResource(resource);
+        if (url == null) {
+            url = ZulDefinitionStore.class.getClassLoader().getResource(resource);
+        }
+        if (url == null) {
+            File file = new File(WEBAPP_DIRECTORY, resource);
+            if (file.isFile()) {
+                try {
+                    url = file.toURI().toURL();
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+        }
+        return url;
+    }
+
+    /**
+     * @return the cached page, or null if the cache file is unreadable or from an incompatible version
+     */
+    private static ZulDefinition readCache(File cacheFile) {
+        try (ObjectInputStream input = new CachedPageInputStream(new FileInputStream(cacheFile))) {
+            return (ZulDefinition) input.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Write to a temporary file first, so a concurrent fork never reads a partially written page.
+     */
+    private static void writeCache(File cacheFile, ZulDefinition definition) {
+        File directory = cacheFile.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+        try {
+            File temporary = File.createTempFile("zul", ".tmp", directory);
+            try (ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(temporary))) {
+                output.writeObject(definition);
+            }
+            if (!temporary.renameTo(cacheFile)) {
+                temporary.delete();
+            }
+        } catch (IOException e) {
+            // the disk cache is only an optimization, the page has been parsed regardless
+        }
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * @return a digest of the page's content, the ZK version and the cache format
+     */
+    private static String cacheKey(byte[] content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            String version = "zkunit-zul-" + CACHE_FORMAT + " zk-" + Version.UID + "\n";
+            digest.update(version.getBytes(StandardCharsets.UTF_8));
+            byte[] hash = digest.digest(content);
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Refuses to read anything but the classes a parsed page is made of, so a file planted in the cache directory
+     * can't instantiate arbitrary serializable classes from the test classpath.
+     */
+    private static final class CachedPageInputStream extends ObjectInputStream {
+
+        private CachedPageInputStream(InputStream input) throws IOException {
+            super(input);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass description) throws IOException, ClassNotFoundException {
+            if (!CACHED_CLASSES.contains(description.getName())) {
+                throw new InvalidClassException(description.getName(), "not part of a cached page");
+            }
+            return super.resolveClass(description);
+        }
+    }
+
+    private static final class Cached {
+
+        private final long lastModified;
+        private final ZulDefinition definition;
+
+        private Cached(long lastModified, ZulDefinition definition) {
+            this.lastModified = lastModified;
+            this.definition = definition;
+        }
+    }
+
+    /**
+     * Holds the shared store, created when it is first used.
+     */
+    private static final class Shared {
+
+        private static final ZulDefinitionStore STORE = new ZulDefinitionStore(cacheDirectory());
+
+        private static File cacheDirectory() {
+            String directory = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+            if (directory == null || directory.isEmpty() || "none".equals(directory)) {
+                return null;
+            }
+            return new File(directory);
+        }
+    }
+
+}
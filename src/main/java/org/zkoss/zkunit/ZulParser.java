@@ -0,0 +1,191 @@
+package org.zkoss.zkunit;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.zkoss.zk.ui.UiException;
+import org.zkoss.zk.ui.metainfo.ComponentDefinition;
+import org.zkoss.zk.ui.metainfo.LanguageDefinition;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Parses ZUL markup into a {@link ZulDefinition}, resolving each element against the ZUL language definition.
+ *
+ * @author Sean Connolly
+ */
+final class ZulParser {
+
+    private static final String ZUL_LANGUAGE = "xul/html";
+
+    private static final Set<String> NATIVE_NAMESPACES = new HashSet<>(Arrays.asList(
+            "native", "http://www.zkoss.org/2005/zk/native", "xhtml", "http://www.w3.org/1999/xhtml"));
+
+    private static final Set<String> IGNORED_NAMESPACES = new HashSet<>(Arrays.asList(
+            "client", "http://www.zkoss.org/2005/zk/client", "client/attribute",
+            "http://www.zkoss.org/2005/zk/client/attribute", "http://www.w3.org/2000/xmlns/"));
+
+    private static final Set<String> IGNORED_ELEMENTS = new HashSet<>(Arrays.asList("zscript", "template"));
+
+    private ZulParser() {
+        // static utility
+    }
+
+    /**
+     * @param input  the ZUL markup
+     * @param source where the markup came from, for error messages
+     * @return the parsed page
+     * @throws IOException if the markup can't be read
+     */
+    static ZulDefinition parse(InputStream input, String source) throws IOException {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setIgnoringComments(true);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            InputSource inputSource = new InputSource(input);
+            inputSource.setSystemId(source);
+            document = builder.parse(inputSource);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new UiException("Unable to parse " + source + ": " + e.getMessage(), e);
+        }
+        LanguageDefinition language = LanguageDefinition.lookup(ZUL_LANGUAGE);
+        ZulDefinition.Node page = new ZulDefinition.Node(ZulDefinition.Kind.TRANSPARENT, null);
+        parseElement(language, document.getDocumentElement(), page, source);
+        return new ZulDefinition(source, page.getChildren());
+    }
+
+    private static void parseElement(LanguageDefinition language, Element element, ZulDefinition.Node parent,
+                                     String source) {
+        String localName = element.getLocalName() == null ? element.getTagName() : element.getLocalName();
+        String namespace = element.getNamespaceURI();
+        if ("false".equals(element.getAttribute("if").trim())
+                || "true".equals(element.getAttribute("unless").trim())) {
+            return;
+        }
+        if (NATIVE_NAMESPACES.contains(namespace)) {
+            ZulDefinition.Node node = new ZulDefinition.Node(ZulDefinition.Kind.NATIVE, localName);
+            parent.addChild(node);
+            parseAttributes(element, node);
+            parseChildren(language, element, node, null, source);
+            return;
+        }
+        if (IGNORED_ELEMENTS.contains(localName)) {
+            return;
+        }
+        if ("zk".equals(localName)) {
+            parseChildren(language, element, parent, null, source);
+            return;
+        }
+        if ("attribute".equals(localName)) {
+            ZulDefinition.Node node =
+                    new ZulDefinition.Node(ZulDefinition.Kind.ATTRIBUTE, element.getAttribute("name"));
+            node.setText(trim(element.getTextContent(), element.getAttribute("trim")));
+            parent.addChild(node);
+            return;
+        }
+        if ("custom-attributes".equals(localName)) {
+            ZulDefinition.Node node = new ZulDefinition.Node(ZulDefinition.Kind.CUSTOM_ATTRIBUTES, null);
+            parseAttributes(element, node);
+            parent.addChild(node);
+            return;
+        }
+        ComponentDefinition definition = language.getComponentDefinitionIfAny(localName);
+        if (definition == null) {
+            throw new UiException("Unknown component <" + localName + "> in " + source);
+        }
+        String use = element.getAttribute("use");
+        ZulDefinition.Node node = new ZulDefinition.Node(ZulDefinition.Kind.COMPONENT,
+                use.isEmpty() ? className(definition) : use);
+        parent.addChild(node);
+        parseAttributes(element, node);
+        parseChildren(language, element, node, definition.getTextAs(), source);
+    }
+
+    private static void parseAttributes(Element element, ZulDefinition.Node node) {
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            String name = attribute.getLocalName() == null ? attribute.getName() : attribute.getLocalName();
+            String value = attribute.getValue();
+            if (IGNORED_NAMESPACES.contains(attribute.getNamespaceURI()) || name.startsWith("xmlns")) {
+                continue;
+            }
+            if ("apply".equals(name)) {
+                for (String composer : value.split(",")) {
+                    if (!composer.trim().isEmpty() && !isExpression(composer)) {
+                        node.addComposer(composer.trim());
+                    }
+                }
+            } else if ("forward".equals(name)) {
+                for (String forward : value.split(",")) {
+                    if (!forward.trim().isEmpty()) {
+                        node.addForward(forward.trim());
+                    }
+                }
+            } else if (!isIgnoredAttribute(name, value)) {
+                node.setProperty(name, value);
+            }
+        }
+    }
+
+    /**
+     * zscript event handlers, expressions and data binding annotations need a live ZK execution.
+     */
+    private static boolean isIgnoredAttribute(String name, String value) {
+        return "use".equals(name) || "if".equals(name) || "unless".equals(name)
+                || (name.startsWith("on") && name.length() > 2 && Character.isUpperCase(name.charAt(2)))
+                || isExpression(value);
+    }
+
+    private static boolean isExpression(String value) {
+        String trimmed = value.trim();
+        return trimmed.contains("${") || trimmed.contains("#{") || (trimmed.startsWith("@") && trimmed.endsWith(")"));
+    }
+
+    private static void parseChildren(LanguageDefinition language, Element element, ZulDefinition.Node node,
+                                      String textAs, String source) {
+        StringBuilder text = new StringBuilder();
+        NodeList children = element.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            org.w3c.dom.Node child = children.item(i);
+            if (child instanceof Element) {
+                parseElement(language, (Element) child, node, source);
+            } else if (child.getNodeType() == org.w3c.dom.Node.TEXT_NODE
+                    || child.getNodeType() == org.w3c.dom.Node.CDATA_SECTION_NODE) {
+                text.append(child.getNodeValue());
+            }
+        }
+        String trimmed = text.toString().trim();
+        if (trimmed.isEmpty()) {
+            return;
+        }
+        if (textAs != null) {
+            node.setProperty(textAs, trimmed);
+        } else if (!isExpression(trimmed)) {
+            node.setText(trimmed);
+        }
+    }
+
+    private static String className(ComponentDefinition definition) {
+        Object implementation = definition.getImplementationClass();
+        return implementation instanceof Class ? ((Class<?>) implementation).getName() : implementation.toString();
+    }
+
+    private static String trim(String text, String trim) {
+        return "false".equals(trim) ? text : text.trim();
+    }
+
+}
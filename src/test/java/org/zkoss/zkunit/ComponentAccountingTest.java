@@ -0,0 +1,276 @@
+package org.zkoss.zkunit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zul.Button;
+import org.zkoss.zul.Grid;
+import org.zkoss.zul.Label;
+import org.zkoss.zul.Row;
+import org.zkoss.zul.Window;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.zkoss.zkunit.ComponentAccounting.Change.ATTACHED;
+import static org.zkoss.zkunit.ComponentAccounting.Change.CREATED;
+import static org.zkoss.zkunit.ComponentAccounting.Change.DETACHED;
+import static org.zkoss.zkunit.ComponentAccounting.Change.INVALIDATED;
+import static org.zkoss.zkunit.ComponentAccounting.Change.UPDATED;
+
+/**
+ * @author Sean Connolly
+ */
+public class ComponentAccountingTest extends ZKTest {
+
+    private Grid grid;
+    private Button refresh;
+    private ComponentAccounting accounting;
+
+    @Before
+    public void buildGrid() {
+        grid = ZKUtils.getGrid(1);
+        for (int i = 0; i < 10; i++) {
+            Row row = new Row();
+            row.appendChild(new Label("row " + i));
+            grid.getRows().appendChild(row);
+        }
+        refresh = new Button("Refresh");
+        Window window = new Window();
+        window.appendChild(grid);
+        window.appendChild(refresh);
+    }
+
+    @After
+    public void stopAccounting() {
+        if (accounting != null) {
+            accounting.stop();
+        }
+    }
+
+    @Test
+    public void shouldAccountForRebuiltSubtree() {
+        // Given
+        refresh.addEventListener(Events.ON_CLICK, new RebuildingListener());
+        accounting = ComponentAccounting.start();
+        // When
+        ZKUtils.simulateEvent(Events.ON_CLICK, refresh, null);
+        // Then
+        ComponentAccounting.Account account = accounting.getLast();
+        assertEquals(Events.ON_CLICK, account.getEventName());
+        assertEquals(refresh, account.getTarget());
+        assertEquals(20, account.getCount(CREATED));
+        assertEquals(20, account.getCount(ATTACHED));
+        assertEquals(20, account.getCount(DETACHED));
+        Map<Class<?>, Integer> expected = new LinkedHashMap<>();
+        expected.put(Label.class, 10);
+        expected.put(Row.class, 10);
+        assertEquals(expected, account.getCountsByClass(CREATED));
+    }
+
+    @Test
+    public void shouldFailRebuildWithBreakdownByClass() {
+        // Given
+        refresh.addEventListener(Events.ON_CLICK, new RebuildingListener());
+        accounting = ComponentAccounting.start();
+        ZKUtils.simulateEvent(Events.ON_CLICK, refresh, null);
+        // When
+        try {
+            ZKAssert.assertCreatesAtMost(1, accounting.getLast());
+        } catch (AssertionError e) {
+            // Then
+            assertEquals("onClick to " + refresh + " created 20 components, expected at most 1:"
+                    + "\n  10 org.zkoss.zul.Label\n  10 org.zkoss.zul.Row", e.getMessage());
+            return;
+        }
+        fail("Expected the rebuild to fail");
+    }
+
+    @Test
+    public void shouldNotCountReattachedComponentAsCreated() {
+        // Given
+        final Row first = (Row) grid.getRows().getFirstChild();
+        refresh.addEventListener(Events.ON_CLICK, new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                if (first.getParent() == null) {
+                    grid.getRows().appendChild(first);
+                } else {
+                    first.detach();
+                }
+            }
+        });
+        accounting = ComponentAccounting.start();
+        // When
+        ZKUtils.simulateEvent(Events.ON_CLICK, refresh, null);
+        ZKUtils.simulateEvent(Events.ON_CLICK, refresh, null);
+        // Then
+        assertEquals(2, accounting.getAccountCount());
+        assertEquals(2, accounting.getAccounts().get(0).getCount(DETACHED));
+        assertEquals(2, accounting.getLast().getCount(ATTACHED));
+        ZKAssert.assertCreatesAtMost(0, accounting.getLast());
+        assertEquals(2, accounting.getTotal().getCount(ATTACHED));
+        assertEquals(2, accounting.getTotal().getCount(DETACHED));
+    }
+
+    @Test
+    public void shouldCountComponentsCreatedAndThrownAway() {
+        // Given
+        refresh.addEventListener(Events.ON_CLICK, new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                for (int i = 0; i < 5; i++) {
+                    new Label("scratch " + i).setValue("discarded");
+                }
+            }
+        });
+        accounting = ComponentAccounting.start();
+        // When
+        ZKUtils.simulateEvent(Events.ON_CLICK, refresh, null);
+        // Then
+        assertEquals(5, accounting.getLast().getCount(CREATED));
+        assertEquals(0, accounting.getLast().getCount(ATTACHED));
+        assertEquals(Collections.<Class<?>, Integer>singletonMap(Label.class, 5),
+                accounting.getLast().getCountsByClass(CREATED));
+    }
+
+    @Test
+    public void shouldNotCountPrebuiltComponentAsCreated() {
+        // Given
+        final Row prebuilt = new Row();
+        prebuilt.appendChild(new Label("prebuilt"));
+        refresh.addEventListener(Events.ON_CLICK, new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                grid.getRows().appendChild(prebuilt);
+            }
+        });
+        accounting = ComponentAccounting.start();
+        // When
+        ZKUtils.simulateEvent(Events.ON_CLICK, refresh, null);
+        // Then
+        assertEquals(2, accounting.getLast().getCount(ATTACHED));
+        ZKAssert.assertCreatesAtMost(0, accounting.getLast());
+    }
+
+    @Test
+    public void shouldCountSubclassConstructedAsItsOwnClass() {
+        // Given
+        refresh.addEventListener(Events.ON_CLICK, new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                grid.getRows().appendChild(new SummaryRow());
+            }
+        });
+        accounting = ComponentAccounting.start();
+        // When
+        ZKUtils.simulateEvent(Events.ON_CLICK, refresh, null);
+        // Then
+        Map<Class<?>, Integer> expected = new LinkedHashMap<>();
+        expected.put(Label.class, 1);
+        expected.put(SummaryRow.class, 1);
+        assertEquals(expected, accounting.getLast().getCountsByClass(CREATED));
+    }
+
+    @Test
+    public void shouldAccountNestedEventsToOutermost() {
+        // Given
+        refresh.addEventListener(Events.ON_CLICK, new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                Events.sendEvent(new Event("onRefresh", grid));
+            }
+        });
+        grid.addEventListener("onRefresh", new RebuildingListener());
+        accounting = ComponentAccounting.start();
+        // When
+        Events.sendEvent(new Event(Events.ON_CLICK, refresh));
+        // Then
+        assertEquals(1, accounting.getAccountCount());
+        assertEquals(Events.ON_CLICK, accounting.getLast().getEventName());
+        assertEquals(20, accounting.getLast().getCount(CREATED));
+    }
+
+    @Test
+    public void shouldCountInvalidationsAndUpdatesOnDesktop() {
+        // Given
+        SimulatedDesktop desktop = new SimulatedDesktop("accounting");
+        final Window window = new Window();
+        final Label label = new Label("unread");
+        Button button = new Button();
+        window.appendChild(label);
+        window.appendChild(button);
+        desktop.attach(window);
+        button.addEventListener(Events.ON_CLICK, new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                label.setValue("read");
+                window.invalidate();
+            }
+        });
+        accounting = ComponentAccounting.start();
+        try {
+            // When
+            ZKUtils.simulateEvent(Events.ON_CLICK, button, null);
+        } finally {
+            desktop.destroy();
+        }
+        // Then
+        ComponentAccounting.Account account = accounting.getLast();
+        assertEquals(1, account.getCount(INVALIDATED));
+        assertEquals(1, account.getCount(UPDATED));
+        assertEquals(0, account.getCount(CREATED));
+        ZKAssert.assertInvalidatesAtMost(1, account);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldOnlyRunOneAccountingAtATime() {
+        accounting = ComponentAccounting.start();
+        ComponentAccounting.start();
+    }
+
+    @Test
+    public void shouldNotAccountOnceStopped() {
+        // Given
+        refresh.addEventListener(Events.ON_CLICK, new RebuildingListener());
+        accounting = ComponentAccounting.start();
+        accounting.stop();
+        // When
+        ZKUtils.simulateEvent(Events.ON_CLICK, refresh, null);
+        // Then
+        assertEquals(0, accounting.getAccountCount());
+        assertTrue(accounting.getAccounts().isEmpty());
+    }
+
+    /**
+     * A row which builds its own children as it is constructed.
+     */
+    public static class SummaryRow extends Row {
+        public SummaryRow() {
+            appendChild(new Label("total"));
+        }
+    }
+
+    /**
+     * Replaces every row of the grid, rather than updating the rows in place.
+     */
+    private final class RebuildingListener implements EventListener<Event> {
+        @Override
+        public void onEvent(Event event) {
+            grid.getRows().getChildren().clear();
+            for (int i = 0; i < 10; i++) {
+                Row row = new Row();
+                row.appendChild(new Label("row " + i));
+                grid.getRows().appendChild(row);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+package org.zkoss.zkunit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zul.Button;
+import org.zkoss.zul.Label;
+import org.zkoss.zul.Vlayout;
+import org.zkoss.zul.Window;
+
+import java.io.Serializable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+/**
+ * {@link ComponentFixtures} should build each fixture once and give every test its own faithful copy.
+ *
+ * @author Sean Connolly
+ */
+public class ComponentFixturesTest {
+
+    @After
+    public void clearFixtures() {
+        ComponentFixtures.clear();
+    }
+
+    @Test
+    public void shouldCloneStatelessFixture() {
+        // Given
+        CountingBuilder builder = new CountingBuilder(false, false);
+        ComponentFixtures.define("inbox", builder);
+        // When
+        Window first = ComponentFixtures.get("inbox");
+        Window second = ComponentFixtures.get("inbox");
+        // Then
+        assertEquals(ComponentFixtures.Strategy.CLONE, ComponentFixtures.getStrategy("inbox"));
+        assertEquals(1, builder.builds);
+        assertNotSame(first, second);
+        ZKAssert.assertNoSharedState(first, second);
+    }
+
+    @Test
+    public void shouldGiveEachTestAnIndependentCopy() {
+        // Given
+        ComponentFixtures.define("inbox", new CountingBuilder(false, false));
+        Window first = ComponentFixtures.get("inbox");
+        // When
+        first.getFirstChild().getChildren().clear();
+        Window second = ComponentFixtures.get("inbox");
+        // Then
+        assertEquals(10, second.getFirstChild().getChildren().size());
+    }
+
+    @Test
+    public void shouldSerializeFixtureWithSerializableStatefulListener() {
+        // Given
+        CountingBuilder builder = new CountingBuilder(true, true);
+        ComponentFixtures.define("inbox", builder);
+        Window copy = ComponentFixtures.get("inbox");
+        // When
+        ZKUtils.simulateEvent(new Event(Events.ON_CLICK, copy.getLastChild()));
+        // Then
+        assertEquals(ComponentFixtures.Strategy.SERIALIZE, ComponentFixtures.getStrategy("inbox"));
+        assertEquals(1, builder.builds);
+        assertEquals(0, copy.getFirstChild().getChildren().size());
+        assertEquals(10, ComponentFixtures.<Window>get("inbox").getFirstChild().getChildren().size());
+    }
+
+    @Test
+    public void shouldRebuildFixtureWhichCanNotBeCopied() {
+        // Given
+        CountingBuilder builder = new CountingBuilder(true, false);
+        ComponentFixtures.define("inbox", builder);
+        // When
+        ComponentFixtures.get("inbox");
+        ComponentFixtures.get("inbox");
+        // Then
+        assertEquals(ComponentFixtures.Strategy.REBUILD, ComponentFixtures.getStrategy("inbox"));
+        assertEquals(3, builder.builds);
+    }
+
+    @Test(expected = AssertionError.class)
+    public void shouldFailWhenCloneSharesListenerState() {
+        // Given
+        Window original = new CountingBuilder(true, true).build();
+        // When
+        Component clone = (Component) original.clone();
+        // Then
+        ZKAssert.assertNoSharedState(original, clone);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailForUndefinedFixture() {
+        ComponentFixtures.get("missing");
+    }
+
+    private static final class CountingBuilder implements ComponentFixtures.Builder<Window> {
+
+        private final boolean withListener;
+        private final boolean serializableListener;
+        private int builds;
+
+        private CountingBuilder(boolean withListener, boolean serializableListener) {
+            this.withListener = withListener;
+            this.serializableListener = serializableListener;
+        }
+
+        @Override
+        public Window build() {
+            builds++;
+            Window window = new Window();
+            final Vlayout messages = new Vlayout();
+            for (int i = 0; i < 10; i++) {
+                messages.appendChild(new Label("message " + i));
+            }
+            window.appendChild(messages);
+            Button clear = new Button("Clear");
+            if (withListener) {
+                clear.addEventListener(Events.ON_CLICK, serializableListener
+                        ? new ClearListener(messages)
+                        : new EventListener<Event>() {
+                    @Override
+                    public void onEvent(Event event) {
+                        messages.getChildren().clear();
+                    }
+                });
+            }
+            window.appendChild(clear);
+            return window;
+        }
+    }
+
+    private static final class ClearListener implements EventListener<Event>, Serializable {
+
+        private final Component messages;
+
+        private ClearListener(Component messages) {
+            this.messages = messages;
+        }
+
+        @Override
+        public void onEvent(Event event) {
+            messages.getChildren().clear();
+        }
+    }
+
+}
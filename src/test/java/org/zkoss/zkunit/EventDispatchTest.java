@@ -0,0 +1,213 @@
+package org.zkoss.zkunit;
+
+import org.junit.Test;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zk.ui.event.ForwardEvent;
+import org.zkoss.zk.ui.select.annotation.Listen;
+import org.zkoss.zul.Button;
+import org.zkoss.zul.Window;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Events fired through {@link ZKUtils#simulateEvent(Event)} or the mocked {@link Events} should reach the same handlers
+ * they would in ZK.
+ *
+ * @author Sean Connolly
+ */
+public class EventDispatchTest extends ZKTest {
+
+    @Test
+    public void shouldInvokeEveryListenerInOrder() {
+        // Given
+        Button button = new Button();
+        List<String> calls = new ArrayList<>();
+        button.addEventListener(Events.ON_CLICK, new RecordingListener("first", calls));
+        button.addEventListener(Events.ON_CLICK, new RecordingListener("second", calls));
+        // When
+        ZKUtils.simulateEvent(new Event(Events.ON_CLICK, button));
+        // Then
+        assertEquals(2, calls.size());
+        assertEquals("first", calls.get(0));
+        assertEquals("second", calls.get(1));
+    }
+
+    @Test
+    public void shouldStopWhenPropagationIsStopped() {
+        // Given
+        Button button = new Button();
+        List<String> calls = new ArrayList<>();
+        button.addEventListener(Events.ON_CLICK, new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                event.stopPropagation();
+            }
+        });
+        button.addEventListener(Events.ON_CLICK, new RecordingListener("second", calls));
+        // When
+        Events.sendEvent(new Event(Events.ON_CLICK, button));
+        // Then
+        assertTrue(calls.isEmpty());
+    }
+
+    @Test
+    public void shouldInvokeComponentEventMethod() {
+        // Given
+        DisposableWindow window = new DisposableWindow();
+        // When
+        ZKUtils.simulateEvent(new Event("onDispose", window));
+        // Then
+        assertTrue(window.disposed);
+    }
+
+    @Test
+    public void shouldForwardToSpaceOwnerEventMethodOnceComposed() {
+        // Given
+        DisposableWindow window = new DisposableWindow();
+        Button button = new Button();
+        button.setId("dispose");
+        window.appendChild(button);
+        ZKUtils.bindComposer(window, new SaveComposer());
+        // When
+        ZKUtils.simulateEvent(new Event(Events.ON_CLICK, button));
+        // Then
+        assertTrue(window.disposed);
+    }
+
+    @Test
+    public void shouldNotForwardWithoutComposer() {
+        // Given
+        DisposableWindow window = new DisposableWindow();
+        Button button = new Button();
+        button.setId("dispose");
+        window.appendChild(button);
+        button.addEventListener(Events.ON_CLICK, new RecordingListener("clicked", new ArrayList<String>()));
+        // When
+        ZKUtils.simulateEvent(new Event(Events.ON_CLICK, button));
+        // Then
+        assertFalse(window.disposed);
+    }
+
+    @Test
+    public void shouldForwardToBoundComposerMethod() {
+        // Given
+        Window window = new Window();
+        Button button = new Button();
+        button.setId("save");
+        window.appendChild(button);
+        SaveComposer composer = new SaveComposer();
+        ZKUtils.bindComposer(window, composer);
+        // When
+        ZKUtils.simulateEvent(new Event(Events.ON_CLICK, button));
+        // Then
+        assertEquals(1, composer.forwarded.size());
+        assertEquals("onClick$save", composer.forwarded.get(0).getName());
+        assertSame(button, composer.forwarded.get(0).getOrigin().getTarget());
+        assertEquals(1, composer.listened);
+    }
+
+    @Test
+    public void shouldFollowForwardAttributes() {
+        // Given
+        Window window = new Window();
+        Button button = new Button();
+        window.appendChild(button);
+        button.addForward(Events.ON_CLICK, window, "onSave");
+        List<String> calls = new ArrayList<>();
+        window.addEventListener("onSave", new RecordingListener("saved", calls));
+        // When
+        Events.postEvent(new Event(Events.ON_CLICK, button));
+        // Then
+        assertEquals(1, calls.size());
+    }
+
+    @Test
+    public void shouldForwardToComposerAlongsideForwardAttribute() {
+        // Given
+        Window window = new Window();
+        Button button = new Button();
+        button.setId("save");
+        window.appendChild(button);
+        button.addForward(Events.ON_CLICK, window, "onSave");
+        List<String> calls = new ArrayList<>();
+        window.addEventListener("onSave", new RecordingListener("saved", calls));
+        SaveComposer composer = new SaveComposer();
+        ZKUtils.bindComposer(window, composer);
+        // When
+        ZKUtils.simulateEvent(new Event(Events.ON_CLICK, button));
+        // Then
+        assertEquals(1, calls.size());
+        assertEquals(1, composer.forwarded.size());
+        assertEquals(1, composer.listened);
+    }
+
+    @Test
+    public void shouldNotForwardTwiceOnceZKWiredForward() {
+        // Given
+        Window window = new Window();
+        Button button = new Button();
+        button.setId("save");
+        window.appendChild(button);
+        SaveComposer composer = new SaveComposer();
+        ZKUtils.bindComposer(window, composer);
+        // as a GenericForwardComposer wires it
+        button.addForward(Events.ON_CLICK, window, "onClick$save");
+        // When
+        ZKUtils.simulateEvent(new Event(Events.ON_CLICK, button));
+        // Then
+        assertEquals(1, composer.forwarded.size());
+    }
+
+    private static final class RecordingListener implements EventListener<Event> {
+
+        private final String name;
+        private final List<String> calls;
+
+        private RecordingListener(String name, List<String> calls) {
+            this.name = name;
+            this.calls = calls;
+        }
+
+        @Override
+        public void onEvent(Event event) {
+            calls.add(name);
+        }
+    }
+
+    public static class DisposableWindow extends Window {
+
+        private boolean disposed = false;
+
+        public void onDispose(Event event) {
+            disposed = true;
+        }
+
+        public void onClick$dispose(ForwardEvent event) {
+            disposed = true;
+        }
+    }
+
+    public static class SaveComposer {
+
+        private final List<ForwardEvent> forwarded = new ArrayList<>();
+        private int listened = 0;
+
+        public void onClick$save(ForwardEvent event) {
+            forwarded.add(event);
+        }
+
+        @Listen("onClick = #save; onChange = #name")
+        public void save() {
+            listened++;
+        }
+    }
+
+}
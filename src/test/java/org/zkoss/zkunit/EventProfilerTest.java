@@ -0,0 +1,124 @@
+package org.zkoss.zkunit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.EventQueue;
+import org.zkoss.zk.ui.event.EventQueues;
+import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zul.Button;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sean Connolly
+ */
+public class EventProfilerTest extends ZKTest {
+
+    private EventProfiler profiler;
+
+    @After
+    public void stopProfiler() {
+        if (profiler != null) {
+            profiler.stop();
+        }
+    }
+
+    @Test
+    public void shouldAttributeSamplesToEventAndHandler() {
+        // Given
+        Button button = new Button();
+        button.addEventListener(Events.ON_CLICK, new SlowListener());
+        profiler = EventProfiler.start(1, TimeUnit.MILLISECONDS);
+        // When
+        ZKUtils.simulateEvent(Events.ON_CLICK, button, null);
+        profiler.stop();
+        // Then
+        assertTrue(profiler.getSamples() > 0);
+        String hottest = profiler.getCollapsed().keySet().iterator().next();
+        assertTrue(hottest, hottest.startsWith("onClick " + Button.class.getName() + ";"));
+        assertTrue(hottest, hottest.contains(SlowListener.class.getName() + ".onEvent"));
+        assertTrue(hottest, !hottest.contains(EventDispatcher.class.getName()));
+    }
+
+    @Test
+    public void shouldSampleEventQueueListeners() {
+        // Given
+        EventQueue<Event> queue = EventQueues.lookup("news");
+        queue.subscribe(new SlowListener());
+        profiler = EventProfiler.start(1, TimeUnit.MILLISECONDS);
+        // When
+        queue.publish(new Event("onNews"));
+        profiler.stop();
+        // Then
+        String hottest = profiler.getCollapsed().keySet().iterator().next();
+        assertTrue(hottest, hottest.startsWith("onNews (none);" + SlowListener.class.getName() + ".onEvent"));
+    }
+
+    @Test
+    public void shouldWriteCollapsedStacks() throws Exception {
+        // Given
+        Button button = new Button();
+        button.addEventListener(Events.ON_CLICK, new SlowListener());
+        profiler = EventProfiler.start(1, TimeUnit.MILLISECONDS);
+        ZKUtils.simulateEvent(Events.ON_CLICK, button, null);
+        profiler.stop();
+        File file = File.createTempFile("zkunit-profile", ".collapsed");
+        file.deleteOnExit();
+        // When
+        profiler.writeCollapsed(file);
+        // Then
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        Map<String, Long> collapsed = profiler.getCollapsed();
+        assertEquals(collapsed.size(), lines.size());
+        long total = 0;
+        for (String line : lines) {
+            total += Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+        }
+        assertEquals(profiler.getSamples(), total);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRunOneProfilerAtATime() {
+        // Given
+        profiler = EventProfiler.start(1, TimeUnit.MILLISECONDS);
+        // When
+        EventProfiler.start(1, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void shouldNotSampleOutsideDispatch() throws Exception {
+        // Given
+        profiler = EventProfiler.start(1, TimeUnit.MILLISECONDS);
+        // When
+        Thread.sleep(20);
+        profiler.stop();
+        // Then
+        assertEquals(0, profiler.getSamples());
+    }
+
+    /**
+     * Burns CPU for long enough to be sampled many times.
+     */
+    private static final class SlowListener implements EventListener<Event> {
+
+        @Override
+        public void onEvent(Event event) {
+            long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+            double burnt = 0;
+            while (System.nanoTime() < until) {
+                burnt += Math.sqrt(burnt + 1);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+package org.zkoss.zkunit;
+
+import org.junit.Test;
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zk.ui.event.AfterSizeEvent;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zk.ui.event.InputEvent;
+import org.zkoss.zk.ui.event.ScrollEvent;
+import org.zkoss.zul.Div;
+import org.zkoss.zul.Listbox;
+import org.zkoss.zul.Textbox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sean Connolly
+ */
+public class EventStormTest {
+
+    @Test
+    public void shouldSendEveryEventOfInstantStorm() {
+        // Given
+        Textbox search = new Textbox();
+        RecordingListener listener = new RecordingListener();
+        search.addEventListener(Events.ON_CHANGING, listener);
+        // When
+        EventStorm.StormReport report = ZKUtils.simulateStorm(Events.ON_CHANGING, search)
+                .setEvents(20, 80, TimeUnit.MILLISECONDS)
+                .setBursts(3, 1, TimeUnit.SECONDS)
+                .run();
+        // Then
+        assertEquals(60, report.getGenerated());
+        assertEquals(60, report.getDelivered());
+        assertEquals(60, report.getRequests());
+        assertEquals(60, report.getHandlersInvoked());
+        assertEquals(0, report.getCoalescingRatio(), 0);
+        assertEquals("abc", ((InputEvent) listener.events.get(2)).getValue());
+        assertEquals("ab", ((InputEvent) listener.events.get(2)).getPreviousValue());
+    }
+
+    @Test
+    public void shouldOnlySendLastEventOfDebouncedBurst() {
+        // Given
+        Textbox search = new Textbox();
+        RecordingListener listener = new RecordingListener();
+        search.addEventListener(Events.ON_CHANGING, listener);
+        // When
+        EventStorm.StormReport report = ZKUtils.simulateStorm(Events.ON_CHANGING, search)
+                .setEvents(20, 80, TimeUnit.MILLISECONDS)
+                .setBursts(3, 1, TimeUnit.SECONDS)
+                .setDebounce(350, TimeUnit.MILLISECONDS)
+                .run();
+        // Then
+        assertEquals(60, report.getGenerated());
+        assertEquals(3, report.getDelivered());
+        assertEquals(0.95, report.getCoalescingRatio(), 1e-9);
+        assertEquals(20, ((InputEvent) listener.events.get(0)).getValue().length());
+    }
+
+    @Test
+    public void shouldSendEveryEventSlowerThanDebounce() {
+        // Given
+        Listbox listbox = new Listbox();
+        RecordingListener listener = new RecordingListener();
+        listbox.addEventListener(Events.ON_SCROLL, listener);
+        // When
+        EventStorm.StormReport report = ZKUtils.simulateStorm(Events.ON_SCROLL, listbox)
+                .setEvents(10, 500, TimeUnit.MILLISECONDS)
+                .setDebounce(350, TimeUnit.MILLISECONDS)
+                .run();
+        // Then
+        assertEquals(10, report.getDelivered());
+        assertEquals(90, ((ScrollEvent) listener.events.get(9)).getPos());
+    }
+
+    @Test
+    public void shouldHoldDeferrableEventsUntilEndOfBurst() {
+        // Given
+        Div panel = new Div();
+        RecordingListener listener = new RecordingListener();
+        panel.addEventListener(Events.ON_AFTER_SIZE, listener);
+        // When
+        EventStorm.StormReport report = ZKUtils.simulateStorm(Events.ON_AFTER_SIZE, panel)
+                .setEvents(50, 16, TimeUnit.MILLISECONDS)
+                .setBursts(2, 1, TimeUnit.SECONDS)
+                .setDeferrable(true)
+                .run();
+        // Then
+        assertEquals(100, report.getGenerated());
+        assertEquals(2, report.getDelivered());
+        assertEquals(2, report.getRequests());
+        assertEquals(849, ((AfterSizeEvent) listener.events.get(1)).getWidth());
+    }
+
+    @Test
+    public void shouldCoalesceDebouncedEventsAcrossShortPauses() {
+        // Given
+        Div panel = new Div();
+        RecordingListener listener = new RecordingListener();
+        panel.addEventListener("onDrag", listener);
+        // When
+        EventStorm.StormReport report = ZKUtils.simulateStorm("onDrag", panel)
+                .setEvents(5, 10, TimeUnit.MILLISECONDS)
+                .setBursts(4, 100, TimeUnit.MILLISECONDS)
+                .setDebounce(200, TimeUnit.MILLISECONDS)
+                .run();
+        // Then
+        assertEquals(1, report.getDelivered());
+        assertEquals(4, listener.events.get(0).getData());
+    }
+
+    @Test
+    public void shouldMeasureServerWork() {
+        // Given
+        Textbox search = new Textbox();
+        search.addEventListener(Events.ON_CHANGING, new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) throws Exception {
+                Thread.sleep(1);
+            }
+        });
+        // When
+        EventStorm.StormReport report = ZKUtils.simulateStorm(Events.ON_CHANGING, search)
+                .setEvents(10, 50, TimeUnit.MILLISECONDS)
+                .setBursts(2, 1, TimeUnit.SECONDS)
+                .setEventFactory(new EventStorm.EventFactory() {
+                    @Override
+                    public Event create(String name, Component target, int index) {
+                        return new InputEvent(name, target, "query", null);
+                    }
+                })
+                .run();
+        // Then
+        assertTrue(report.getServerNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(report.getServerNanos() / 2.0, report.getServerNanosPerBurst(), 1);
+        assertTrue(report.getThroughput() > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNoBursts() {
+        ZKUtils.simulateStorm(Events.ON_CHANGING, new Textbox()).setBursts(0, 1, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNegativeEventsPerBurst() {
+        ZKUtils.simulateStorm(Events.ON_CHANGING, new Textbox()).setEvents(-1, 80, TimeUnit.MILLISECONDS);
+    }
+
+    private static final class RecordingListener implements EventListener<Event> {
+
+        private final List<Event> events = new ArrayList<>();
+
+        @Override
+        public void onEvent(Event event) {
+            events.add(event);
+        }
+    }
+
+}
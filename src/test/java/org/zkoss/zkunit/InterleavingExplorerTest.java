@@ -0,0 +1,236 @@
+package org.zkoss.zkunit;
+
+import org.junit.Test;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.EventQueue;
+import org.zkoss.zk.ui.event.EventQueues;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sean Connolly
+ */
+public class InterleavingExplorerTest extends ZKTest {
+
+    @Test
+    public void shouldExploreEveryOrderOfListenersAndCallbacks() {
+        // Given
+        final List<List<String>> orders = new ArrayList<>();
+        InterleavingExplorer explorer = new InterleavingExplorer(new InterleavingExplorer.Scenario() {
+            private final List<String> order = new ArrayList<>();
+
+            @Override
+            public void run() {
+                order.clear();
+                EventQueue<Event> queue = EventQueues.lookup("news");
+                queue.subscribe(recorder(order, "a"), recorder(order, "A"));
+                queue.subscribe(recorder(order, "b"), recorder(order, "B"));
+                queue.publish(new Event("onNews"));
+            }
+
+            @Override
+            public void verify() {
+                orders.add(new ArrayList<>(order));
+            }
+        });
+        // When
+        InterleavingExplorer.Result result = explorer.exploreAll();
+        // Then
+        assertTrue(result.isExhaustive());
+        assertEquals(6, result.getSchedules());
+        for (List<String> order : orders) {
+            assertTrue(order.indexOf("a") < order.indexOf("A"));
+            assertTrue(order.indexOf("b") < order.indexOf("B"));
+        }
+        ZKAssert.assertAllSchedulesPass(result);
+    }
+
+    @Test
+    public void shouldFindAndReplayLostUpdate() {
+        // Given
+        InterleavingExplorer explorer = new InterleavingExplorer(new LostUpdateScenario());
+        // When
+        InterleavingExplorer.Result result = explorer.exploreAll();
+        // Then
+        assertFalse(result.getFailures().isEmpty());
+        InterleavingExplorer.Failure failure = result.getFailures().get(0);
+        InterleavingExplorer.Result replayed = explorer.replay(failure.getSchedule());
+        assertEquals(1, replayed.getFailures().size());
+        assertEquals(failure.getTrace(), replayed.getFailures().get(0).getTrace());
+    }
+
+    @Test
+    public void shouldReplayRandomScheduleFromSeed() {
+        // Given
+        InterleavingExplorer explorer = new InterleavingExplorer(new LostUpdateScenario());
+        // When
+        InterleavingExplorer.Result result = explorer.exploreRandom(42, 200);
+        // Then
+        assertEquals(200, result.getSchedules());
+        assertFalse(result.getFailures().isEmpty());
+        InterleavingExplorer.Failure failure = result.getFailures().get(0);
+        InterleavingExplorer.Result replayed = explorer.replay(failure.getSeed());
+        assertEquals(failure.getSchedule(), replayed.getFailures().get(0).getSchedule());
+    }
+
+    @Test
+    public void shouldDeliverToSynchronousListenerInPublishOrder() {
+        // Given
+        InterleavingExplorer explorer = new InterleavingExplorer(new InterleavingExplorer.Scenario() {
+            private final List<String> order = new ArrayList<>();
+
+            @Override
+            public void run() {
+                order.clear();
+                EventQueue<Event> queue = EventQueues.lookup("news");
+                queue.subscribe(new EventListener<Event>() {
+                    @Override
+                    public void onEvent(Event event) {
+                        order.add(event.getName());
+                    }
+                });
+                queue.subscribe(recorder(new ArrayList<String>(), "other"), true);
+                queue.publish(new Event("onFirst"));
+                queue.publish(new Event("onSecond"));
+            }
+
+            @Override
+            public void verify() {
+                assertEquals("[onFirst, onSecond]", order.toString());
+            }
+        });
+        // When
+        InterleavingExplorer.Result result = explorer.exploreAll();
+        // Then
+        assertEquals(12, result.getSchedules());
+        ZKAssert.assertAllSchedulesPass(result);
+    }
+
+    @Test
+    public void shouldScheduleEventsPublishedByListeners() {
+        // Given
+        final List<String> delivered = new ArrayList<>();
+        InterleavingExplorer explorer = new InterleavingExplorer(new InterleavingExplorer.Scenario() {
+            @Override
+            public void run() {
+                delivered.clear();
+                EventQueues.lookup("requests").subscribe(new EventListener<Event>() {
+                    @Override
+                    public void onEvent(Event event) {
+                        EventQueues.lookup("replies").publish(new Event("onReply"));
+                    }
+                });
+                EventQueues.lookup("replies").subscribe(recorder(delivered, "reply"));
+                EventQueues.lookup("requests").publish(new Event("onRequest"));
+            }
+        });
+        // When
+        InterleavingExplorer.Result result = explorer.exploreAll();
+        // Then
+        assertEquals(1, result.getSchedules());
+        assertEquals("[reply]", delivered.toString());
+    }
+
+    @Test
+    public void shouldPruneSchedulesReachingExploredStates() {
+        // Given
+        final int subscribers = 6;
+        InterleavingExplorer explorer = new InterleavingExplorer(new InterleavingExplorer.Scenario() {
+            private final int[] count = new int[1];
+
+            @Override
+            public void run() {
+                count[0] = 0;
+                EventQueue<Event> queue = EventQueues.lookup("news");
+                for (int i = 0; i < subscribers; i++) {
+                    queue.subscribe(new EventListener<Event>() {
+                        @Override
+                        public void onEvent(Event event) {
+                            count[0]++;
+                        }
+                    }, true);
+                }
+                queue.publish(new Event("onNews"));
+            }
+
+            @Override
+            public void verify() {
+                assertEquals(subscribers, count[0]);
+            }
+
+            @Override
+            public Object state() {
+                return count[0];
+            }
+        });
+        // When
+        InterleavingExplorer.Result result = explorer.exploreAll();
+        // Then
+        assertTrue(result.isExhaustive());
+        assertTrue(result.getPruned() > 0);
+        assertTrue(result.getSchedules() + result.getPruned() < 720);
+        ZKAssert.assertAllSchedulesPass(result);
+    }
+
+    @Test
+    public void shouldStopAtMaxSchedules() {
+        // Given
+        InterleavingExplorer explorer = new InterleavingExplorer(new LostUpdateScenario()).setMaxSchedules(3);
+        // When
+        InterleavingExplorer.Result result = explorer.exploreAll();
+        // Then
+        assertFalse(result.isExhaustive());
+        assertEquals(3, result.getSchedules());
+    }
+
+    private static EventListener<Event> recorder(final List<String> order, final String name) {
+        return new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                order.add(name);
+            }
+        };
+    }
+
+    /**
+     * Two subscribers each read a counter in their asynchronous listener and write it back, incremented, in their
+     * callback; so an update is lost whenever both listeners run before either callback.
+     */
+    private static final class LostUpdateScenario extends InterleavingExplorer.Scenario {
+
+        private final int[] counter = new int[1];
+
+        @Override
+        public void run() {
+            counter[0] = 0;
+            EventQueue<Event> queue = EventQueues.lookup("counter");
+            for (int i = 0; i < 2; i++) {
+                final int[] read = new int[1];
+                queue.subscribe(new EventListener<Event>() {
+                    @Override
+                    public void onEvent(Event event) {
+                        read[0] = counter[0];
+                    }
+                }, new EventListener<Event>() {
+                    @Override
+                    public void onEvent(Event event) {
+                        counter[0] = read[0] + 1;
+                    }
+                });
+            }
+            queue.publish(new Event("onIncrement"));
+        }
+
+        @Override
+        public void verify() {
+            assertEquals(2, counter[0]);
+        }
+    }
+
+}
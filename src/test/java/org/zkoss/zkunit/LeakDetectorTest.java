@@ -0,0 +1,270 @@
+package org.zkoss.zkunit;
+
+import org.junit.Test;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.EventQueue;
+import org.zkoss.zk.ui.event.EventQueues;
+import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zul.Button;
+import org.zkoss.zul.Label;
+import org.zkoss.zul.Window;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Sean Connolly
+ */
+public class LeakDetectorTest extends ZKTest {
+
+    @Test
+    public void shouldReportSubscriberRetainingDetachedComponent() {
+        // Given
+        Window root = new Window();
+        Inbox inbox = new Inbox();
+        inbox.setParent(root);
+        LeakDetector detector = new LeakDetector().watch(inbox);
+        // When
+        inbox.detach();
+        List<LeakDetector.Leak> leaks = detector.findLeaks();
+        // Then
+        assertEquals(1, leaks.size());
+        LeakDetector.Leak leak = leaks.get(0);
+        assertSame(inbox, leak.getComponent());
+        assertTrue(leak.getRoot(), leak.getRoot().startsWith("queue 'mail' subscriber"));
+        assertEquals("[this$0 (LeakDetectorTest$Inbox 'inbox')]", leak.getPath().toString());
+    }
+
+    @Test
+    public void shouldNotReportUnsubscribedComponent() {
+        // Given
+        Inbox inbox = new Inbox();
+        LeakDetector detector = new LeakDetector().watch(inbox);
+        // When
+        inbox.close();
+        // Then
+        ZKAssert.assertNoLeaks(detector);
+    }
+
+    @Test
+    public void shouldReportDescendantReachedThroughFields() {
+        // Given
+        Window window = new Window();
+        Label unread = new Label();
+        window.appendChild(unread);
+        final Holder holder = new Holder(unread);
+        EventQueues.lookup("mail").subscribe(new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                holder.label.setValue("1");
+            }
+        });
+        LeakDetector detector = new LeakDetector().watch(window);
+        // When
+        window.detach();
+        List<LeakDetector.Leak> leaks = detector.findLeaks();
+        // Then
+        assertEquals(1, leaks.size());
+        assertSame(unread, leaks.get(0).getComponent());
+        assertEquals("[val$holder (LeakDetectorTest$Holder), label (Label)]", leaks.get(0).getPath().toString());
+    }
+
+    @Test
+    public void shouldReportLiveComponentListenerRetainingDetachedComponent() {
+        // Given
+        Button refresh = new Button();
+        final Window dialog = new Window();
+        refresh.addEventListener(Events.ON_CLICK, new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                dialog.doModal();
+            }
+        });
+        LeakDetector detector = new LeakDetector().watch(dialog).addRoot(refresh);
+        // When
+        List<LeakDetector.Leak> leaks = detector.findLeaks();
+        // Then
+        assertEquals(1, leaks.size());
+        assertTrue(leaks.get(0).getRoot(), leaks.get(0).getRoot().startsWith("Button listener 'onClick'"));
+    }
+
+    @Test
+    public void shouldReportLeaksAfterDesktopDestroyed() {
+        // Given
+        SimulatedDesktop desktop = new SimulatedDesktop("leaky");
+        Inbox inbox = desktop.attach(new Inbox());
+        LeakDetector detector = new LeakDetector().watch(desktop);
+        // When
+        desktop.destroy();
+        // Then
+        try {
+            ZKAssert.assertNoLeaks(detector);
+        } catch (AssertionError e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("1 leak:"));
+            assertTrue(e.getMessage(), e.getMessage().contains("LeakDetectorTest$Inbox 'inbox' retained by queue"));
+            inbox.close();
+            ZKAssert.assertNoLeaks(detector);
+            return;
+        }
+        fail("Expected a leak");
+    }
+
+    @Test
+    public void shouldReportComponentRetainedByFieldOfLiveComponent() {
+        // Given
+        final Dashboard dashboard = new Dashboard();
+        Window detail = new Window();
+        dashboard.detail = detail;
+        EventQueues.lookup("mail").subscribe(new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                dashboard.invalidate();
+            }
+        });
+        LeakDetector detector = new LeakDetector().watch(detail);
+        // When
+        List<LeakDetector.Leak> leaks = detector.findLeaks();
+        // Then
+        assertEquals(1, leaks.size());
+        assertEquals("[val$dashboard (LeakDetectorTest$Dashboard), detail (Window)]",
+                leaks.get(0).getPath().toString());
+    }
+
+    @Test
+    public void shouldNotFollowComponentBackToItsParent() {
+        // Given
+        Window root = new Window();
+        final Label live = new Label();
+        Label sibling = new Label();
+        root.appendChild(live);
+        root.appendChild(sibling);
+        EventQueues.lookup("mail").subscribe(new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                live.setValue("1");
+            }
+        });
+        LeakDetector detector = new LeakDetector().watch(sibling);
+        // When
+        List<LeakDetector.Leak> leaks = detector.findLeaks();
+        // Then
+        assertTrue(leaks.toString(), leaks.isEmpty());
+    }
+
+    @Test
+    public void shouldReportSubscriberOfClusteredQueue() {
+        // Given
+        SimulatedNode node = new SimulatedCluster().addNode();
+        joinCluster(node);
+        final Label unread = new Label();
+        EventQueues.lookup("mail", EventQueues.APPLICATION, true).subscribe(new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                unread.setValue("1");
+            }
+        });
+        LeakDetector detector = new LeakDetector().watch(unread);
+        // When
+        List<LeakDetector.Leak> leaks = detector.findLeaks();
+        // Then
+        assertEquals(1, leaks.size());
+        assertTrue(leaks.get(0).getRoot(), leaks.get(0).getRoot().startsWith("queue 'node0/mail' subscriber"));
+    }
+
+    @Test
+    public void shouldReportComponentReachedThroughCollections() {
+        // Given
+        Label unread = new Label();
+        final List<Object> rows = new ArrayList<>();
+        rows.add("header");
+        rows.add(Collections.singletonMap("unread", unread));
+        EventQueues.lookup("mail").subscribe(new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                rows.clear();
+            }
+        });
+        LeakDetector detector = new LeakDetector().watch(unread);
+        // When
+        List<LeakDetector.Leak> leaks = detector.findLeaks();
+        // Then
+        assertEquals(1, leaks.size());
+        assertEquals("[val$rows (ArrayList), [1] (Collections$SingletonMap), value[0] (Label)]",
+                leaks.get(0).getPath().toString());
+    }
+
+    @Test
+    public void shouldFailWhenWalkIsTruncated() {
+        // Given
+        final Object[] cache = new Object[LeakDetector.MAX_OBJECTS];
+        for (int i = 0; i < cache.length; i++) {
+            cache[i] = new Object();
+        }
+        EventQueues.lookup("mail").subscribe(new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                cache[0] = event;
+            }
+        });
+        LeakDetector detector = new LeakDetector().watch(new Label());
+        // When
+        try {
+            ZKAssert.assertNoLeaks(detector);
+        } catch (AssertionError e) {
+            // Then
+            assertEquals(1, detector.getTruncated().size());
+            assertTrue(e.getMessage(), e.getMessage().endsWith(
+                    " reaches more than " + LeakDetector.MAX_OBJECTS + " objects, so may retain more"));
+            return;
+        }
+        fail("Expected the truncated walk to fail");
+    }
+
+    /**
+     * Subscribes to the mail queue when created, and only unsubscribes when closed.
+     */
+    private static final class Inbox extends Window {
+
+        private final EventQueue<Event> queue = EventQueues.lookup("mail");
+        private final EventListener<Event> listener = new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                setTitle(String.valueOf(event.getData()));
+            }
+        };
+
+        private Inbox() {
+            setId("inbox");
+            queue.subscribe(listener);
+        }
+
+        private void close() {
+            queue.unsubscribe(listener);
+        }
+    }
+
+    /**
+     * Holds the detail panel it shows in a field, rather than as a child.
+     */
+    private static final class Dashboard extends Window {
+
+        private Window detail;
+    }
+
+    private static final class Holder {
+
+        private final Label label;
+
+        private Holder(Label label) {
+            this.label = label;
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package org.zkoss.zkunit;
+
+import org.junit.Test;
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zul.Label;
+import org.zkoss.zul.ListModelList;
+import org.zkoss.zul.Listcell;
+import org.zkoss.zul.Listitem;
+import org.zkoss.zul.ListitemRenderer;
+import org.zkoss.zul.Row;
+import org.zkoss.zul.RowRenderer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A {@link RendererBenchmark} should render every item of the model, serially or in parallel, and measure it.
+ *
+ * @author Sean Connolly
+ */
+public class RendererBenchmarkTest {
+
+    @Test
+    public void shouldRenderEveryRowInOrder() {
+        // Given
+        RendererBenchmark<Integer> benchmark = ZKUtils.benchmarkRenderer(new LabelRowRenderer(), model(100));
+        // When
+        List<Component> rows = benchmark.renderAll();
+        // Then
+        assertEquals(100, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertTrue(rows.get(i) instanceof Row);
+            assertEquals(String.valueOf(i), ((Label) rows.get(i).getFirstChild()).getValue());
+        }
+    }
+
+    @Test
+    public void shouldRenderEveryRowInOrderInParallel() {
+        // Given
+        RendererBenchmark<Integer> benchmark = ZKUtils.benchmarkRenderer(new LabelRowRenderer(), model(1001))
+                .setParallel(new ForkJoinPool(4), 7);
+        // When
+        List<Component> rows = benchmark.renderAll();
+        // Then
+        assertEquals(1001, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(String.valueOf(i), ((Label) rows.get(i).getFirstChild()).getValue());
+        }
+    }
+
+    @Test
+    public void shouldRenderListitems() {
+        // Given
+        ListitemRenderer<Integer> renderer = new ListitemRenderer<Integer>() {
+            @Override
+            public void render(Listitem item, Integer data, int index) {
+                item.appendChild(new Listcell(String.valueOf(data)));
+            }
+        };
+        // When
+        List<Component> items = ZKUtils.benchmarkRenderer(renderer, model(10)).renderAll();
+        // Then
+        assertEquals(10, items.size());
+        assertTrue(items.get(0) instanceof Listitem);
+    }
+
+    @Test
+    public void shouldReportEachMeasuredRound() {
+        // Given
+        RendererBenchmark<Integer> benchmark = ZKUtils.benchmarkRenderer(new LabelRowRenderer(), model(50))
+                .setWarmupRounds(1)
+                .setMeasuredRounds(3);
+        // When
+        RendererBenchmark.RenderReport report = benchmark.run();
+        // Then
+        assertEquals(50, report.getItems());
+        assertEquals(3, report.getRounds().size());
+        assertEquals(2.0, report.getComponentsPerItem(), 0.0);
+        assertTrue(report.getMeanNanosPerItem() > 0);
+        assertTrue(report.getBestNanosPerItem() <= report.getMeanNanosPerItem());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void shouldFailWhenTheRendererFails() {
+        // Given
+        RowRenderer<Integer> renderer = new RowRenderer<Integer>() {
+            @Override
+            public void render(Row row, Integer data, int index) throws Exception {
+                throw new Exception("broken");
+            }
+        };
+        // When
+        ZKUtils.benchmarkRenderer(renderer, model(1)).renderAll();
+    }
+
+    private static ListModelList<Integer> model(int size) {
+        List<Integer> data = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            data.add(i);
+        }
+        return new ListModelList<>(data);
+    }
+
+    private static final class LabelRowRenderer implements RowRenderer<Integer> {
+
+        @Override
+        public void render(Row row, Integer data, int index) {
+            row.appendChild(new Label(String.valueOf(data)));
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package org.zkoss.zkunit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zul.Label;
+import org.zkoss.zul.ListModelList;
+import org.zkoss.zul.Row;
+import org.zkoss.zul.RowRenderer;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders a grid's rows with a {@link RendererBenchmark} under JMH, serially and across all cores, leaving the warmup,
+ * forking and statistics to JMH.<br/>
+ * Not a test; run it directly, optionally passing a JMH regular expression for the benchmarks to run.
+ *
+ * @author Sean Connolly
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RendererJmhBenchmark {
+
+    @Param({"100", "10000"})
+    public int rows;
+
+    private RendererBenchmark<Integer> serial;
+    private RendererBenchmark<Integer> parallel;
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : RendererJmhBenchmark.class.getSimpleName();
+        new Runner(new OptionsBuilder().include(include).build()).run();
+    }
+
+    @Setup
+    public void buildModel() {
+        ListModelList<Integer> model = new ListModelList<>();
+        for (int i = 0; i < rows; i++) {
+            model.add(i);
+        }
+        serial = ZKUtils.benchmarkRenderer(new OrderRowRenderer(), model);
+        parallel = ZKUtils.benchmarkRenderer(new OrderRowRenderer(), model).setParallel();
+    }
+
+    @Benchmark
+    public List<Component> renderSerially() {
+        return serial.renderAll();
+    }
+
+    @Benchmark
+    public List<Component> renderInParallel() {
+        return parallel.renderAll();
+    }
+
+    /**
+     * Renders each order into a row of three labels, as a typical grid does.
+     */
+    private static final class OrderRowRenderer implements RowRenderer<Integer> {
+        @Override
+        public void render(Row row, Integer order, int index) {
+            row.appendChild(new Label("#" + order));
+            row.appendChild(new Label("customer " + order % 97));
+            row.appendChild(new Label(String.valueOf(order * 3)));
+        }
+    }
+
+}
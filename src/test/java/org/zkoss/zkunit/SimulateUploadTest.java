@@ -0,0 +1,190 @@
+package org.zkoss.zkunit;
+
+import org.junit.Test;
+import org.zkoss.util.media.Media;
+import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zk.ui.event.UploadEvent;
+import org.zkoss.zul.Button;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Sean Connolly
+ */
+public class SimulateUploadTest {
+
+    @Test
+    public void shouldStreamLargeUploadWithoutHeap() throws Exception {
+        // Given
+        Button button = new Button();
+        button.addEventListener(Events.ON_UPLOAD, new StreamingHandler());
+        try (FileMedia media = FileMedia.ofSize("backup.zip", 256L << 20, "application/zip")) {
+            // When
+            FileMedia.Report report = ZKUtils.simulateUpload(button, media);
+            // Then
+            assertEquals(256L << 20, report.getBytesUploaded());
+            assertEquals(256L << 20, report.getBytesStreamed());
+            assertEquals(0, report.getBytesInHeap());
+            assertTrue(report.getConsumptionRate() > 0);
+        }
+    }
+
+    @Test
+    public void shouldFailHandlerPullingLargeUploadIntoHeap() throws Exception {
+        // Given
+        Button button = new Button();
+        button.addEventListener(Events.ON_UPLOAD, new EventListener<UploadEvent>() {
+            @Override
+            public void onEvent(UploadEvent event) {
+                event.getMedia().getByteData();
+            }
+        });
+        try (FileMedia media = FileMedia.ofSize("backup.zip", 2 << 20, "application/zip").setMaxHeapBytes(1 << 20)) {
+            // When
+            try {
+                ZKUtils.simulateUpload(button, media);
+            } catch (AssertionError e) {
+                // Then
+                assertEquals("getByteData() of 'backup.zip' would pull 2097152 bytes into heap, more than the "
+                        + "1048576 allowed; stream it with getStreamData() instead", e.getMessage());
+                assertEquals(0, media.getBytesInHeap());
+                return;
+            }
+            fail("Expected getByteData() to fail");
+        }
+    }
+
+    @Test
+    public void shouldMeasureEachFileOfMultiFileUpload() throws Exception {
+        // Given
+        File csv = Files.createTempFile("orders", ".csv").toFile();
+        csv.deleteOnExit();
+        Files.write(csv.toPath(), "id,total\n1,10\n2,20\n".getBytes(StandardCharsets.UTF_8));
+        final StringBuilder text = new StringBuilder();
+        Button button = new Button();
+        button.addEventListener(Events.ON_UPLOAD, new EventListener<UploadEvent>() {
+            @Override
+            public void onEvent(UploadEvent event) throws IOException {
+                for (Media media : event.getMedias()) {
+                    if (media.isBinary()) {
+                        drain(media.getStreamData());
+                    } else {
+                        text.append(media.getStringData());
+                    }
+                }
+            }
+        });
+        try (FileMedia orders = FileMedia.streamed(csv, "text/csv");
+             FileMedia archive = FileMedia.ofSize("archive.zip", 1 << 20, "application/zip")) {
+            // When
+            FileMedia.Report report = ZKUtils.simulateUpload(button, orders, archive);
+            // Then
+            assertEquals("id,total\n1,10\n2,20\n", text.toString());
+            assertEquals("csv", orders.getFormat());
+            assertEquals(2 * csv.length(), orders.getBytesInHeap());
+            assertEquals(1 << 20, archive.getBytesStreamed());
+            assertEquals(csv.length() + (1 << 20), report.getBytesUploaded());
+            assertEquals(2 * csv.length(), report.getBytesInHeap());
+        } finally {
+            Files.delete(csv.toPath());
+        }
+    }
+
+    @Test
+    public void shouldReadMappedAndStreamedFilesAlike() throws Exception {
+        // Given
+        File file = Files.createTempFile("data", ".bin").toFile();
+        file.deleteOnExit();
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        Files.write(file.toPath(), data);
+        try {
+            // When
+            byte[] mapped = read(FileMedia.mapped(file, "application/octet-stream").getStreamData());
+            byte[] streamed = read(FileMedia.streamed(file, "application/octet-stream").getStreamData());
+            // Then
+            assertTrue(Arrays.equals(data, mapped));
+            assertTrue(Arrays.equals(data, streamed));
+        } finally {
+            Files.delete(file.toPath());
+        }
+    }
+
+    @Test
+    public void shouldCloseStreamsLeftOpenAndDeleteTemporaryFile() throws Exception {
+        // Given
+        FileMedia media = FileMedia.ofSize("backup.zip", 1 << 20, "application/zip");
+        InputStream abandoned = media.getStreamData();
+        abandoned.read(new byte[1024]);
+        // When
+        media.close();
+        // Then
+        assertFalse(media.getFile().exists());
+        try {
+            abandoned.read(new byte[1024]);
+            fail("Expected the abandoned stream to be closed");
+        } catch (IOException e) {
+            // closed
+        }
+    }
+
+    @Test
+    public void shouldNotDeleteFileGivenToMedia() throws Exception {
+        // Given
+        File file = Files.createTempFile("orders", ".csv").toFile();
+        file.deleteOnExit();
+        FileMedia media = FileMedia.streamed(file, "text/csv");
+        // When
+        media.close();
+        // Then
+        assertTrue(file.exists());
+        Files.delete(file.toPath());
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[64 << 10];
+        try (InputStream stream = in) {
+            while (stream.read(buffer) >= 0) {
+                // discard
+            }
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        try (InputStream stream = in) {
+            for (int read; (read = stream.read(buffer)) >= 0; ) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Streams every uploaded file through a small buffer, as a well behaved handler should.
+     */
+    private static final class StreamingHandler implements EventListener<UploadEvent> {
+        @Override
+        public void onEvent(UploadEvent event) throws IOException {
+            for (Media media : event.getMedias()) {
+                drain(media.getStreamData());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+package org.zkoss.zkunit;
+
+import org.junit.Test;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.EventQueue;
+import org.zkoss.zk.ui.event.EventQueues;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sean Connolly
+ */
+public class SimulatedClusterTest extends ZKTest {
+
+    @Test
+    public void shouldDeliverLocallyBeforeBrokerDelivers() {
+        // Given
+        SimulatedCluster cluster = new SimulatedCluster().setLatency(50);
+        SimulatedNode local = cluster.addNode();
+        SimulatedNode remote = cluster.addNode();
+        RecordingListener localListener = subscribe(local, "news");
+        RecordingListener remoteListener = subscribe(remote, "news");
+        // When
+        local.<Event>lookup("news").publish(new Event("onNews"));
+        // Then
+        assertEquals(1, localListener.events.size());
+        assertEquals(0, remoteListener.events.size());
+    }
+
+    @Test
+    public void shouldDeliverToRemoteNodesAfterLatency() {
+        // Given
+        SimulatedCluster cluster = new SimulatedCluster().setLatency(50);
+        SimulatedNode local = cluster.addNode();
+        SimulatedNode remote = cluster.addNode();
+        RecordingListener remoteListener = subscribe(remote, "news");
+        local.<Event>lookup("news").publish(new Event("onNews"));
+        // When
+        cluster.advance(49);
+        int beforeLatency = remoteListener.events.size();
+        cluster.advance(1);
+        // Then
+        assertEquals(0, beforeLatency);
+        assertEquals(1, remoteListener.events.size());
+        assertEquals(50, cluster.getStats().getMaxLatency());
+    }
+
+    @Test
+    public void shouldFanOutToEverySubscriberOnEveryNode() {
+        // Given
+        SimulatedCluster cluster = new SimulatedCluster().setBatchWindow(10);
+        SimulatedNode publisher = cluster.addNode();
+        List<RecordingListener> listeners = new ArrayList<>();
+        for (int n = 0; n < 4; n++) {
+            SimulatedNode node = cluster.addNode();
+            for (int s = 0; s < 250; s++) {
+                listeners.add(subscribe(node, "news"));
+            }
+        }
+        // When
+        for (int i = 0; i < 20; i++) {
+            publisher.<Event>lookup("news").publish(new Event("onNews", null, i));
+        }
+        cluster.flush();
+        // Then
+        for (RecordingListener listener : listeners) {
+            assertEquals(20, listener.events.size());
+        }
+        SimulatedCluster.Stats stats = cluster.getStats();
+        assertEquals(20, stats.getPublished());
+        assertEquals(80, stats.getMessagesDelivered());
+        assertEquals(4, stats.getBatchesDelivered());
+        assertEquals(20000, stats.getListenersInvoked());
+        assertEquals(0, stats.getOutOfOrderDeliveries());
+    }
+
+    @Test
+    public void shouldSplitBatchesAtBatchSize() {
+        // Given
+        SimulatedCluster cluster = new SimulatedCluster().setBatchWindow(100).setBatchSize(3);
+        SimulatedNode publisher = cluster.addNode();
+        subscribe(cluster.addNode(), "news");
+        // When
+        for (int i = 0; i < 7; i++) {
+            publisher.<Event>lookup("news").publish(new Event("onNews"));
+        }
+        cluster.flush();
+        // Then
+        assertEquals(3, cluster.getStats().getBatchesDelivered());
+    }
+
+    @Test
+    public void shouldDetectReorderingUnderJitter() {
+        // Given
+        SimulatedCluster cluster = new SimulatedCluster(42).setLatency(10).setJitter(100).setBatchSize(1);
+        SimulatedNode publisher = cluster.addNode();
+        RecordingListener listener = subscribe(cluster.addNode(), "news");
+        // When
+        for (int i = 0; i < 100; i++) {
+            publisher.<Event>lookup("news").publish(new Event("onNews", null, i));
+        }
+        cluster.flush();
+        // Then
+        assertEquals(100, listener.events.size());
+        assertTrue(cluster.getStats().getOutOfOrderDeliveries() > 0);
+    }
+
+    @Test
+    public void shouldRouteApplicationQueuesToClusterNode() {
+        // Given
+        SimulatedCluster cluster = new SimulatedCluster();
+        SimulatedNode node = cluster.addNode();
+        joinCluster(node);
+        // When
+        EventQueue<Event> queue = EventQueues.lookup("news", EventQueues.APPLICATION, true);
+        // Then
+        assertSame(node.lookup("news"), queue);
+    }
+
+    @Test
+    public void shouldRouteApplicationQueueExistsAndRemoveToClusterNode() {
+        // Given
+        SimulatedCluster cluster = new SimulatedCluster();
+        SimulatedNode node = cluster.addNode();
+        joinCluster(node);
+        EventQueues.lookup("news", EventQueues.APPLICATION, true);
+        // When
+        boolean existed = EventQueues.exists("news", EventQueues.APPLICATION);
+        boolean removed = EventQueues.remove("news", EventQueues.APPLICATION);
+        // Then
+        assertTrue(existed);
+        assertTrue(removed);
+        assertFalse(node.exists("news"));
+        assertFalse(EventQueues.exists("news", EventQueues.APPLICATION));
+        assertFalse(EventQueues.remove("news", EventQueues.APPLICATION));
+    }
+
+    private static RecordingListener subscribe(SimulatedNode node, String queue) {
+        RecordingListener listener = new RecordingListener();
+        node.<Event>lookup(queue).subscribe(listener);
+        return listener;
+    }
+
+    private static final class RecordingListener implements EventListener<Event> {
+
+        private final List<Event> events = new ArrayList<>();
+
+        @Override
+        public void onEvent(Event event) {
+            events.add(event);
+        }
+    }
+
+}
@@ -0,0 +1,270 @@
+package org.zkoss.zkunit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zkoss.zk.ui.UiException;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zul.Button;
+import org.zkoss.zul.Label;
+import org.zkoss.zul.Window;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * A {@link SimulatedDesktop} should process its events one at a time on its own thread, and catch changes made to its
+ * components from any other thread.
+ *
+ * @author Sean Connolly
+ */
+public class SimulatedDesktopTest extends ZKTest {
+
+    private SimulatedDesktop desktop;
+    private Window window;
+    private Label label;
+    private Button button;
+
+    @Before
+    public void attachWindow() {
+        desktop = new SimulatedDesktop("inbox");
+        window = new Window();
+        label = new Label("unread");
+        button = new Button("Refresh");
+        window.appendChild(label);
+        window.appendChild(button);
+        desktop.attach(window);
+    }
+
+    @After
+    public void destroyDesktop() {
+        desktop.destroy();
+    }
+
+    @Test
+    public void shouldHandleEventsOnEventThread() {
+        // Given
+        final List<String> threads = new ArrayList<>();
+        listen(Events.ON_CLICK, new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                threads.add(Thread.currentThread().getName());
+                label.setValue("refreshed");
+            }
+        });
+        // When
+        ZKUtils.simulateEvent(Events.ON_CLICK, button, null);
+        desktop.sendEvent(new Event(Events.ON_CLICK, button));
+        // Then
+        assertEquals(Collections.nCopies(2, "zkunit-desktop-inbox"), threads);
+        ZKAssert.assertNoRaces(desktop);
+    }
+
+    @Test
+    public void shouldRecordRaceFromBackgroundThread() throws Exception {
+        // Given
+        Thread background = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                label.setValue("stale");
+            }
+        }, "background");
+        // When
+        background.start();
+        background.join();
+        // Then
+        assertEquals(1, desktop.getRaceCount());
+        SimulatedDesktop.Race race = desktop.getRaces().get(0);
+        assertEquals("update 'value'", race.getMutation());
+        assertEquals("background", race.getThreadName());
+        assertEquals(label, race.getComponent());
+        assertEquals(getClass().getName(), race.getCallerFrames().get(0).getClassName().split("\\$")[0]);
+    }
+
+    @Test(expected = AssertionError.class)
+    public void shouldFailAssertionOnRace() {
+        // Given
+        button.addEventListener(Events.ON_CLICK, new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                // registering a listener updates the client
+            }
+        });
+        // Then
+        ZKAssert.assertNoRaces(desktop);
+    }
+
+    @Test
+    public void shouldNotRecordChangesToDetachedComponents() {
+        // When
+        Label detached = new Label("draft");
+        detached.setValue("sent");
+        // Then
+        ZKAssert.assertNoRaces(desktop);
+    }
+
+    @Test(expected = UiException.class)
+    public void shouldFailToDetachFromAnotherThread() {
+        label.detach();
+    }
+
+    @Test
+    public void shouldFailToSendEventFromAnotherThread() {
+        // When
+        try {
+            Events.sendEvent(new Event(Events.ON_CLICK, button));
+        } catch (UiException e) {
+            // Then
+            assertEquals(1, desktop.getRaceCount());
+            assertEquals("sendEvent 'onClick'", desktop.getRaces().get(0).getMutation());
+            return;
+        }
+        fail("Expected sendEvent off the event thread to fail");
+    }
+
+    @Test
+    public void shouldRecordRaceForEventPostedFromBackgroundThread() throws Exception {
+        // Given
+        final List<Throwable> failures = new ArrayList<>();
+        Thread background = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Events.postEvent(new Event("onRefresh", button));
+                } catch (UiException e) {
+                    failures.add(e);
+                }
+            }
+        }, "background");
+        // When
+        background.start();
+        background.join();
+        // Then
+        assertEquals(1, failures.size());
+        SimulatedDesktop.Race race = desktop.getRaces().get(0);
+        assertEquals("postEvent 'onRefresh'", race.getMutation());
+        assertEquals("background", race.getThreadName());
+        assertEquals(button, race.getComponent());
+        assertEquals(getClass().getName(), race.getCallerFrames().get(0).getClassName().split("\\$")[0]);
+    }
+
+    @Test
+    public void shouldQueuePostedEventsBehindCurrentEvent() {
+        // Given
+        final List<String> handled = Collections.synchronizedList(new ArrayList<String>());
+        listen(Events.ON_CLICK, new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                Events.postEvent(new Event("onRefresh", button));
+                handled.add(event.getName());
+            }
+        });
+        listen("onRefresh", new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                handled.add(event.getName());
+            }
+        });
+        // When
+        ZKUtils.simulateEvent(Events.ON_CLICK, button, null);
+        desktop.awaitIdle();
+        // Then
+        assertEquals(2, handled.size());
+        assertEquals(Events.ON_CLICK, handled.get(0));
+        assertEquals("onRefresh", handled.get(1));
+    }
+
+    @Test
+    public void shouldMeasureQueueingLatencyUnderLoad() throws Exception {
+        // Given
+        listen(Events.ON_CLICK, new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                label.setValue(String.valueOf(System.nanoTime()));
+            }
+        });
+        ExecutorService users = Executors.newFixedThreadPool(8);
+        List<Future<Void>> sent = new ArrayList<>();
+        // When
+        for (int i = 0; i < 8; i++) {
+            sent.add(users.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int j = 0; j < 50; j++) {
+                        desktop.sendEvent(new Event(Events.ON_CLICK, button));
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : sent) {
+            future.get();
+        }
+        users.shutdown();
+        // Then
+        SimulatedDesktop.Stats stats = desktop.getStats();
+        assertEquals(400, stats.getEvents());
+        assertTrue(stats.getLatencyPercentile(99) <= stats.getMaxLatency());
+        assertTrue(stats.getBusyNanos() > 0);
+        ZKAssert.assertNoRaces(desktop);
+    }
+
+    /**
+     * Adding a listener to an attached component changes it, so must be done on the event thread.
+     */
+    @Test
+    public void shouldTearDownDesktopWhenPostedEventFailed() throws InterruptedException {
+        // Given
+        listen(Events.ON_CLICK, new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                throw new IllegalStateException("refresh failed");
+            }
+        });
+        Thread eventThread = desktop.call(new Callable<Thread>() {
+            @Override
+            public Thread call() {
+                return Thread.currentThread();
+            }
+        });
+        desktop.postEvent(new Event(Events.ON_CLICK, button));
+        // When
+        try {
+            desktop.destroy();
+            fail("Expected the failed event to be reported");
+        } catch (AssertionError e) {
+            // Then
+            assertTrue(e.getMessage(), e.getMessage().contains("refresh failed"));
+        }
+        eventThread.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(eventThread.isAlive());
+        assertFalse(desktop.getPage().getDesktop().isAlive());
+        assertNull(SimulatedDesktop.of(button));
+        assertNull(window.getParent());
+        assertTrue(desktop.getPage().getRoots().isEmpty());
+    }
+
+    private void listen(final String eventName, final EventListener<Event> listener) {
+        desktop.run(new Runnable() {
+            @Override
+            public void run() {
+                button.addEventListener(eventName, listener);
+            }
+        });
+    }
+
+}
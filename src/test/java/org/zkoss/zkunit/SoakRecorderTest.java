@@ -0,0 +1,117 @@
+package org.zkoss.zkunit;
+
+import org.junit.Test;
+import org.mockito.exceptions.misusing.CannotVerifyStubOnlyMock;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zul.Button;
+import org.zkoss.zul.Textbox;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sean Connolly
+ */
+public class SoakRecorderTest extends ZKTest {
+
+    private final SoakRecorder soak = new SoakRecorder(16);
+
+    @Override
+    protected SoakRecorder getSoakRecorder() {
+        return soak;
+    }
+
+    @Test
+    public void shouldKeepOnlyRecentEvents() {
+        // Given
+        Button button = listening(new Button());
+        // When
+        for (int i = 0; i < 10000; i++) {
+            Events.sendEvent(Events.ON_CLICK, button, i);
+        }
+        // Then
+        assertEquals(10000, soak.getEvents());
+        List<SoakRecorder.Entry> recent = soak.getRecent();
+        assertEquals(16, recent.size());
+        assertEquals(Events.ON_CLICK, recent.get(15).getName());
+        assertEquals(Button.class.getName(), recent.get(15).getTargetType());
+        assertEquals(System.identityHashCode(button), recent.get(15).getTargetId());
+    }
+
+    @Test
+    public void shouldAggregateByEventName() {
+        // Given
+        Button button = listening(new Button());
+        Textbox textbox = new Textbox();
+        textbox.addEventListener(Events.ON_CHANGE, new NoOpListener());
+        // When
+        for (int i = 0; i < 30; i++) {
+            ZKUtils.simulateEvent(Events.ON_CLICK, button, null);
+        }
+        for (int i = 0; i < 20; i++) {
+            Events.postEvent(Events.ON_CHANGE, textbox, null);
+        }
+        // Then
+        assertEquals("{onClick=30, onChange=20}", soak.getCountsByName().toString());
+        assertTrue(soak.getMaxNanos() >= soak.getMeanNanos(Events.ON_CLICK));
+        assertTrue(soak.getRecentRate() > 0);
+    }
+
+    @Test
+    public void shouldRecordOnlyOutermostDispatch() {
+        // Given
+        final Button inner = listening(new Button());
+        Button outer = new Button();
+        outer.addEventListener(Events.ON_CLICK, new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                Events.sendEvent(Events.ON_CLICK, inner, null);
+            }
+        });
+        // When
+        ZKUtils.simulateEvent(Events.ON_CLICK, outer, null);
+        // Then
+        assertEquals(1, soak.getEvents());
+    }
+
+    @Test(expected = CannotVerifyStubOnlyMock.class)
+    public void shouldNotRecordInvocations() {
+        // Given
+        Button button = listening(new Button());
+        Events.sendEvent(Events.ON_CLICK, button, null);
+        // When
+        ZKAssert.assertEventSent(Events.ON_CLICK, button);
+    }
+
+    @Test
+    public void shouldRecordOverflowingNamesAsOther() {
+        // Given
+        SoakRecorder recorder = new SoakRecorder(4);
+        Button button = new Button();
+        // When
+        for (int i = 0; i < SoakRecorder.MAX_SYMBOLS + 10; i++) {
+            recorder.record(new Event("onCustom" + i, button), 1);
+        }
+        // Then
+        assertEquals(SoakRecorder.MAX_SYMBOLS + 10, recorder.getEvents());
+        assertTrue(recorder.getCountsByName().containsKey(SoakRecorder.OTHER));
+        assertTrue(recorder.getCountsByName().size() <= SoakRecorder.MAX_SYMBOLS);
+    }
+
+    private static Button listening(Button button) {
+        button.addEventListener(Events.ON_CLICK, new NoOpListener());
+        return button;
+    }
+
+    private static final class NoOpListener implements EventListener<Event> {
+        @Override
+        public void onEvent(Event event) {
+            // nothing to do
+        }
+    }
+
+}
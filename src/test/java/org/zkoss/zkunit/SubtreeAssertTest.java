@@ -0,0 +1,136 @@
+package org.zkoss.zkunit;
+
+import org.junit.Test;
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zk.ui.HtmlNativeComponent;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zul.A;
+import org.zkoss.zul.Button;
+import org.zkoss.zul.Label;
+import org.zkoss.zul.Vlayout;
+import org.zkoss.zul.Window;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasProperty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Sean Connolly
+ */
+public class SubtreeAssertTest {
+
+    @Test
+    public void shouldPassMatchingSubtree() {
+        // Given
+        Window page = messagesPage(10);
+        // When
+        ComponentSpec spec = ComponentSpec.of(Window.class)
+                .children(
+                        ComponentSpec.of(Vlayout.class)
+                                .childCount(10)
+                                .allChildren(ComponentSpec.of(A.class).noChildren()),
+                        ComponentSpec.of(Button.class).hasEventListener(Events.ON_CLICK),
+                        ComponentSpec.nativeHtml("hr"))
+                .noDescendantOfType(Label.class);
+        // Then
+        ZKAssert.assertSubtree(page, spec);
+    }
+
+    @Test
+    public void shouldReportEveryMismatchWithItsPath() {
+        // Given
+        Window page = messagesPage(3);
+        page.getFirstChild().appendChild(new Label("oops"));
+        ComponentSpec spec = ComponentSpec.of(Window.class)
+                .children(
+                        ComponentSpec.of(Vlayout.class).childCount(3).allChildren(ComponentSpec.of(A.class)),
+                        ComponentSpec.of(Button.class).hasEventListener(Events.ON_DOUBLE_CLICK),
+                        ComponentSpec.nativeHtml("br"))
+                .noDescendantOfType(Label.class);
+        // When
+        try {
+            ZKAssert.assertSubtree(page, spec);
+            fail("expected mismatches");
+        } catch (AssertionError e) {
+            // Then
+            String message = e.getMessage();
+            assertThat(message, containsString("5 mismatches"));
+            assertThat(message, containsString("Window/Vlayout[0]: expected 3 children, found 4"));
+            assertThat(message, containsString("Window/Vlayout[0]/Label[3]: should not be a Label"));
+            assertThat(message, containsString("Window/Vlayout[0]/Label[3]: expected a A, found a Label"));
+            assertThat(message, containsString("Window/Button[1]#add: expected 'onDoubleClick' event registered"));
+            assertThat(message, containsString("Window/HtmlNativeComponent[2]: expected <br>, found <hr>"));
+        }
+    }
+
+    @Test
+    public void shouldReportHamcrestMismatches() {
+        // Given
+        Label label = new Label("hello");
+        ComponentSpec spec = ComponentSpec.of(Label.class).matches(hasProperty("value", is("goodbye")));
+        // When
+        try {
+            ZKAssert.assertSubtree(label, spec);
+            fail("expected a mismatch");
+        } catch (AssertionError e) {
+            // Then
+            assertThat(e.getMessage(), containsString("Label: expected hasProperty(\"value\", is \"goodbye\")"));
+        }
+    }
+
+    @Test
+    public void shouldReportSameMismatchesInParallel() {
+        // Given
+        Window page = messagesPage(1000);
+        page.getFirstChild().getChildren().get(500).appendChild(new Label("oops"));
+        page.getFirstChild().getChildren().get(900).appendChild(new Label("oops"));
+        ComponentSpec spec = ComponentSpec.of(Window.class).noDescendantOfType(Label.class);
+        // When
+        String serial = failureOf(page, spec, null);
+        String parallel = failureOf(page, spec, new ForkJoinPool(4));
+        // Then
+        assertThat(parallel, is(serial));
+        assertThat(parallel, containsString("2 mismatches"));
+    }
+
+    private static String failureOf(Component root, ComponentSpec spec, ForkJoinPool pool) {
+        try {
+            if (pool == null) {
+                ZKAssert.assertSubtree(root, spec);
+            } else {
+                ZKAssert.assertSubtreeInParallel(root, spec, pool, 16);
+            }
+        } catch (AssertionError e) {
+            return e.getMessage();
+        }
+        fail("expected mismatches");
+        return null;
+    }
+
+    private static Window messagesPage(int messages) {
+        Window page = new Window();
+        Vlayout messagesList = new Vlayout();
+        for (int i = 0; i < messages; i++) {
+            messagesList.appendChild(new A("Message #" + i));
+        }
+        page.appendChild(messagesList);
+        Button add = new Button("Add");
+        add.setId("add");
+        add.addEventListener(Events.ON_CLICK, new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                // do nothing
+            }
+        });
+        page.appendChild(add);
+        page.appendChild(new HtmlNativeComponent("hr"));
+        return page;
+    }
+
+}
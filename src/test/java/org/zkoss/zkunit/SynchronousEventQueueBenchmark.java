@@ -0,0 +1,68 @@
+package org.zkoss.zkunit;
+
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares publishing a burst of events one at a time, as a batch, and as a batch fanned out in parallel.<br/>
+ * Not a test; run it directly, optionally passing the number of subscribers, events and rounds.
+ *
+ * @author Sean Connolly
+ */
+public class SynchronousEventQueueBenchmark {
+
+    public static void main(String[] args) {
+        int subscribers = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int events = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        List<Event> burst = new ArrayList<>();
+        for (int i = 0; i < events; i++) {
+            burst.add(new Event("onNews", null, i));
+        }
+        SynchronousEventQueue<Event> serial = queue(subscribers);
+        SynchronousEventQueue<Event> parallel = queue(subscribers);
+        parallel.setParallelFanOut(new ForkJoinPool(), 1);
+        for (int round = 0; round < rounds; round++) {
+            long eachNanos = time(serial, burst, false);
+            long batchNanos = time(serial, burst, true);
+            long parallelNanos = time(parallel, burst, true);
+            System.out.printf("round %2d: publish %8.2fms  publishAll %8.2fms  parallel publishAll %8.2fms%n",
+                    round, eachNanos / 1e6, batchNanos / 1e6, parallelNanos / 1e6);
+        }
+    }
+
+    private static long time(SynchronousEventQueue<Event> queue, List<Event> burst, boolean batch) {
+        long start = System.nanoTime();
+        if (batch) {
+            queue.publishAll(burst);
+        } else {
+            for (Event event : burst) {
+                queue.publish(event);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static SynchronousEventQueue<Event> queue(int subscribers) {
+        SynchronousEventQueue<Event> queue = new SynchronousEventQueue<>();
+        for (int i = 0; i < subscribers; i++) {
+            queue.subscribe(new CountingListener());
+        }
+        return queue;
+    }
+
+    private static final class CountingListener implements EventListener<Event> {
+
+        private long sum;
+
+        @Override
+        public void onEvent(Event event) {
+            sum += (Integer) event.getData();
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+package org.zkoss.zkunit;
+
+import org.junit.Test;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Sean Connolly
+ */
+public class SynchronousEventQueueTest {
+
+    @Test
+    public void shouldPublishBatchToEverySubscriberInOrder() {
+        // Given
+        SynchronousEventQueue<Event> queue = new SynchronousEventQueue<>();
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        queue.subscribe(first);
+        queue.subscribe(second);
+        List<Event> events = events(5);
+        // When
+        queue.publishAll(events);
+        // Then
+        assertEquals(events, first.events);
+        assertEquals(events, second.events);
+    }
+
+    @Test
+    public void shouldInvokeCallbackAfterEachEvent() {
+        // Given
+        SynchronousEventQueue<Event> queue = new SynchronousEventQueue<>();
+        RecordingListener listener = new RecordingListener();
+        RecordingListener callback = new RecordingListener();
+        queue.subscribe(listener, callback);
+        List<Event> events = events(3);
+        // When
+        queue.publishAll(events);
+        // Then
+        assertEquals(events, callback.events);
+    }
+
+    @Test
+    public void shouldKeepPerSubscriberOrderInParallel() {
+        // Given
+        SynchronousEventQueue<Event> queue = new SynchronousEventQueue<>();
+        queue.setParallelFanOut(new ForkJoinPool(4), 1);
+        List<RecordingListener> listeners = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            RecordingListener listener = new RecordingListener();
+            listeners.add(listener);
+            queue.subscribe(listener);
+        }
+        List<Event> events = events(50);
+        // When
+        queue.publishAll(events);
+        queue.publish(events.get(0));
+        // Then
+        List<Event> expected = new ArrayList<>(events);
+        expected.add(events.get(0));
+        for (RecordingListener listener : listeners) {
+            assertEquals(expected, listener.events);
+        }
+    }
+
+    @Test
+    public void shouldWrapListenerExceptionInParallel() {
+        // Given
+        SynchronousEventQueue<Event> queue = new SynchronousEventQueue<>();
+        queue.setParallelFanOut(new ForkJoinPool(2), 1);
+        queue.subscribe(new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) throws Exception {
+                throw new Exception("boom");
+            }
+        });
+        // When
+        try {
+            queue.publishAll(Collections.singletonList(new Event("onBoom")));
+            fail("expected the listener's exception");
+        } catch (RuntimeException e) {
+            // Then
+            assertEquals("boom", rootCause(e).getMessage());
+        }
+    }
+
+    @Test
+    public void shouldAllowSubscribingWhilePublishing() {
+        // Given
+        final SynchronousEventQueue<Event> queue = new SynchronousEventQueue<>();
+        RecordingListener first = new RecordingListener();
+        queue.subscribe(first);
+        queue.subscribe(new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                queue.subscribe(new RecordingListener());
+            }
+        });
+        // When
+        queue.publishAll(events(5));
+        // Then
+        assertEquals(5, first.events.size());
+        assertEquals(7, queue.getSubscriberCount());
+    }
+
+    @Test
+    public void shouldPublishWhileOtherThreadSubscribes() throws InterruptedException {
+        // Given
+        final SynchronousEventQueue<Event> queue = new SynchronousEventQueue<>();
+        RecordingListener listener = new RecordingListener();
+        queue.subscribe(listener);
+        Thread subscriber = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 10000; i++) {
+                    RecordingListener other = new RecordingListener();
+                    queue.subscribe(other);
+                    queue.unsubscribe(other);
+                }
+            }
+        });
+        // When
+        subscriber.start();
+        for (int i = 0; i < 1000; i++) {
+            queue.publish(new Event("onNews", null, i));
+        }
+        subscriber.join();
+        // Then
+        assertEquals(1000, listener.events.size());
+        assertEquals(1, queue.getSubscriberCount());
+    }
+
+    private static Throwable rootCause(Throwable throwable) {
+        while (throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        return throwable;
+    }
+
+    private static List<Event> events(int count) {
+        Event[] events = new Event[count];
+        for (int i = 0; i < count; i++) {
+            events[i] = new Event("onNews", null, i);
+        }
+        return Arrays.asList(events);
+    }
+
+    private static final class RecordingListener implements EventListener<Event> {
+
+        private final List<Event> events = Collections.synchronizedList(new ArrayList<Event>());
+
+        @Override
+        public void onEvent(Event event) {
+            events.add(event);
+        }
+    }
+
+}
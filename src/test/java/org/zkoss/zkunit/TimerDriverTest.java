@@ -0,0 +1,112 @@
+package org.zkoss.zkunit;
+
+import org.junit.Test;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zul.Timer;
+import org.zkoss.zul.Vlayout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * @author Sean Connolly
+ */
+public class TimerDriverTest {
+
+    @Test
+    public void shouldFireRepeatingTimerForAnHour() {
+        // Given
+        Vlayout dashboard = new Vlayout();
+        CountingTimer timer = new CountingTimer(1000, true);
+        dashboard.appendChild(timer);
+        TimerDriver driver = new TimerDriver(dashboard);
+        // When
+        TimerDriver.TimerReport report = driver.advance(60 * 60 * 1000);
+        // Then
+        assertEquals(3600, timer.count);
+        assertEquals(3600, report.getTicks().size());
+        assertEquals(3600, report.getListenersInvoked());
+        assertEquals(60 * 60 * 1000, driver.getTime());
+    }
+
+    @Test
+    public void shouldFireOneShotTimerOnce() {
+        // Given
+        CountingTimer timer = new CountingTimer(500, false);
+        TimerDriver driver = new TimerDriver(timer);
+        // When
+        TimerDriver.TimerReport report = driver.advance(10000);
+        // Then
+        assertEquals(1, timer.count);
+        assertEquals(500, report.getTicks().get(0).getTime());
+        assertFalse(timer.isRunning());
+    }
+
+    @Test
+    public void shouldNotFireStoppedTimer() {
+        // Given
+        CountingTimer timer = new CountingTimer(100, true);
+        timer.stop();
+        TimerDriver driver = new TimerDriver(timer);
+        // When
+        driver.advance(10000);
+        // Then
+        assertEquals(0, timer.count);
+    }
+
+    @Test
+    public void shouldFireTimersDueTogetherInOneTick() {
+        // Given
+        Vlayout dashboard = new Vlayout();
+        CountingTimer fast = new CountingTimer(100, true);
+        CountingTimer slow = new CountingTimer(300, true);
+        dashboard.appendChild(fast);
+        dashboard.appendChild(slow);
+        TimerDriver driver = new TimerDriver(dashboard);
+        // When
+        TimerDriver.TimerReport report = driver.advance(300);
+        // Then
+        assertEquals(3, fast.count);
+        assertEquals(1, slow.count);
+        assertEquals(3, report.getTicks().size());
+        assertEquals(2, report.getTicks().get(2).getTimersFired());
+    }
+
+    @Test
+    public void shouldPickUpTimersStoppedByListeners() {
+        // Given
+        final CountingTimer timer = new CountingTimer(100, true);
+        timer.addEventListener(Events.ON_TIMER, new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                if (timer.count == 5) {
+                    timer.stop();
+                }
+            }
+        });
+        TimerDriver driver = new TimerDriver(timer);
+        // When
+        driver.advance(10000);
+        // Then
+        assertEquals(5, timer.count);
+    }
+
+    private static class CountingTimer extends Timer {
+
+        private int count = 0;
+
+        private CountingTimer(int delay, boolean repeats) {
+            super(delay);
+            setRepeats(repeats);
+            addEventListener(Events.ON_TIMER, new EventListener<Event>() {
+                @Override
+                public void onEvent(Event event) {
+                    count++;
+                }
+            });
+        }
+    }
+
+}
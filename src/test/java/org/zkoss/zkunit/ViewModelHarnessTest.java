@@ -0,0 +1,219 @@
+package org.zkoss.zkunit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.zkoss.bind.BindUtils;
+import org.zkoss.bind.annotation.BindingParam;
+import org.zkoss.bind.annotation.Command;
+import org.zkoss.bind.annotation.GlobalCommand;
+import org.zkoss.bind.annotation.Init;
+import org.zkoss.bind.annotation.NotifyChange;
+import org.zkoss.zul.Intbox;
+import org.zkoss.zul.Label;
+import org.zkoss.zul.Textbox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A {@link ViewModelHarness} should load, save and notify bindings as the ZK binder would.
+ *
+ * @author Sean Connolly
+ */
+public class ViewModelHarnessTest extends ZKTest {
+
+    private ViewModelHarness<CartViewModel> harness;
+
+    @After
+    public void closeHarness() {
+        if (harness != null) {
+            harness.close();
+        }
+    }
+
+    @Test
+    public void shouldInvokeInit() {
+        // When
+        harness = new ViewModelHarness<>(new CartViewModel());
+        // Then
+        assertEquals("Cart", harness.getViewModel().getTitle());
+    }
+
+    @Test
+    public void shouldLoadBindingsImmediately() {
+        // Given
+        harness = new ViewModelHarness<>(new CartViewModel());
+        Label title = new Label();
+        // When
+        harness.load(title, "value", "title");
+        // Then
+        assertEquals("Cart", title.getValue());
+    }
+
+    @Test
+    public void shouldReloadBindingsNotifiedByCommand() {
+        // Given
+        harness = new ViewModelHarness<>(new CartViewModel());
+        Label total = new Label();
+        Label title = new Label();
+        harness.load(total, "value", "total").load(title, "value", "title");
+        // When
+        ViewModelHarness.CommandTrace trace =
+                harness.command("add", Collections.<String, Object>singletonMap("price", "5"));
+        // Then
+        assertEquals("5", total.getValue());
+        assertEquals(2, trace.getNotifications().size());
+        assertEquals(1, trace.getReevaluations());
+        assertEquals(1, trace.getComponentUpdates());
+    }
+
+    @Test
+    public void shouldReloadNestedPaths() {
+        // Given
+        harness = new ViewModelHarness<>(new CartViewModel());
+        Label first = new Label();
+        harness.load(first, "value", "items[0]");
+        // When
+        harness.command("add", Collections.<String, Object>singletonMap("price", 7));
+        // Then
+        assertEquals("7", first.getValue());
+    }
+
+    @Test
+    public void shouldSaveTwoWayBindingsBeforeCommand() {
+        // Given
+        harness = new ViewModelHarness<>(new CartViewModel());
+        Textbox titleBox = new Textbox();
+        Label title = new Label();
+        harness.bind(titleBox, "value", "title").load(title, "value", "title");
+        titleBox.setValue("Basket");
+        // When
+        ViewModelHarness.CommandTrace trace = harness.command("clear");
+        // Then
+        assertEquals("Basket", harness.getViewModel().getTitle());
+        assertEquals("Basket", title.getValue());
+        assertTrue(trace.getNotifiedProperties().contains("CartViewModel.title"));
+    }
+
+    @Test
+    public void shouldNotifyAllPropertiesForWildcard() {
+        // Given
+        harness = new ViewModelHarness<>(new CartViewModel());
+        Label total = new Label();
+        Label title = new Label();
+        harness.load(total, "value", "total").load(title, "value", "title");
+        // When
+        ViewModelHarness.CommandTrace trace = harness.command("clear");
+        // Then
+        assertEquals(2, trace.getReevaluations());
+        assertEquals(0, trace.getComponentUpdates());
+    }
+
+    @Test
+    public void shouldRoutePostNotifyChange() {
+        // Given
+        harness = new ViewModelHarness<>(new CartViewModel());
+        Intbox count = new Intbox();
+        harness.load(count, "value", "count");
+        // When
+        ViewModelHarness.CommandTrace trace = harness.command("addQuietly");
+        // Then
+        assertEquals(Integer.valueOf(1), count.getValue());
+        assertEquals("BindUtils.postNotifyChange", trace.getNotifications().get(0).getSource());
+    }
+
+    @Test
+    public void shouldRouteGlobalCommands() {
+        // Given
+        harness = new ViewModelHarness<>(new CartViewModel());
+        Label title = new Label();
+        harness.load(title, "value", "title");
+        // When
+        BindUtils.postGlobalCommand(null, null, "rename",
+                Collections.<String, Object>singletonMap("title", "Trolley"));
+        // Then
+        assertEquals("Trolley", title.getValue());
+    }
+
+    @Test(expected = AssertionError.class)
+    public void shouldFailWhenTooManyBindingsAreReevaluated() {
+        // Given
+        harness = new ViewModelHarness<>(new CartViewModel());
+        harness.load(new Label(), "value", "total").load(new Label(), "value", "title");
+        // When
+        ViewModelHarness.CommandTrace trace = harness.command("clear");
+        // Then
+        trace.assertReevaluationsAtMost(1);
+    }
+
+    @Test(expected = AssertionError.class)
+    public void shouldFailForUnknownCommand() {
+        harness = new ViewModelHarness<>(new CartViewModel());
+        harness.command("missing");
+    }
+
+    public static class CartViewModel {
+
+        private String title;
+        private final List<Integer> items = new ArrayList<>();
+
+        @Init
+        public void init() {
+            title = "Cart";
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        @NotifyChange
+        public void setTitle(String title) {
+            this.title = title;
+        }
+
+        public List<Integer> getItems() {
+            return items;
+        }
+
+        public int getTotal() {
+            int total = 0;
+            for (Integer item : items) {
+                total += item;
+            }
+            return total;
+        }
+
+        public int getCount() {
+            return items.size();
+        }
+
+        @Command
+        @NotifyChange({"total", "items"})
+        public void add(@BindingParam("price") int price) {
+            items.add(price);
+        }
+
+        @Command
+        public void addQuietly() {
+            items.add(1);
+            BindUtils.postNotifyChange(null, null, this, "count");
+        }
+
+        @Command
+        @NotifyChange("*")
+        public void clear() {
+            items.clear();
+        }
+
+        @GlobalCommand
+        @NotifyChange("title")
+        public void rename(@BindingParam("title") String title) {
+            this.title = title;
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package org.zkoss.zkunit;
+
+import org.junit.Test;
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zul.A;
+import org.zkoss.zul.Button;
+import org.zkoss.zul.Label;
+import org.zkoss.zul.Vlayout;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Sean Connolly
+ */
+public class ZKAssertionsTest {
+
+    @Test
+    public void shouldChainPassingAssertions() {
+        // Given
+        Vlayout messagesList = new Vlayout();
+        messagesList.setSclass("messages");
+        for (int i = 0; i < 10; i++) {
+            messagesList.appendChild(new A("Message #" + i));
+        }
+        // Then
+        ZKAssertions.assertThat(messagesList)
+                .hasStyleClass("messages")
+                .hasChildCount(10)
+                .allChildrenAreOfType(A.class)
+                .hasNoChildOfType(Button.class)
+                .child(3).isInstanceOf(A.class).hasNoChildren();
+    }
+
+    @Test
+    public void shouldReportFailingAssertion() {
+        // Given
+        Vlayout messagesList = new Vlayout();
+        messagesList.appendChild(new A("Message"));
+        messagesList.appendChild(new Label("Not a message"));
+        // When
+        try {
+            ZKAssertions.assertThat(messagesList).allChildrenAreOfType(A.class);
+            fail("expected a failure");
+        } catch (AssertionError e) {
+            // Then
+            assertEquals("expected child 1 to be a A, found Label", e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldNotDescribeComponentWhenPassing() {
+        // Given
+        ExpensiveButton button = new ExpensiveButton();
+        button.addEventListener(Events.ON_CLICK, new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                // do nothing
+            }
+        });
+        // When
+        ZKAssertions.assertThat(button).hasEventListener(Events.ON_CLICK).hasNoEventListeners(Events.ON_CHANGE);
+        ZKAssert.assertHasEventListener(button, Events.ON_CLICK);
+        // Then
+        assertEquals(0, button.described);
+    }
+
+    @Test
+    public void shouldDescribeComponentWhenFailing() {
+        // Given
+        ExpensiveButton button = new ExpensiveButton();
+        // When
+        try {
+            ZKAssertions.assertThat(button).hasEventListener(Events.ON_CLICK);
+            fail("expected a failure");
+        } catch (AssertionError e) {
+            // Then
+            assertThat(e.getMessage(), containsString("expensive"));
+            assertEquals(1, button.described);
+        }
+    }
+
+    @Test
+    public void shouldFailOnMissingChild() {
+        // Given
+        Component empty = new Vlayout();
+        // When
+        try {
+            ZKAssertions.assertThat(empty).child(0);
+            fail("expected a failure");
+        } catch (AssertionError e) {
+            // Then
+            assertEquals("expected at least 1 children, found 0", e.getMessage());
+        }
+    }
+
+    private static class ExpensiveButton extends Button {
+
+        private int described = 0;
+
+        @Override
+        public String toString() {
+            described++;
+            return "expensive";
+        }
+    }
+
+}
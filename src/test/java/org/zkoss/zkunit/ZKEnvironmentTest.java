@@ -0,0 +1,99 @@
+package org.zkoss.zkunit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.zkoss.bind.BindUtils;
+import org.zkoss.zk.ui.Executions;
+import org.zkoss.zk.ui.Sessions;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.EventQueue;
+import org.zkoss.zk.ui.event.EventQueues;
+import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zk.ui.select.Selectors;
+import org.zkoss.zk.ui.util.Clients;
+import org.zkoss.zul.Button;
+import org.zkoss.zul.Filedownload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * A {@link ZKEnvironment} rule should mock the ZK environment for tests which don't extend {@link ZKTest}.
+ *
+ * @author Sean Connolly
+ */
+@RunWith(ZKTestRunner.class)
+@PowerMockIgnore("org.zkoss.zkunit.ZKTimings*")
+@PrepareForTest({Selectors.class, Sessions.class, Clients.class, Events.class, EventQueues.class, Executions.class,
+        Filedownload.class, BindUtils.class})
+public class ZKEnvironmentTest {
+
+    @Rule
+    public final ZKEnvironment zk = new ZKEnvironment();
+
+    @Test
+    public void shouldHandleEventsImmediately() {
+        // Given
+        Button button = new Button();
+        final AtomicInteger clicks = new AtomicInteger();
+        button.addEventListener(Events.ON_CLICK, new EventListener<Event>() {
+            @Override
+            public void onEvent(Event event) {
+                clicks.incrementAndGet();
+            }
+        });
+        // When
+        Events.sendEvent(new Event(Events.ON_CLICK, button));
+        // Then
+        assertEquals(1, clicks.get());
+    }
+
+    @Test
+    public void shouldDestroyDesktopsOnUninstall() {
+        // Given
+        SimulatedDesktop desktop = new SimulatedDesktop("orphan");
+        Button button = desktop.attach(new Button());
+        // When
+        zk.uninstall();
+        // Then
+        assertFalse(desktop.getDesktop().isAlive());
+        assertNull(button.getDesktop());
+    }
+
+    @Test
+    public void shouldShareQueuesAcrossThreads() throws Exception {
+        // Given
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        List<Future<EventQueue<Event>>> lookups = new ArrayList<>();
+        // When
+        for (int i = 0; i < 32; i++) {
+            lookups.add(threads.submit(new Callable<EventQueue<Event>>() {
+                @Override
+                public EventQueue<Event> call() {
+                    return EventQueues.lookup("news", EventQueues.DESKTOP, true);
+                }
+            }));
+        }
+        // Then
+        EventQueue<Event> queue = EventQueues.lookup("news", EventQueues.DESKTOP, true);
+        for (Future<EventQueue<Event>> lookup : lookups) {
+            assertSame(queue, lookup.get());
+        }
+        threads.shutdown();
+    }
+
+}
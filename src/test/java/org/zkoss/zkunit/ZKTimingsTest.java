@@ -0,0 +1,136 @@
+package org.zkoss.zkunit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zul.Button;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ZKTimings} should record the cost of every {@link ZKTest} class, across PowerMock's class loaders.<br/>
+ * Timings are only recorded with the {@code zkunit.timings} system property, which the {@code timings} profile sets, so
+ * these tests enable recording themselves.
+ *
+ * @author Sean Connolly
+ */
+public class ZKTimingsTest {
+
+    private boolean enabled;
+
+    @Before
+    public void enableTimings() {
+        enabled = ZKTimings.isEnabled();
+        ZKTimings.setEnabled(true);
+    }
+
+    @After
+    public void restoreTimings() {
+        ZKTimings.setEnabled(enabled);
+    }
+
+    @Test
+    public void shouldRecordEachTestClass() {
+        // Given
+        long tests = recorded("tests");
+        // When
+        Result result = JUnitCore.runClasses(TimedTest.class);
+        // Then
+        assertTrue(result.wasSuccessful());
+        assertEquals(tests + 2, recorded("tests"));
+    }
+
+    @Test
+    public void shouldRecordEventDispatch() {
+        // Given
+        long events = recorded("events");
+        // When
+        JUnitCore.runClasses(TimedTest.class);
+        // Then
+        assertEquals(events + 1, recorded("events"));
+    }
+
+    @Test
+    public void shouldRecordEachMockedStatic() {
+        // When
+        JUnitCore.runClasses(TimedTest.class);
+        // Then
+        String report = ZKTimings.report();
+        assertTrue(report, report.contains("{\"name\": \"" + Events.class.getName() + "\", \"mocks\": "));
+        assertTrue(report, report.contains("\"totals\": {\"classLoaderMillis\": "));
+    }
+
+    @Test
+    public void shouldNotRecordWhenDisabled() {
+        // Given
+        ZKTimings.setEnabled(false);
+        long tests = recorded("tests");
+        // When
+        Result result = JUnitCore.runClasses(TimedTest.class);
+        // Then
+        assertTrue(result.wasSuccessful());
+        assertEquals(tests, recorded("tests"));
+    }
+
+    @Test
+    public void shouldNotBeLoadedByPowerMock() {
+        // When
+        Result result = JUnitCore.runClasses(LoaderTest.class);
+        // Then
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+    }
+
+    @Test
+    public void shouldLeaveSystemPropertiesAlone() {
+        // When
+        JUnitCore.runClasses(TimedTest.class);
+        // Then
+        for (Object value : System.getProperties().values()) {
+            assertTrue(String.valueOf(value), value instanceof String);
+        }
+        assertFalse(System.getProperties().containsKey(ZKTimings.REPORT_PROPERTY + ".store"));
+    }
+
+    /**
+     * @return a count recorded for {@link TimedTest}, or 0 if it hasn't been run yet
+     */
+    private static long recorded(String count) {
+        String report = ZKTimings.report();
+        int entry = report.indexOf("{\"name\": \"" + TimedTest.class.getName() + "\"");
+        if (entry < 0) {
+            return 0;
+        }
+        String timings = report.substring(entry, report.indexOf('}', entry));
+        int value = timings.indexOf("\"" + count + "\": ") + count.length() + 4;
+        return Long.parseLong(timings.substring(value, timings.indexOf(',', value)));
+    }
+
+    public static class TimedTest extends ZKTest {
+
+        @Test
+        public void shouldDispatch() {
+            Events.sendEvent(new Event(Events.ON_CLICK, new Button()));
+        }
+
+        @Test
+        public void shouldDoNothing() {
+        }
+    }
+
+    public static class LoaderTest extends ZKTest {
+
+        @Test
+        public void shouldShareTimingsWithSystemClassLoader() {
+            assertNotSame(getClass().getClassLoader(), ZKTimings.class.getClassLoader());
+            assertTrue(ZKTimings.isEnabled());
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+package org.zkoss.zkunit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.zkoss.zk.ui.Component;
+import org.zkoss.zk.ui.Executions;
+import org.zkoss.zk.ui.HtmlNativeComponent;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zk.ui.util.Composer;
+import org.zkoss.zul.Button;
+import org.zkoss.zul.Label;
+import org.zkoss.zul.Vlayout;
+import org.zkoss.zul.Window;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ZUL pages should be loaded from the classpath into component trees, and parsed only once.
+ *
+ * @author Sean Connolly
+ */
+public class ZulDefinitionStoreTest extends ZKTest {
+
+    private static final String PAGE = "/zul/messages.zul";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldCreateComponentsFromPage() {
+        // When
+        Component root = Executions.createComponents(PAGE, null, null);
+        // Then
+        ZKAssert.assertSubtree(root, ComponentSpec.of(Window.class)
+                .children(
+                        ComponentSpec.of(Vlayout.class).sclass("messages").childCount(3)
+                                .allChildren(ComponentSpec.of(Label.class)),
+                        ComponentSpec.of(Button.class),
+                        ComponentSpec.nativeHtml("div")));
+        assertEquals("Messages", ((Window) root).getTitle());
+        assertEquals("first", ((Label) root.getFellow("list").getFirstChild()).getValue());
+        assertEquals("second", ((Label) root.getFellow("list").getChildren().get(1)).getValue());
+        assertEquals("footer", ((HtmlNativeComponent) root.getLastChild()).getDynamicProperty("class"));
+    }
+
+    @Test
+    public void shouldAppendToParent() {
+        // Given
+        Window parent = new Window();
+        // When
+        Component root = ZKUtils.createComponents(PAGE, parent);
+        // Then
+        assertEquals(parent, root.getParent());
+    }
+
+    @Test
+    public void shouldApplyComposerAndForwardEvents() {
+        // Given
+        Component root = Executions.createComponents(PAGE, null, null);
+        MessagesComposer composer = (MessagesComposer) root.getAttribute(EventDispatcher.COMPOSER_ATTRIBUTE);
+        // When
+        Events.sendEvent(new Event(Events.ON_CLICK, root.getFellow("clear")));
+        // Then
+        assertTrue(composer.composed);
+        assertEquals(0, root.getFellow("list").getChildren().size());
+    }
+
+    @Test
+    public void shouldCreateComponentsDirectly() {
+        // When
+        Component root = Executions.createComponentsDirectly("<hbox><textbox value='x'/></hbox>", "zul", null, null);
+        // Then
+        ZKAssert.assertOnlyChildIsOfType(root, org.zkoss.zul.Textbox.class);
+    }
+
+    @Test
+    public void shouldCreateNewComponentsEachTime() {
+        // When
+        Component first = ZKUtils.createComponents(PAGE, null);
+        Component second = ZKUtils.createComponents(PAGE, null);
+        // Then
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void shouldParseOnceInMemory() {
+        // Given
+        ZulDefinitionStore store = new ZulDefinitionStore(null);
+        // When
+        store.load(PAGE);
+        store.load(PAGE);
+        // Then
+        assertEquals(1, store.getParses());
+        assertEquals(1, store.getMemoryHits());
+    }
+
+    @Test
+    public void shouldParseOnceOnDisk() throws IOException {
+        // Given
+        File cache = folder.newFolder();
+        new ZulDefinitionStore(cache).load(PAGE);
+        ZulDefinitionStore store = new ZulDefinitionStore(cache);
+        // When
+        ZulDefinition definition = store.load(PAGE);
+        // Then
+        assertEquals(0, store.getParses());
+        assertEquals(1, store.getDiskHits());
+        assertEquals(Window.class, definition.create(null).get(0).getClass());
+    }
+
+    @Test
+    public void shouldIgnorePlantedCacheFile() throws IOException {
+        // Given
+        File cache = folder.newFolder();
+        new ZulDefinitionStore(cache).load(PAGE);
+        File[] cached = cache.listFiles();
+        assertEquals(1, cached.length);
+        try (ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(cached[0]))) {
+            output.writeObject(new Planted());
+        }
+        ZulDefinitionStore store = new ZulDefinitionStore(cache);
+        // When
+        ZulDefinition definition = store.load(PAGE);
+        // Then
+        assertEquals(1, store.getParses());
+        assertEquals(0, store.getDiskHits());
+        assertFalse(Planted.deserialized);
+        assertEquals(Window.class, definition.create(null).get(0).getClass());
+    }
+
+    /**
+     * Stands in for a gadget class on the test classpath, which runs code as it is deserialized.
+     */
+    private static final class Planted implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private static boolean deserialized;
+
+        private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+            deserialized = true;
+            input.defaultReadObject();
+        }
+    }
+
+    public static class MessagesComposer implements Composer<Window> {
+
+        private boolean composed;
+        private Window window;
+
+        @Override
+        public void doAfterCompose(Window window) {
+            this.window = window;
+            this.composed = true;
+        }
+
+        public void onClear() {
+            window.getFellow("list").getChildren().clear();
+        }
+    }
+
+}